@@ -1,11 +1,18 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.openstreetmap.osmosis.core.pipeline.common.TaskConfiguration;
 import org.openstreetmap.osmosis.core.pipeline.common.TaskManager;
 import org.openstreetmap.osmosis.core.pipeline.common.TaskManagerFactory;
@@ -13,11 +20,19 @@ import org.openstreetmap.osmosis.core.pipeline.v0_6.SinkManager;
 import org.openstreetmap.osmosis.core.task.v0_6.Sink;
 import org.openstreetmap.osmosis.plugin.elasticsearch.builder.AbstractIndexBuilder;
 import org.openstreetmap.osmosis.plugin.elasticsearch.client.ElasticsearchClientBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityCache;
 import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityDao;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWayTile;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.TagFilter;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoCells;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler;
 import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexAdminService;
+import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexConfiguration;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Endpoint;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.FlatNodeLocationStore;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Partition;
 
 public class ElasticSearchWriterFactory extends TaskManagerFactory {
 
@@ -62,13 +77,55 @@ public class ElasticSearchWriterFactory extends TaskManagerFactory {
 		addArgumentIfExists(Parameters.INDEX_SETTINGS_REPLICAS, taskConfig, builder);
 		addArgumentIfExists(Parameters.INDEX_MAPPING_NODE, taskConfig, builder);
 		addArgumentIfExists(Parameters.INDEX_MAPPING_WAY, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_MAPPING_WAY_TILE, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_MAPPING_ALL_ENABLED, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_MAPPING_SHAPE_TREE, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_MAPPING_SHAPE_PRECISION, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_MAPPING_SHAPE_DISTANCE_ERROR_PCT, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_MAPPING_SHAPE_POINTS_ONLY, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_SETTINGS_CODEC, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_TEMPLATE_ENABLED, taskConfig, builder);
+		addArgumentIfExists(Parameters.INDEX_TEMPLATE_VERSION, taskConfig, builder);
 
 		addArgumentIfExists(Parameters.CONFIG_QUEUE_SIZE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_QUEUE_TYPE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_QUEUE_WAIT_STRATEGY, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CHUNK_SIZE, taskConfig, builder);
 		addArgumentIfExists(Parameters.CONFIG_NODE_BULK_SIZE, taskConfig, builder);
 		addArgumentIfExists(Parameters.CONFIG_WAY_BULK_SIZE, taskConfig, builder);
 		addArgumentIfExists(Parameters.CONFIG_WORKER_POOL_SIZE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CONCURRENT_REQUESTS, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CACHE_SIZE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_NODE_CHUNK_SIZE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_NODE_CHUNK_CONCURRENCY, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SPILL_ENABLED, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SPILL_DIRECTORY, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SPILL_SEGMENT_SIZE_MB, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SPILL_MAX_SIZE_MB, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CHECKPOINT_FILE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CHECKPOINT_INTERVAL, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_NODE_STORE_ENABLED, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_NODE_STORE_FILE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SIMPLIFY_TOLERANCE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SIMPLIFY_MIN_LOCATIONS, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_SIMPLIFY_KEEP_ORIGINAL, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_TILE_SIZE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_TILE_MIN_LOCATIONS, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CELLS_MAX_LEVEL, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_CELLS_MAX_COUNT, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_FILTER_NODE_INCLUDE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_FILTER_NODE_EXCLUDE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_FILTER_NODE_TAGS, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_FILTER_WAY_INCLUDE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_FILTER_WAY_EXCLUDE, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_FILTER_WAY_TAGS, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_PARTITION_COUNT, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_PARTITION_INDEX, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_PARTITION_DIRECTORY, taskConfig, builder);
+		addArgumentIfExists(Parameters.CONFIG_PARTITION_RUN, taskConfig, builder);
 
 		addArgumentIfExists(Parameters.INDEX_BUILDERS, taskConfig, builder);
+		addArgumentIfExists(Parameters.RESUME, taskConfig, builder);
 		return builder.build();
 	}
 
@@ -87,20 +144,149 @@ public class ElasticSearchWriterFactory extends TaskManagerFactory {
 	}
 
 	protected void createIndex(IndexAdminService indexAdminService, Parameters params) {
+		// Resuming an import keeps the entities already indexed
+		if (Boolean.valueOf(params.getProperty(Parameters.RESUME, "false"))) return;
+		// Only the coordinator of a partitioned import creates the index
+		Partition partition = Partition.fromParameters(params);
+		if (partition != null && !partition.isCoordinator()) {
+			partition.await(Partition.STEP_INDEX, 0);
+			return;
+		}
 		if (Boolean.valueOf(params.getProperty(Parameters.INDEX_CREATE))) {
-			String name = params.getProperty(Parameters.INDEX_NAME);
-			int shards = Integer.valueOf(params.getProperty(Parameters.INDEX_SETTINGS_SHARDS));
-			int replicas = Integer.valueOf(params.getProperty(Parameters.INDEX_SETTINGS_REPLICAS));
-			HashMap<String, String> mappings = new HashMap<String, String>();
-			mappings.put(ESEntityType.NODE.getIndiceName(), params.getProperty(Parameters.INDEX_MAPPING_NODE));
-			mappings.put(ESEntityType.WAY.getIndiceName(), params.getProperty(Parameters.INDEX_MAPPING_WAY));
-			indexAdminService.createIndex(name, shards, replicas, mappings);
+			IndexConfiguration configuration = buildIndexConfiguration(params);
+			if (Boolean.valueOf(params.getProperty(Parameters.INDEX_TEMPLATE_ENABLED, "false"))) {
+				int version = Integer.valueOf(params.getProperty(Parameters.INDEX_TEMPLATE_VERSION, "1"));
+				indexAdminService.installTemplate(configuration, version);
+				// The template provides the settings and mappings
+				configuration = new IndexConfiguration(configuration.getName(), configuration.getShards(),
+						configuration.getReplicas(), null);
+			}
+			indexAdminService.createIndex(configuration);
+		}
+		if (partition != null) partition.markDone(Partition.STEP_INDEX);
+	}
+
+	protected IndexConfiguration buildIndexConfiguration(Parameters params) {
+		String name = params.getProperty(Parameters.INDEX_NAME);
+		int shards = Integer.valueOf(params.getProperty(Parameters.INDEX_SETTINGS_SHARDS));
+		int replicas = Integer.valueOf(params.getProperty(Parameters.INDEX_SETTINGS_REPLICAS));
+		boolean allEnabled = Boolean.valueOf(params.getProperty(Parameters.INDEX_MAPPING_ALL_ENABLED, "false"));
+		// Both types share the shape field, which must have the same mapping
+		Map<String, Object> shapeOptions = buildShapeOptions(params);
+		HashMap<String, String> mappings = new HashMap<String, String>();
+		mappings.put(ESEntityType.NODE.getIndiceName(),
+				buildMapping(params.getProperty(Parameters.INDEX_MAPPING_NODE), allEnabled, shapeOptions));
+		mappings.put(ESEntityType.WAY.getIndiceName(),
+				buildMapping(params.getProperty(Parameters.INDEX_MAPPING_WAY), allEnabled, shapeOptions));
+		String wayTileMapping = params.getProperty(Parameters.INDEX_MAPPING_WAY_TILE, "");
+		if (!wayTileMapping.isEmpty()) {
+			mappings.put(ESWayTile.TYPE, buildMapping(wayTileMapping, allEnabled, shapeOptions));
+		}
+		HashMap<String, String> settings = new HashMap<String, String>();
+		String codec = params.getProperty(Parameters.INDEX_SETTINGS_CODEC, "");
+		if (!codec.isEmpty()) settings.put("index.codec", codec);
+		return new IndexConfiguration(name, shards, replicas, mappings, settings);
+	}
+
+	/**
+	 * @return The geo_shape mapping parameters of the <code>shape</code>
+	 *         field, empty to keep the elasticsearch defaults.
+	 *         <code>points_only</code> only suits imports without ways, e.g.
+	 *         points of interest.
+	 */
+	protected Map<String, Object> buildShapeOptions(Parameters params) {
+		Map<String, Object> options = new LinkedHashMap<String, Object>();
+		String tree = params.getProperty(Parameters.INDEX_MAPPING_SHAPE_TREE, "");
+		if (!tree.isEmpty()) options.put("tree", tree);
+		String precision = params.getProperty(Parameters.INDEX_MAPPING_SHAPE_PRECISION, "");
+		if (!precision.isEmpty()) options.put("precision", precision);
+		String distanceErrorPct = params.getProperty(Parameters.INDEX_MAPPING_SHAPE_DISTANCE_ERROR_PCT, "");
+		if (!distanceErrorPct.isEmpty()) options.put("distance_error_pct", Double.valueOf(distanceErrorPct));
+		if (Boolean.valueOf(params.getProperty(Parameters.INDEX_MAPPING_SHAPE_POINTS_ONLY, "false"))) {
+			options.put("points_only", true);
+		}
+		return options;
+	}
+
+	/**
+	 * Apply the mapping options to a JSON mapping: enable or disable the
+	 * <code>_all</code> field and add the given parameters to the geo_shape
+	 * <code>shape</code> field, e.g. its tree and precision.
+	 */
+	@SuppressWarnings("unchecked")
+	protected String buildMapping(String mapping, boolean allEnabled, Map<String, Object> shapeOptions) {
+		Map<String, Object> map = XContentHelper.convertToMap(new BytesArray(mapping), true).v2();
+		Map<String, Object> all = new LinkedHashMap<String, Object>();
+		all.put("enabled", allEnabled);
+		map.put("_all", all);
+		if (!shapeOptions.isEmpty()) {
+			Map<String, Object> properties = (Map<String, Object>) map.get("properties");
+			Map<String, Object> shape = properties == null ? null : (Map<String, Object>) properties.get("shape");
+			if (shape == null) throw new IllegalArgumentException("The mapping has no shape property: " + mapping);
+			shape.putAll(shapeOptions);
+		}
+		try {
+			return XContentFactory.jsonBuilder().map(map).string();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to build mapping", e);
 		}
 	}
 
 	protected EntityDao buildEntityDao(Client client, Parameters params) {
 		String indexName = params.getProperty(Parameters.INDEX_NAME);
-		return new EntityDao(indexName, client);
+		int concurrentRequests = Integer.valueOf(params.getProperty(Parameters.CONFIG_CONCURRENT_REQUESTS, "0"));
+		EntityDao entityDao = new EntityDao(indexName, client, concurrentRequests);
+		int cacheSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_CACHE_SIZE, "0"));
+		if (cacheSize > 0) entityDao.setEntityCache(new EntityCache(cacheSize));
+		int nodeChunkSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_NODE_CHUNK_SIZE, "1000"));
+		int nodeChunkConcurrency = Integer.valueOf(params.getProperty(Parameters.CONFIG_NODE_CHUNK_CONCURRENCY, "4"));
+		entityDao.setNodeChunking(nodeChunkSize, nodeChunkConcurrency);
+		if (Boolean.valueOf(params.getProperty(Parameters.CONFIG_NODE_STORE_ENABLED, "false"))) {
+			String fileName = params.getProperty(Parameters.CONFIG_NODE_STORE_FILE, "");
+			entityDao.setNodeLocationStore(fileName.isEmpty() ? FlatNodeLocationStore.createTemporary()
+					: new FlatNodeLocationStore(new File(fileName), false));
+		}
+		// The tolerance is given in meters
+		double simplifyTolerance = Double.valueOf(params.getProperty(Parameters.CONFIG_SIMPLIFY_TOLERANCE, "0"));
+		if (simplifyTolerance > 0) {
+			int minLocations = Integer.valueOf(params.getProperty(Parameters.CONFIG_SIMPLIFY_MIN_LOCATIONS, "1000"));
+			boolean keepOriginal = Boolean.valueOf(params.getProperty(Parameters.CONFIG_SIMPLIFY_KEEP_ORIGINAL, "false"));
+			entityDao.setShapeSimplification(simplifyTolerance / 1000, minLocations, keepOriginal);
+		}
+		int tileMinLocations = Integer.valueOf(params.getProperty(Parameters.CONFIG_TILE_MIN_LOCATIONS, "0"));
+		if (tileMinLocations > 0) {
+			// The tile size is given in degrees
+			double tileSize = Double.valueOf(params.getProperty(Parameters.CONFIG_TILE_SIZE, "0.1"));
+			entityDao.setShapeTiling(new ShapeTiler(tileSize), tileMinLocations);
+		}
+		int cellsMaxLevel = Integer.valueOf(params.getProperty(Parameters.CONFIG_CELLS_MAX_LEVEL, "0"));
+		if (cellsMaxLevel > 0) {
+			int cellsMaxCount = Integer.valueOf(params.getProperty(Parameters.CONFIG_CELLS_MAX_COUNT, "4"));
+			entityDao.setGeoCells(new GeoCells(cellsMaxLevel, cellsMaxCount));
+		}
+		TagFilter nodeTagFilter = buildTagFilter(params, Parameters.CONFIG_FILTER_NODE_INCLUDE,
+				Parameters.CONFIG_FILTER_NODE_EXCLUDE, Parameters.CONFIG_FILTER_NODE_TAGS);
+		if (nodeTagFilter != null && nodeTagFilter.isSelective() && entityDao.getNodeLocationStore() == null) {
+			// Rejected nodes are not indexed, ways could not resolve them
+			throw new IllegalArgumentException(Parameters.CONFIG_FILTER_NODE_INCLUDE + " and "
+					+ Parameters.CONFIG_FILTER_NODE_EXCLUDE + " require " + Parameters.CONFIG_NODE_STORE_ENABLED);
+		}
+		entityDao.setTagFilters(nodeTagFilter,
+				buildTagFilter(params, Parameters.CONFIG_FILTER_WAY_INCLUDE, Parameters.CONFIG_FILTER_WAY_EXCLUDE,
+						Parameters.CONFIG_FILTER_WAY_TAGS));
+		return entityDao;
+	}
+
+	/**
+	 * @return The filter built from the given rule parameters, null if they
+	 *         are all empty
+	 */
+	protected TagFilter buildTagFilter(Parameters params, String includeKey, String excludeKey, String tagsKey) {
+		String include = params.getProperty(includeKey, "");
+		String exclude = params.getProperty(excludeKey, "");
+		String tags = params.getProperty(tagsKey, "");
+		if (include.trim().isEmpty() && exclude.trim().isEmpty() && tags.trim().isEmpty()) return null;
+		return new TagFilter(include, exclude, tags);
 	}
 
 	protected Set<AbstractIndexBuilder> getSelectedIndexBuilders(Endpoint endpoint, Parameters params) {
@@ -1,18 +1,34 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
 import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.task.v0_6.Sink;
 import org.openstreetmap.osmosis.plugin.elasticsearch.builder.AbstractIndexBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityCache;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Checkpoint;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Endpoint;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.EntityCounter;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.FlatNodeLocationStore;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Partition;
 import org.openstreetmap.osmosis.plugin.elasticsearch.worker.WorkerPool;
 
 public class ElasticSearchWriterTask implements Sink {
@@ -23,61 +39,321 @@ public class ElasticSearchWriterTask implements Sink {
 	private final Set<AbstractIndexBuilder> indexBuilders;
 	private final EntityCounter entityCounter;
 	private final WorkerPool workerPool;
+	private final int chunkSize;
+
+	private final Set<AbstractIndexBuilder> startedStreamingBuilders;
+	private final boolean resume;
+	private final Checkpoint checkpoint;
+	private final long checkpointInterval;
+	private final Partition partition;
+
+	private List<Entity> chunk;
+	private Entity lastEntity;
+	private long entitiesSinceCheckpoint;
+	private boolean skipping;
+	private EntityType currentType;
+	private long skippedCount;
+	private boolean checkpointFrozen;
 
 	public ElasticSearchWriterTask(Endpoint endpoint, Set<AbstractIndexBuilder> indexBuilders, Parameters params) {
 		this.endpoint = endpoint;
 		this.indexBuilders = indexBuilders;
 		this.entityCounter = new EntityCounter();
 		this.workerPool = new WorkerPool(endpoint.getEntityDao(), params);
+		this.chunkSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_CHUNK_SIZE));
+		this.chunk = new ArrayList<Entity>(chunkSize);
+		this.startedStreamingBuilders = new HashSet<AbstractIndexBuilder>();
+		this.resume = Boolean.valueOf(params.getProperty(Parameters.RESUME, "false"));
+		this.checkpoint = buildCheckpoint(params);
+		this.checkpointInterval = Long.valueOf(params.getProperty(Parameters.CONFIG_CHECKPOINT_INTERVAL, "1000000"));
+		if (resume && checkpoint == null) {
+			throw new IllegalArgumentException(Parameters.RESUME + " requires " + Parameters.CONFIG_CHECKPOINT_FILE);
+		}
+		this.skipping = resume && !checkpoint.isEmpty();
+		if (skipping) LOG.info("Resuming import after " + checkpoint);
+		this.partition = Partition.fromParameters(params);
+		if (partition != null) LOG.info("Indexing " + partition);
+	}
+
+	protected Checkpoint buildCheckpoint(Parameters params) {
+		String fileName = params.getProperty(Parameters.CONFIG_CHECKPOINT_FILE, "");
+		if (fileName.isEmpty()) return null;
+		File file = new File(fileName);
+		return resume ? Checkpoint.load(file) : new Checkpoint(file);
 	}
 
 	@Override
 	public void initialize(Map<String, Object> metadata) {
 		LOG.fine("initialize() with metadata: " + metadata.toString());
+		startStreamingIndexBuilders();
+	}
+
+	/**
+	 * Creates the indices of all streaming {@link AbstractIndexBuilder} at
+	 * once and registers them to receive the entities while they are indexed.
+	 */
+	protected void startStreamingIndexBuilders() {
+		List<AbstractIndexBuilder> builders = new ArrayList<AbstractIndexBuilder>();
+		for (AbstractIndexBuilder indexBuilder : indexBuilders) {
+			if (!indexBuilder.isStreaming()) continue;
+			if (resume) {
+				// Entities indexed before the checkpoint would be missing
+				fallBackToPostPass(indexBuilder, "cannot be streamed when resuming an import");
+				continue;
+			}
+			if (partition != null) {
+				// Entities indexed by other partitions would be missing
+				fallBackToPostPass(indexBuilder, "cannot be streamed when partitioning an import");
+				continue;
+			}
+			builders.add(indexBuilder);
+		}
+		List<AbstractIndexBuilder> created = createIndices(builders);
+		for (AbstractIndexBuilder indexBuilder : builders) {
+			if (!created.contains(indexBuilder)) {
+				fallBackToPostPass(indexBuilder, "could not be created before indexing");
+				continue;
+			}
+			endpoint.getEntityDao().addEntityListener(indexBuilder);
+			startedStreamingBuilders.add(indexBuilder);
+		}
+	}
+
+	/**
+	 * A streaming builder which cannot receive all entities is built from the
+	 * OSM index once it is built instead, if it supports it.
+	 */
+	private void fallBackToPostPass(AbstractIndexBuilder indexBuilder, String reason) {
+		String indexName = indexBuilder.getSpecializedIndexName();
+		if (indexBuilder.disableStreaming()) {
+			LOG.warning("Streaming index [" + indexName + "] " + reason + ", building it from the OSM index instead");
+		} else {
+			LOG.warning("Streaming index [" + indexName + "] " + reason + ", skipping");
+		}
+	}
+
+	/**
+	 * Creates the indices of the given builders in a single batch.
+	 * 
+	 * @return The builders whose index was created
+	 */
+	protected List<AbstractIndexBuilder> createIndices(List<AbstractIndexBuilder> builders) {
+		if (builders.isEmpty()) return builders;
+		for (AbstractIndexBuilder indexBuilder : builders) {
+			LOG.info("Creating selected index [" + indexBuilder.getSpecializedIndexName() + "]");
+		}
+		Map<AbstractIndexBuilder, Exception> failures = AbstractIndexBuilder.createIndices(
+				endpoint.getIndexAdminService(), builders);
+		List<AbstractIndexBuilder> created = new ArrayList<AbstractIndexBuilder>(builders.size());
+		for (AbstractIndexBuilder indexBuilder : builders) {
+			Exception failure = failures.get(indexBuilder);
+			if (failure == null) {
+				created.add(indexBuilder);
+			} else {
+				LOG.log(Level.SEVERE, "Unable to create index [" + indexBuilder.getSpecializedIndexName() + "]", failure);
+			}
+		}
+		return created;
 	}
 
 	@Override
 	public void process(EntityContainer entityContainer) {
 		Entity entity = entityContainer.getEntity();
+		if (partition != null && entity.getType() != currentType) startPartitionType(entity.getType());
+		if (skipping) {
+			// Input is sorted, everything after the first new entity is new
+			if (checkpoint.isIndexed(entity)) {
+				skippedCount++;
+				return;
+			}
+			skipping = false;
+			LOG.info(String.format("%d already indexed entities skipped", skippedCount));
+		}
+		if (partition != null && !partition.accepts(entity)) {
+			// Nodes of other partitions still resolve the ways of this one
+			FlatNodeLocationStore store = endpoint.getEntityDao().getNodeLocationStore();
+			if (store != null && entity instanceof Node && entity.getId() >= 0) {
+				store.put(entity.getId(), ((Node) entity).getLatitude(), ((Node) entity).getLongitude());
+			}
+			return;
+		}
 		EntityType type = entity.getType();
-		workerPool.submit(entity);
+		// Chunks are homogeneous, a new type closes the current one
+		if (!chunk.isEmpty() && !type.equals(chunk.get(0).getType())) flushChunk();
+		chunk.add(entity);
+		if (chunk.size() == chunkSize) flushChunk();
 		entityCounter.increment(type);
+		lastEntity = entity;
+		if (checkpoint != null && checkpointInterval > 0 && ++entitiesSinceCheckpoint >= checkpointInterval) {
+			saveCheckpoint();
+		}
+	}
+
+	/**
+	 * Marks the previous types as done for this partition, then waits for all
+	 * other partitions to be done with them too: ways are only resolved once
+	 * the nodes of all partitions are indexed.
+	 */
+	protected void startPartitionType(EntityType type) {
+		flushChunk();
+		workerPool.flush();
+		markPartitionTypesDone(type);
+		for (EntityType previousType : EntityType.values()) {
+			if (previousType.compareTo(type) >= 0) break;
+			partition.awaitAll(previousType.name().toLowerCase());
+		}
+		currentType = type;
+	}
+
+	/**
+	 * @param type
+	 *            the first type not done, null if all types are done
+	 */
+	private void markPartitionTypesDone(EntityType type) {
+		for (EntityType previousType : EntityType.values()) {
+			if (type != null && previousType.compareTo(type) >= 0) break;
+			partition.markDone(previousType.name().toLowerCase());
+		}
+	}
+
+	/**
+	 * Waits until all entities processed so far are acknowledged, then records
+	 * the last one in the checkpoint file, unless some of them failed to be
+	 * indexed.
+	 */
+	protected void saveCheckpoint() {
+		flushChunk();
+		workerPool.flush();
+		writeCheckpoint();
+	}
+
+	private void writeCheckpoint() {
+		entitiesSinceCheckpoint = 0;
+		if (lastEntity == null || !isFullyAcknowledged()) return;
+		checkpoint.setLastId(lastEntity.getType(), lastEntity.getId());
+		try {
+			checkpoint.save();
+			LOG.fine("Checkpoint saved: " + checkpoint);
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Unable to save checkpoint", e);
+		}
+	}
+
+	/**
+	 * Once an entity failed to be indexed, the checkpoint is frozen for the
+	 * rest of the import: a resumed import must start before that entity.
+	 * 
+	 * @return true if all entities processed so far were indexed
+	 */
+	private boolean isFullyAcknowledged() {
+		long failures = endpoint.getEntityDao().getAndResetFailureCount();
+		if (failures > 0 && !checkpointFrozen) {
+			LOG.severe(String.format("%d entities could not be indexed, checkpoint kept at %s", failures, checkpoint));
+			checkpointFrozen = true;
+		}
+		return !checkpointFrozen;
+	}
+
+	/**
+	 * Hands the current chunk of entities over to the {@link WorkerPool} as a
+	 * single unit, then starts a new one.
+	 */
+	protected void flushChunk() {
+		if (chunk.isEmpty()) return;
+		workerPool.submit(chunk);
+		chunk = new ArrayList<Entity>(chunkSize);
 	}
 
 	@Override
 	public void complete() {
+		flushChunk();
 		workerPool.shutdown();
+		if (checkpoint != null) writeCheckpoint();
+		if (partition != null) {
+			markPartitionTypesDone(null);
+			partition.markDone(Partition.STEP_COMPLETE);
+		}
 		LOG.info("OSM indexing completed!\n" +
 				"total processed nodes: ....... " + entityCounter.getCount(EntityType.Node) + "\n" +
 				"total processed ways: ........ " + entityCounter.getCount(EntityType.Way) + "\n" +
 				"total processed relations: ... " + entityCounter.getCount(EntityType.Relation) + "\n" +
 				"total processed bounds: ...... " + entityCounter.getCount(EntityType.Bound));
-		buildSpecializedIndex();
+		EntityCache entityCache = endpoint.getEntityDao().getEntityCache();
+		if (entityCache != null) {
+			LOG.info(String.format("Entity cache: %d hits, %d misses (%.1f%% hit rate)",
+					entityCache.getHitCount(), entityCache.getMissCount(), entityCache.getHitRate() * 100));
+		}
+		if (partition == null) {
+			buildSpecializedIndex();
+		} else if (partition.isCoordinator()) {
+			// Specialized indices are built from the whole index
+			partition.awaitAll(Partition.STEP_COMPLETE);
+			buildSpecializedIndex();
+		}
 	}
 
+	/**
+	 * Builds all the selected specialized indices at the same time. A failing
+	 * {@link AbstractIndexBuilder} does not prevent the others from
+	 * completing.
+	 */
 	protected void buildSpecializedIndex() {
+		for (AbstractIndexBuilder indexBuilder : startedStreamingBuilders) {
+			endpoint.getEntityDao().removeEntityListener(indexBuilder);
+		}
+		List<AbstractIndexBuilder> postPassBuilders = new ArrayList<AbstractIndexBuilder>();
 		for (AbstractIndexBuilder indexBuilder : indexBuilders) {
-			try {
-				String indexName = indexBuilder.getSpecializedIndexName();
-				LOG.info("Creating selected index [" + indexName + "]");
-				indexBuilder.createIndex();
-				LOG.info("Building selected index [" + indexName + "]");
-				long time = System.currentTimeMillis();
-				indexBuilder.buildIndex();
-				time = System.currentTimeMillis() - time;
-				LOG.info("Index [" + indexName + "] successfully built in " + time + " milliseconds!");
-			} catch (Exception e) {
-				LOG.log(Level.SEVERE, "Unable to build index", e);
-				break;
+			if (!indexBuilder.isStreaming()) postPassBuilders.add(indexBuilder);
+		}
+		List<AbstractIndexBuilder> builders = new ArrayList<AbstractIndexBuilder>(startedStreamingBuilders);
+		builders.addAll(createIndices(postPassBuilders));
+		if (builders.isEmpty()) return;
+		ExecutorService executor = Executors.newFixedThreadPool(builders.size());
+		try {
+			Map<AbstractIndexBuilder, Future<Long>> results = new LinkedHashMap<AbstractIndexBuilder, Future<Long>>();
+			for (final AbstractIndexBuilder indexBuilder : builders) {
+				results.put(indexBuilder, executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						return buildSpecializedIndex(indexBuilder);
+					}
+				}));
 			}
+			for (Entry<AbstractIndexBuilder, Future<Long>> result : results.entrySet()) {
+				String indexName = result.getKey().getSpecializedIndexName();
+				try {
+					long time = result.getValue().get();
+					LOG.info("Index [" + indexName + "] successfully built in " + time + " milliseconds!");
+				} catch (ExecutionException e) {
+					LOG.log(Level.SEVERE, "Unable to build index [" + indexName + "]", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.log(Level.SEVERE, "Interrupted while building indices", e);
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
+	/**
+	 * @return the time spent building the index, in milliseconds
+	 */
+	protected long buildSpecializedIndex(AbstractIndexBuilder indexBuilder) {
+		String indexName = indexBuilder.getSpecializedIndexName();
+		LOG.info("Building selected index [" + indexName + "]");
+		long time = System.currentTimeMillis();
+		indexBuilder.buildIndex();
+		return System.currentTimeMillis() - time;
+	}
+
 	@Override
 	public void release() {
 		float consumedMemoryMb = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())
 				/ (float) Math.pow(1024, 2);
 		LOG.info(String.format("Estimated memory consumption: %.2f MB", consumedMemoryMb));
+		FlatNodeLocationStore store = endpoint.getEntityDao().getNodeLocationStore();
+		if (store != null) store.close();
 		endpoint.getClient().close();
 	}
 
@@ -1,13 +1,41 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.builder;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityDao;
+import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityListener;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
+import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexAdminService;
+import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexConfiguration;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Endpoint;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
 
-public abstract class AbstractIndexBuilder {
+/**
+ * Builds a specialized index from the OSM entities.
+ * <p>
+ * A builder runs in one of two modes:
+ * <ul>
+ * <li>post-pass (default): {@link #createIndex()} then {@link #buildIndex()}
+ * are called once the OSM index was built, possibly at the same time as other
+ * builders.</li>
+ * <li>streaming ({@link #isStreaming()} returns true): {@link #createIndex()}
+ * is called before ingestion, {@link #onEntity(ESEntity)} is called for each
+ * entity while it is indexed, and {@link #buildIndex()} is called once all
+ * entities were indexed to complete the specialized index.</li>
+ * </ul>
+ */
+public abstract class AbstractIndexBuilder implements EntityListener {
 
 	private final Endpoint endpoint;
 	private final Parameters params;
@@ -17,12 +45,87 @@ public abstract class AbstractIndexBuilder {
 		this.params = params;
 	}
 
+	/**
+	 * Create the specialized index on its own. Several builders are better
+	 * created at once, see {@link #createIndices(IndexAdminService, Collection)}.
+	 */
 	public void createIndex() {
+		IndexConfiguration configuration = getIndexConfiguration();
+		endpoint.getIndexAdminService().createIndex(configuration.getName(), configuration.getShards(),
+				configuration.getReplicas(), configuration.getMappings());
+		onIndexCreated();
+	}
+
+	/**
+	 * Create the specialized indices of several builders in a single batch of
+	 * admin requests.
+	 * 
+	 * @return The failures by builder, empty if all indices were created
+	 */
+	public static Map<AbstractIndexBuilder, Exception> createIndices(IndexAdminService indexAdminService,
+			Collection<AbstractIndexBuilder> indexBuilders) {
+		Map<AbstractIndexBuilder, Exception> failures = new LinkedHashMap<AbstractIndexBuilder, Exception>();
+		List<IndexConfiguration> configurations = new ArrayList<IndexConfiguration>();
+		List<AbstractIndexBuilder> configuredBuilders = new ArrayList<AbstractIndexBuilder>();
+		for (AbstractIndexBuilder indexBuilder : indexBuilders) {
+			try {
+				configurations.add(indexBuilder.getIndexConfiguration());
+				configuredBuilders.add(indexBuilder);
+			} catch (Exception e) {
+				failures.put(indexBuilder, e);
+			}
+		}
+		Map<String, Exception> indexFailures = indexAdminService.createIndices(configurations);
+		for (AbstractIndexBuilder indexBuilder : configuredBuilders) {
+			Exception failure = indexFailures.get(indexBuilder.getSpecializedIndexName());
+			if (failure == null) {
+				try {
+					indexBuilder.onIndexCreated();
+				} catch (Exception e) {
+					failure = e;
+				}
+			}
+			if (failure != null) failures.put(indexBuilder, failure);
+		}
+		return failures;
+	}
+
+	/**
+	 * @return The name, settings and mappings of the specialized index, read
+	 *         from the <code>&lt;suffix&gt;.settings.*</code> and
+	 *         <code>&lt;suffix&gt;.mappings</code> parameters
+	 */
+	public IndexConfiguration getIndexConfiguration() {
 		int shards = Integer.valueOf(params.getProperty(getSpecializedIndexSuffix() + ".settings.shards"));
 		int replicas = Integer.valueOf(params.getProperty(getSpecializedIndexSuffix() + ".settings.replicas"));
-		HashMap<String, String> mappings = new HashMap<String, String>();
-		mappings.put(getSpecializedIndexName(), params.getProperty(getSpecializedIndexSuffix() + ".mappings"));
-		endpoint.getIndexAdminService().createIndex(getSpecializedIndexName(), shards, replicas, mappings);
+		Map<String, String> mappings = parseMappings(params.getProperty(getSpecializedIndexSuffix() + ".mappings"));
+		return new IndexConfiguration(getSpecializedIndexName(), shards, replicas, mappings);
+	}
+
+	/**
+	 * Called once the specialized index was created, on its own or in a
+	 * batch, before {@link #onEntity(ESEntity)} and {@link #buildIndex()}.
+	 */
+	public void onIndexCreated() {}
+
+	/**
+	 * Split the <code>{"type":{mapping},...}</code> mappings parameter into
+	 * one mapping per type.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, String> parseMappings(String json) {
+		Map<String, String> mappings = new HashMap<String, String>();
+		if (json == null || json.isEmpty()) return mappings;
+		try {
+			Map<String, Object> types = XContentHelper.convertToMap(new BytesArray(json), true).v2();
+			for (Entry<String, Object> type : types.entrySet()) {
+				String mapping = XContentFactory.jsonBuilder().map((Map<String, Object>) type.getValue()).string();
+				mappings.put(type.getKey(), mapping);
+			}
+			return mappings;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to parse mappings of index " + getSpecializedIndexName(), e);
+		}
 	}
 
 	/**
@@ -70,12 +173,40 @@ public abstract class AbstractIndexBuilder {
 	 */
 	public abstract String getSpecializedIndexSuffix();
 
+	/**
+	 * @return true if this builder consumes entities while they are indexed
+	 *         rather than reading the OSM index afterwards
+	 */
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * Makes a streaming builder read the OSM index once it was built instead,
+	 * when it cannot receive all entities while they are indexed, e.g. when
+	 * resuming an import.
+	 * 
+	 * @return true if this builder now runs post-pass, false if it cannot
+	 */
+	public boolean disableStreaming() {
+		return !isStreaming();
+	}
+
+	/**
+	 * Called for each entity indexed in the OSM index if this builder is
+	 * streaming, possibly by several threads at once.
+	 */
+	@Override
+	public void onEntity(ESEntity entity) {}
+
 	/**
 	 * This method should construct the specialized index.
 	 * <p>
 	 * It is called after the OSM index was built and the specialized index was
 	 * created (using {@link #getSpecializedIndexSuffix()} and
-	 * {@link #getIndexConfig()} methods).
+	 * {@link #getIndexConfiguration()} methods). A streaming builder should complete
+	 * the index fed through {@link #onEntity(ESEntity)}, e.g. flush its
+	 * pending requests.
 	 */
 	public abstract void buildIndex();
 
@@ -0,0 +1,263 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.builder.highway;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.builder.AbstractIndexBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWay;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Endpoint;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
+
+/**
+ * Builds a specialized index holding one <code>line</code> document per
+ * highway of the entity index.
+ * <p>
+ * Highways are read with one scroll per shard of the entity index, running in
+ * parallel. Each scroll asks for its next page before converting the current
+ * one, and the derived documents are sent through a {@link BulkProcessor}
+ * allowing several bulks in flight, so reading, converting and indexing
+ * overlap.
+ * <p>
+ * If <code>highway.streaming</code> is true, highways are instead received
+ * while the OSM index is built and no second read is needed, unless streaming
+ * is disabled for this import.
+ */
+public class HighwayIndexBuilder extends AbstractIndexBuilder {
+
+	private static final Logger LOG = Logger.getLogger(HighwayIndexBuilder.class.getName());
+
+	private static final String SPECIALIZED_INDEX_SUFFIX = "highway";
+	private static final String HIGHWAY_TYPE = "way";
+	private static final String PARAM_BULK_SIZE = SPECIALIZED_INDEX_SUFFIX + ".bulk.size";
+	private static final String PARAM_CONCURRENT_REQUESTS = SPECIALIZED_INDEX_SUFFIX + ".concurrent.requests";
+	private static final String PARAM_STREAMING = SPECIALIZED_INDEX_SUFFIX + ".streaming";
+	private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong streamed = new AtomicLong();
+	private volatile boolean streaming;
+
+	private volatile BulkProcessor streamingBulkProcessor;
+
+	public HighwayIndexBuilder(Endpoint endpoint, Parameters params) {
+		super(endpoint, params);
+		this.streaming = Boolean.valueOf(params.getProperty(PARAM_STREAMING, "false"));
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	@Override
+	public boolean disableStreaming() {
+		streaming = false;
+		return true;
+	}
+
+	@Override
+	public void onIndexCreated() {
+		if (!streaming) return;
+		failures.set(0);
+		streamed.set(0);
+		streamingBulkProcessor = buildBulkProcessor(getBulkSize(), getConcurrentRequests());
+	}
+
+	@Override
+	public void onEntity(ESEntity entity) {
+		if (!(entity instanceof ESWay) || !entity.getTags().containsKey("highway")) return;
+		if (streamingBulkProcessor == null) throw new IllegalStateException("Index must be created before receiving entities");
+		try {
+			streamingBulkProcessor.add(buildHighwayRequest((ESWay) entity));
+			streamed.incrementAndGet();
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			LOG.warning(String.format("Unable to index highway %s: %s", entity.getId(), e.getMessage()));
+		}
+	}
+
+	@Override
+	public String getSpecializedIndexSuffix() {
+		return SPECIALIZED_INDEX_SUFFIX;
+	}
+
+	@Override
+	public void buildIndex() {
+		if (streaming) {
+			completeStreaming();
+			return;
+		}
+		int bulkSize = getBulkSize();
+		int shards = getShardCount();
+		failures.set(0);
+		BulkProcessor bulkProcessor = buildBulkProcessor(bulkSize, getConcurrentRequests());
+		ExecutorService executor = Executors.newFixedThreadPool(shards);
+		long count = 0;
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (int shard = 0; shard < shards; shard++) {
+				results.add(executor.submit(new ShardScroll(shard, bulkSize, bulkProcessor)));
+			}
+			for (Future<Long> result : results) {
+				count += result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building index " + getSpecializedIndexName(), e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Unable to build index " + getSpecializedIndexName(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+			awaitClose(bulkProcessor);
+		}
+		if (failures.get() > 0) throw new RuntimeException(failures.get() + " highways could not be indexed");
+		LOG.info(count + " highways indexed in " + shards + " parallel scrolls");
+	}
+
+	private void completeStreaming() {
+		if (streamingBulkProcessor == null) throw new IllegalStateException("Index must be created before being built");
+		awaitClose(streamingBulkProcessor);
+		streamingBulkProcessor = null;
+		if (failures.get() > 0) throw new RuntimeException(failures.get() + " highways could not be indexed");
+		LOG.info(streamed.get() + " highways indexed while building the OSM index");
+	}
+
+	protected int getBulkSize() {
+		return Integer.valueOf(getParameters().getProperty(PARAM_BULK_SIZE));
+	}
+
+	protected int getConcurrentRequests() {
+		return Integer.valueOf(getParameters().getProperty(PARAM_CONCURRENT_REQUESTS, "4"));
+	}
+
+	protected int getShardCount() {
+		String shards = getClient().admin().indices().prepareGetSettings(getEntityIndexName())
+				.execute().actionGet().getSetting(getEntityIndexName(), "index.number_of_shards");
+		return shards != null ? Integer.valueOf(shards) : 1;
+	}
+
+	protected BulkProcessor buildBulkProcessor(int bulkSize, int concurrentRequests) {
+		return BulkProcessor.builder(getClient(), new BulkProcessor.Listener() {
+			@Override
+			public void beforeBulk(long executionId, BulkRequest request) {}
+
+			@Override
+			public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+				if (!response.hasFailures()) return;
+				for (BulkItemResponse item : response.getItems()) {
+					if (!item.isFailed()) continue;
+					failures.incrementAndGet();
+					LOG.warning(String.format("Unable to index highway %s: %s", item.getId(), item.getFailureMessage()));
+				}
+			}
+
+			@Override
+			public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+				failures.addAndGet(request.numberOfActions());
+				LOG.log(Level.SEVERE, "Unable to execute highway bulk", failure);
+			}
+		}).setBulkActions(bulkSize).setConcurrentRequests(concurrentRequests).build();
+	}
+
+	private void awaitClose(BulkProcessor bulkProcessor) {
+		try {
+			bulkProcessor.awaitClose(1, TimeUnit.HOURS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected IndexRequest buildHighwayRequest(ESWay way) throws IOException {
+		XContentBuilder builder = jsonBuilder();
+		try {
+			builder.startObject();
+			builder.startObject("line");
+			builder.field("type", "linestring");
+			builder.startArray("coordinates");
+			for (double[] location : way.getCoordinates()) {
+				builder.startArray().value(location[0]).value(location[1]).endArray();
+			}
+			builder.endArray();
+			builder.endObject();
+			builder.field("tags", way.getTags());
+			builder.endObject();
+			return new IndexRequest(getSpecializedIndexName(), HIGHWAY_TYPE, way.getIdString()).source(builder.bytes());
+		} finally {
+			builder.close();
+		}
+	}
+
+	/**
+	 * Scrolls over the highways of one shard of the entity index.
+	 */
+	private class ShardScroll implements Callable<Long> {
+
+		private final int shard;
+		private final int pageSize;
+		private final BulkProcessor bulkProcessor;
+
+		private ShardScroll(int shard, int pageSize, BulkProcessor bulkProcessor) {
+			this.shard = shard;
+			this.pageSize = pageSize;
+			this.bulkProcessor = bulkProcessor;
+		}
+
+		@Override
+		public Long call() throws IOException {
+			long count = 0;
+			SearchResponse response = getClient().prepareSearch(getEntityIndexName())
+					.setTypes(ESEntityType.WAY.getIndiceName())
+					.setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.existsQuery("tags.highway")))
+					.setPreference("_shards:" + shard)
+					.addSort("_doc", SortOrder.ASC)
+					.setScroll(SCROLL_KEEP_ALIVE)
+					.setSize(pageSize)
+					.execute().actionGet();
+			String scrollId = response.getScrollId();
+			try {
+				while (response.getHits().getHits().length > 0) {
+					// Prefetch the next page while the current one is converted
+					ListenableActionFuture<SearchResponse> next = getClient().prepareSearchScroll(scrollId)
+							.setScroll(SCROLL_KEEP_ALIVE).execute();
+					for (SearchHit hit : response.getHits().getHits()) {
+						bulkProcessor.add(buildHighwayRequest(ESWay.Builder.buildFromSearchHit(hit)));
+						count++;
+					}
+					response = next.actionGet();
+					scrollId = response.getScrollId();
+				}
+			} finally {
+				getClient().prepareClearScroll().addScrollId(scrollId).execute();
+			}
+			return count;
+		}
+
+	}
+
+}
@@ -0,0 +1,183 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
+
+/**
+ * A bounded, thread-safe cache of entities keyed by (type, id), evicting the
+ * least recently used entities first.
+ * <p>
+ * Entries are spread over independently locked segments, each one an
+ * access-ordered {@link LinkedHashMap}, so concurrent lookups of different
+ * entities rarely contend. Eviction is per segment: the cache holds at most
+ * <code>maximumSize</code> entities, and each segment about
+ * <code>maximumSize / concurrencyLevel</code>.
+ * <p>
+ * Cached entities are shared between callers and must not be modified.
+ */
+public class EntityCache {
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final Segment[] segments;
+	private final int maximumSize;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	public EntityCache(int maximumSize) {
+		this(maximumSize, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maximumSize
+	 *            the maximum number of cached entities
+	 * @param concurrencyLevel
+	 *            the number of segments, i.e. the expected number of threads
+	 *            using the cache concurrently
+	 */
+	public EntityCache(int maximumSize, int concurrencyLevel) {
+		if (maximumSize <= 0) throw new IllegalArgumentException("maximumSize must be positive");
+		if (concurrencyLevel <= 0) throw new IllegalArgumentException("concurrencyLevel must be positive");
+		int segmentCount = Math.min(concurrencyLevel, maximumSize);
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+			segments[i] = new Segment(capacity);
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * @return The cached entity, null if not cached
+	 */
+	public ESEntity get(ESEntityType type, long id) {
+		Key key = new Key(type, id);
+		Segment segment = segmentFor(key);
+		ESEntity entity;
+		synchronized (segment) {
+			entity = segment.get(key);
+		}
+		if (entity == null) missCount.incrementAndGet();
+		else hitCount.incrementAndGet();
+		return entity;
+	}
+
+	public void put(ESEntity entity) {
+		if (entity == null) throw new IllegalArgumentException("You must provide a non-null Entity");
+		Key key = new Key(entity.getEntityType(), entity.getId());
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, entity);
+		}
+	}
+
+	public void invalidate(ESEntityType type, long id) {
+		Key key = new Key(type, id);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	public void invalidateAll() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of cached entities
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return The ratio of lookups that found their entity, 0 if the cache was
+	 *         never queried
+	 */
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	private Segment segmentFor(Key key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[(hash & 0x7fffffff) % segments.length];
+	}
+
+	@Override
+	public String toString() {
+		return "EntityCache [size=" + size() + ", maximumSize=" + maximumSize + ", hits=" + hitCount.get()
+				+ ", misses=" + missCount.get() + "]";
+	}
+
+	private static final class Key {
+
+		private final ESEntityType type;
+		private final long id;
+
+		Key(ESEntityType type, long id) {
+			this.type = type;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * type.ordinal() + (int) (id ^ (id >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return id == other.id && type == other.type;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	private static final class Segment extends LinkedHashMap<Key, ESEntity> {
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, ESEntity> eldest) {
+			return size() > capacity;
+		}
+
+	}
+
+}
@@ -1,8 +1,14 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
@@ -11,25 +17,287 @@ import org.elasticsearch.action.get.MultiGetItemResponse;
 import org.elasticsearch.action.get.MultiGetRequest.Item;
 import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.geo.builders.ShapeBuilder;
+import org.elasticsearch.common.unit.DistanceUnit;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+import org.elasticsearch.search.sort.SortOrder;
 import org.openstreetmap.osmosis.core.domain.v0_6.*;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESNode;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWay;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWayTile;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.TagFilter;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoJsonParser;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape.ESShapeBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoCells;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler.Tile;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.FlatNodeLocationStore;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.LongHashSet;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.NodeLocations;
 
 public class EntityDao {
 
 	private static final Logger LOG = Logger.getLogger(EntityDao.class.getName());
+	private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(5);
+	private static final int GEO_QUERY_PAGE_SIZE = 500;
+	private static final SourceFilter NODE_LOCATION_FILTER = SourceFilter.include("shape.coordinates");
+	private static final int DEFAULT_NODE_CHUNK_SIZE = 1000;
+	private static final int DEFAULT_CONCURRENT_NODE_CHUNKS = 4;
 
 	private final String indexName;
 	private final Client client;
+	private final int concurrentRequests;
+	private final Semaphore inFlightRequests;
+	private final AtomicLong failureCount = new AtomicLong();
+	private final List<EntityListener> entityListeners = new CopyOnWriteArrayList<EntityListener>();
+	private volatile EntityCache entityCache;
+	private volatile FlatNodeLocationStore nodeLocationStore;
+	private volatile int nodeChunkSize = DEFAULT_NODE_CHUNK_SIZE;
+	private volatile int concurrentNodeChunks = DEFAULT_CONCURRENT_NODE_CHUNKS;
+	private volatile double simplifyToleranceKm;
+	private volatile int simplifyMinLocations;
+	private volatile boolean simplifyKeepOriginal;
+	private volatile ShapeTiler shapeTiler;
+	private volatile int tileMinLocations;
+	private volatile GeoCells geoCells;
+	private volatile TagFilter nodeTagFilter;
+	private volatile TagFilter wayTagFilter;
+
+	private volatile Executor documentExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
 
 	public EntityDao(String indexName, Client client) {
+		this(indexName, client, 0);
+	}
+
+	/**
+	 * @param concurrentRequests
+	 *            the maximum number of write requests (node multi-gets and
+	 *            bulks) in flight at once. If 0, requests are executed
+	 *            synchronously by the calling thread.
+	 */
+	public EntityDao(String indexName, Client client, int concurrentRequests) {
+		if (concurrentRequests < 0) throw new IllegalArgumentException("concurrentRequests must be positive or 0");
 		this.indexName = indexName;
 		this.client = client;
+		this.concurrentRequests = concurrentRequests;
+		this.inFlightRequests = concurrentRequests > 0 ? new Semaphore(concurrentRequests) : null;
+	}
+
+	/**
+	 * @return true if write requests are executed asynchronously
+	 */
+	public boolean isAsynchronous() {
+		return inFlightRequests != null;
+	}
+
+	/**
+	 * Set the {@link Executor} used to build documents once the nodes of
+	 * asynchronously resolved ways are received.
+	 * <p>
+	 * By default documents are built by the thread delivering the response,
+	 * i.e. a network thread of the elasticsearch client.
+	 */
+	public void setDocumentExecutor(Executor documentExecutor) {
+		if (documentExecutor == null) throw new IllegalArgumentException("You must provide a non-null Executor");
+		this.documentExecutor = documentExecutor;
+	}
+
+	/**
+	 * Set how the nodes of a batch of ways are resolved.
+	 * <p>
+	 * Ways are split into chunks of about <code>nodeChunkSize</code> way
+	 * nodes, each one resolved by its own multi-get. A way longer than
+	 * <code>nodeChunkSize</code> makes a chunk on its own. The documents of a
+	 * chunk are built as soon as its nodes are received.
+	 * 
+	 * @param nodeChunkSize
+	 *            the number of way nodes per multi-get
+	 * @param concurrentNodeChunks
+	 *            the maximum number of multi-gets in flight at once when this
+	 *            {@link EntityDao} is synchronous. Asynchronous ones are bound
+	 *            by their concurrent requests.
+	 */
+	public void setNodeChunking(int nodeChunkSize, int concurrentNodeChunks) {
+		if (nodeChunkSize <= 0) throw new IllegalArgumentException("nodeChunkSize must be positive");
+		if (concurrentNodeChunks <= 0) throw new IllegalArgumentException("concurrentNodeChunks must be positive");
+		this.nodeChunkSize = nodeChunkSize;
+		this.concurrentNodeChunks = concurrentNodeChunks;
+	}
+
+	/**
+	 * Set the {@link EntityCache} read before fetching entities from
+	 * elasticsearch, i.e. when resolving way nodes and in
+	 * {@link #findAll(Class, long...)}.
+	 * <p>
+	 * Saved and deleted entities are invalidated. Entities written to the
+	 * index by other means are not, so the cache should only be enabled while
+	 * this {@link EntityDao} is the only writer.
+	 * 
+	 * @param entityCache
+	 *            the cache to use, null to disable caching
+	 */
+	public void setEntityCache(EntityCache entityCache) {
+		this.entityCache = entityCache;
+	}
+
+	/**
+	 * @return The {@link EntityCache} in use, null if caching is disabled
+	 */
+	public EntityCache getEntityCache() {
+		return entityCache;
+	}
+
+	/**
+	 * Set the local store of node locations, filled when saving nodes and read
+	 * first when resolving way nodes. Nodes missing from the store are still
+	 * fetched from elasticsearch.
+	 * <p>
+	 * Ways then no longer depend on the nodes being indexed, see
+	 * {@link #resolvesNodesLocally()}.
+	 * 
+	 * @param nodeLocationStore
+	 *            the store to use, null to resolve nodes from elasticsearch
+	 */
+	public void setNodeLocationStore(FlatNodeLocationStore nodeLocationStore) {
+		this.nodeLocationStore = nodeLocationStore;
+	}
+
+	public FlatNodeLocationStore getNodeLocationStore() {
+		return nodeLocationStore;
+	}
+
+	/**
+	 * @return true if the nodes saved by this {@link EntityDao} are resolved
+	 *         without reading them back from elasticsearch, so ways can be
+	 *         saved while the requests of their nodes are still in flight
+	 */
+	public boolean resolvesNodesLocally() {
+		return nodeLocationStore != null;
+	}
+
+	/**
+	 * Simplify the shapes of large ways before indexing them, so that the
+	 * geo_shape indexing cost follows the detail actually queried. See
+	 * {@link ESShapeBuilder#setSimplification(double, boolean)}.
+	 * 
+	 * @param toleranceKm
+	 *            the maximum distance between the original and the
+	 *            simplified shape, 0 to disable simplification
+	 * @param minLocations
+	 *            the number of resolved locations from which a way is
+	 *            simplified
+	 * @param keepOriginal
+	 *            true to store the original shape in a non-indexed
+	 *            <code>originalShape</code> field, false to drop it
+	 */
+	public void setShapeSimplification(double toleranceKm, int minLocations, boolean keepOriginal) {
+		if (toleranceKm < 0) throw new IllegalArgumentException("toleranceKm must not be negative");
+		this.simplifyToleranceKm = toleranceKm;
+		this.simplifyMinLocations = minLocations;
+		this.simplifyKeepOriginal = keepOriginal;
+	}
+
+	/**
+	 * Index the shapes of large ways as tiles, i.e. {@link ESWayTile} child
+	 * documents holding the pieces of the shape within each tile. The way
+	 * document then only stores its shape, in the non-indexed
+	 * <code>originalShape</code> field, and
+	 * {@link #findIntersecting(Class, ShapeBuilder, SourceFilter)} also
+	 * matches the ways through their tiles.
+	 * <p>
+	 * The index must map the {@link ESWayTile#TYPE} type with the way type as
+	 * parent.
+	 * 
+	 * @param shapeTiler
+	 *            the tiler to clip shapes with, null to disable tiling
+	 * @param minLocations
+	 *            the number of indexed locations from which a way is tiled
+	 */
+	public void setShapeTiling(ShapeTiler shapeTiler, int minLocations) {
+		this.shapeTiler = shapeTiler;
+		this.tileMinLocations = minLocations;
+	}
+
+	/**
+	 * Write the geohash cells covering the bounding box of each node and way
+	 * in a <code>cells</code> field, so that coarse spatial filters can be
+	 * answered with term queries instead of geo_shape ones.
+	 * 
+	 * @param geoCells
+	 *            the cells to cover entities with, null to disable
+	 */
+	public void setGeoCells(GeoCells geoCells) {
+		this.geoCells = geoCells;
+	}
+
+	/**
+	 * Index only the entities accepted by the filters, with the tags they
+	 * keep. Rejected nodes are still put in the node location store, so that
+	 * the ways referencing them can be resolved: a node filter that may reject
+	 * nodes requires the store to be set first.
+	 * 
+	 * @param nodeTagFilter
+	 *            the filter of nodes, null to index all nodes with all tags
+	 * @param wayTagFilter
+	 *            the filter of ways, null to index all ways with all tags
+	 * @throws IllegalStateException
+	 *             if the node filter may reject nodes and there is no node
+	 *             location store
+	 */
+	public void setTagFilters(TagFilter nodeTagFilter, TagFilter wayTagFilter) {
+		if (nodeTagFilter != null && nodeTagFilter.isSelective() && nodeLocationStore == null) {
+			throw new IllegalStateException("Filtering nodes requires a node location store to resolve ways");
+		}
+		this.nodeTagFilter = nodeTagFilter;
+		this.wayTagFilter = wayTagFilter;
+	}
+
+	/**
+	 * Register an {@link EntityListener} notified of each indexed entity.
+	 */
+	public void addEntityListener(EntityListener entityListener) {
+		if (entityListener == null) throw new IllegalArgumentException("You must provide a non-null EntityListener");
+		entityListeners.add(entityListener);
+	}
+
+	public void removeEntityListener(EntityListener entityListener) {
+		entityListeners.remove(entityListener);
+	}
+
+	/**
+	 * Block until all asynchronous write requests have completed.
+	 * <p>
+	 * Returns immediately if this {@link EntityDao} is synchronous.
+	 */
+	public void awaitPendingRequests() {
+		if (!isAsynchronous()) return;
+		inFlightRequests.acquireUninterruptibly(concurrentRequests);
+		inFlightRequests.release(concurrentRequests);
+	}
+
+	/**
+	 * Entities are not indexed when their bulk request fails, when their bulk
+	 * item fails, or, for ways, when the request resolving their nodes fails.
+	 * 
+	 * @return The number of such entities since the previous call
+	 */
+	public long getAndResetFailureCount() {
+		return failureCount.getAndSet(0);
 	}
 
 	/**
@@ -55,6 +323,10 @@ public class EntityDao {
 	 * All errors caught during the bulk request building or entities indexing
 	 * are handled silently, i.e. logged and ignored.
 	 * <p>
+	 * If this {@link EntityDao} is asynchronous, this method only blocks until
+	 * an in-flight request slot is available. Use
+	 * {@link #awaitPendingRequests()} to wait for the entities to be indexed.
+	 * <p>
 	 * <b>Warning:</b> please note that saving {@link Relation} and
 	 * {@link Bound} is not yet supported. Trying to save such {@link Entity}
 	 * causes this method to ignore it silently.
@@ -89,71 +361,459 @@ public class EntityDao {
 	}
 
 	protected void saveAllNodes(List<Node> nodes) {
+		EntityCache cache = entityCache;
+		FlatNodeLocationStore store = nodeLocationStore;
+		GeoCells cells = geoCells;
+		TagFilter tagFilter = nodeTagFilter;
 		BulkRequestBuilder bulkRequest = client.prepareBulk();
+		List<ESEntity> documents = newDocumentList();
 		for (Node node : nodes) {
+			if (cache != null) cache.invalidate(ESEntityType.NODE, node.getId());
+			// Nodes with negative ids are only resolved from elasticsearch
+			if (store != null && node.getId() >= 0) store.put(node.getId(), node.getLatitude(), node.getLongitude());
+			if (tagFilter != null && !tagFilter.accepts(node)) continue;
 			try {
-				ESNode esNode = ESNode.Builder.buildFromEntity(node);
+				ESNode esNode = ESNode.Builder.buildFromEntity(node, cells, tagFilter);
 				bulkRequest.add(client.prepareIndex(indexName, esNode.getEntityType().getIndiceName(), esNode.getIdString())
-						.setSource(esNode.toJson()));
+						.setSource(esNode.toJsonBytes()));
+				if (documents != null) documents.add(esNode);
 			} catch (Exception exception) {
 				LOG.warning(String.format("Unable to add Entity %s to bulk request, cause: %s",
 						node.getId(), exception.getMessage()));
 			}
 		}
-		executeBulkRequest(bulkRequest);
+		executeBulkRequest(bulkRequest, documents);
 	}
 
 	protected void saveAllWays(List<Way> ways) {
-		Iterator<MultiGetItemResponse> iterator = getNodeItems(ways);
+		ways = filterWays(ways);
+		if (ways.isEmpty()) return;
+		if (isAsynchronous()) {
+			saveAllWaysAsync(ways);
+			return;
+		}
+		List<List<Way>> chunks = splitWays(ways);
+		List<ESEntity> documents = newDocumentList();
+		if (chunks.size() == 1) {
+			NodeLocations locations = getNodeItems(ways);
+			executeBulkRequest(buildWaysBulkRequest(ways, locations, documents), documents);
+		} else {
+			executeBulkRequest(buildWaysBulkRequest(chunks, documents), documents);
+		}
+	}
+
+	/**
+	 * Split ways into chunks of about {@link #setNodeChunking(int, int)
+	 * nodeChunkSize} way nodes, keeping their order.
+	 */
+	protected List<List<Way>> splitWays(List<Way> ways) {
+		int chunkSize = nodeChunkSize;
+		List<List<Way>> chunks = new ArrayList<List<Way>>();
+		int start = 0;
+		int count = 0;
+		for (int i = 0; i < ways.size(); i++) {
+			int size = ways.get(i).getWayNodes().size();
+			if (count > 0 && count + size > chunkSize) {
+				chunks.add(ways.subList(start, i));
+				start = i;
+				count = 0;
+			}
+			count += size;
+		}
+		chunks.add(ways.subList(start, ways.size()));
+		return chunks;
+	}
+
+	/**
+	 * Resolve the nodes of the chunks with concurrent multi-gets, and build
+	 * the documents of each chunk once its nodes are received. Chunks are
+	 * read in order, while up to {@link #setNodeChunking(int, int)
+	 * concurrentNodeChunks} following ones are in flight.
+	 * 
+	 * @param documents
+	 *            receives the document of each action of the bulk, null if
+	 *            not needed
+	 */
+	protected BulkRequestBuilder buildWaysBulkRequest(List<List<Way>> chunks, List<ESEntity> documents) {
+		int window = concurrentNodeChunks;
+		List<NodeLocations> chunkLocations = new ArrayList<NodeLocations>(chunks.size());
+		List<ListenableActionFuture<MultiGetResponse>> responses =
+				new ArrayList<ListenableActionFuture<MultiGetResponse>>(chunks.size());
 		BulkRequestBuilder bulkRequest = client.prepareBulk();
+		for (int i = 0; i < chunks.size(); i++) {
+			while (responses.size() < chunks.size() && responses.size() < i + window) {
+				List<Way> chunk = chunks.get(responses.size());
+				NodeLocations locations = new NodeLocations(countWayNodes(chunk));
+				MultiGetRequestBuilder request = buildNodeItemsRequest(chunk, locations);
+				chunkLocations.add(locations);
+				responses.add(request == null ? null : request.execute());
+			}
+			List<Way> chunk = chunks.get(i);
+			try {
+				if (responses.get(i) != null) readNodeItems(responses.get(i).actionGet(), chunkLocations.get(i));
+			} catch (RuntimeException e) {
+				// Only this chunk is lost, counted so that the checkpoint does not move past it
+				LOG.warning(String.format("Unable to resolve nodes of %d ways, cause: %s", chunk.size(), e.getMessage()));
+				failureCount.addAndGet(chunk.size());
+				continue;
+			} finally {
+				responses.set(i, null);
+			}
+			addWays(bulkRequest, chunk, chunkLocations.get(i), documents);
+			chunkLocations.set(i, null);
+		}
+		return bulkRequest;
+	}
+
+	/**
+	 * Resolves way nodes and indexes the ways without blocking the calling
+	 * thread. Each chunk of ways (see {@link #setNodeChunking(int, int)}) is
+	 * resolved and indexed independently.
+	 */
+	protected void saveAllWaysAsync(List<Way> ways) {
+		for (List<Way> chunk : splitWays(ways)) {
+			saveWayChunkAsync(chunk);
+		}
+	}
+
+	/**
+	 * The in-flight slot acquired for the node multi-get is handed over to
+	 * the bulk request, so a chunk of ways only counts once.
+	 */
+	protected void saveWayChunkAsync(final List<Way> ways) {
+		inFlightRequests.acquireUninterruptibly();
+		try {
+			final NodeLocations locations = new NodeLocations();
+			MultiGetRequestBuilder request = buildNodeItemsRequest(ways, locations);
+			if (request == null) {
+				saveAllWaysResolvedAsync(ways, locations, null);
+				return;
+			}
+			request.execute(new ActionListener<MultiGetResponse>() {
+				@Override
+				public void onResponse(MultiGetResponse responses) {
+					saveAllWaysResolvedAsync(ways, locations, responses);
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					LOG.warning(String.format("Unable to resolve nodes of %d ways, cause: %s", ways.size(), e.getMessage()));
+					failureCount.addAndGet(ways.size());
+					inFlightRequests.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlightRequests.release();
+			throw e;
+		}
+	}
+
+	private void saveAllWaysResolvedAsync(final List<Way> ways, final NodeLocations locations,
+			final MultiGetResponse responses) {
+		try {
+			documentExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					saveAllWaysResolved(ways, locations, responses);
+				}
+			});
+		} catch (RuntimeException e) {
+			LOG.warning(String.format("Unable to save %d ways, cause: %s", ways.size(), e.getMessage()));
+			failureCount.addAndGet(ways.size());
+			inFlightRequests.release();
+		}
+	}
+
+	private void saveAllWaysResolved(List<Way> ways, NodeLocations locations, MultiGetResponse responses) {
+		BulkRequestBuilder bulkRequest;
+		List<ESEntity> documents = newDocumentList();
+		try {
+			if (responses != null) readNodeItems(responses, locations);
+			bulkRequest = buildWaysBulkRequest(ways, locations, documents);
+		} catch (RuntimeException e) {
+			LOG.warning(String.format("Unable to save %d ways, cause: %s", ways.size(), e.getMessage()));
+			failureCount.addAndGet(ways.size());
+			inFlightRequests.release();
+			return;
+		}
+		executeBulkRequestAsync(bulkRequest, documents);
+	}
+
+	/**
+	 * @return The ways accepted by the way filter, before resolving their
+	 *         nodes
+	 */
+	private List<Way> filterWays(List<Way> ways) {
+		TagFilter tagFilter = wayTagFilter;
+		if (tagFilter == null) return ways;
+		List<Way> accepted = new ArrayList<Way>(ways.size());
 		for (Way way : ways) {
+			if (tagFilter.accepts(way)) accepted.add(way);
+		}
+		return accepted;
+	}
+
+	/**
+	 * @param documents
+	 *            receives the document of each action of the bulk, null if
+	 *            not needed
+	 */
+	protected BulkRequestBuilder buildWaysBulkRequest(List<Way> ways, NodeLocations locations, List<ESEntity> documents) {
+		BulkRequestBuilder bulkRequest = client.prepareBulk();
+		addWays(bulkRequest, ways, locations, documents);
+		return bulkRequest;
+	}
+
+	private void addWays(BulkRequestBuilder bulkRequest, List<Way> ways, NodeLocations locations,
+			List<ESEntity> documents) {
+		EntityCache cache = entityCache;
+		TagFilter tagFilter = wayTagFilter;
+		for (Way way : ways) {
+			if (cache != null) cache.invalidate(ESEntityType.WAY, way.getId());
 			try {
-				int size = way.getWayNodes().size();
-				ESShape shape = getShape(iterator, size);
-				ESWay esWay = ESWay.Builder.buildFromEntity(way, shape);
+				ESShape shape = getShape(way, locations);
+				List<Tile> tiles = getTiles(shape);
+				ESWay esWay = ESWay.Builder.buildFromEntity(way, shape, tiles.size(), tagFilter);
 				bulkRequest.add(client.prepareIndex(indexName, esWay.getEntityType().getIndiceName(), esWay.getIdString())
-						.setSource(esWay.toJson()));
+						.setSource(esWay.toJsonBytes()));
+				if (documents != null) documents.add(esWay);
+				for (Tile tile : tiles) {
+					ESWayTile wayTile = new ESWayTile(way.getId(), tile);
+					bulkRequest.add(client.prepareIndex(indexName, ESWayTile.TYPE, wayTile.getIdString())
+							.setParent(wayTile.getWayIdString()).setSource(wayTile.toJsonBytes()));
+					if (documents != null) documents.add(null);
+				}
 			} catch (Exception e) {
 				LOG.warning(String.format("Unable to add Entity %s to bulk request, cause: %s",
 						way.getId(), e.getMessage()));
 			}
 		}
-		executeBulkRequest(bulkRequest);
 	}
 
-	protected Iterator<MultiGetItemResponse> getNodeItems(List<Way> ways) {
-		MultiGetRequestBuilder request = client.prepareMultiGet();
+	/**
+	 * @return A list receiving the document of each action of a bulk, to
+	 *         notify the listeners once it is acknowledged, null if there is
+	 *         no listener
+	 */
+	private List<ESEntity> newDocumentList() {
+		return entityListeners.isEmpty() ? null : new ArrayList<ESEntity>();
+	}
+
+	protected void fireEntity(ESEntity entity) {
+		for (EntityListener entityListener : entityListeners) {
+			try {
+				entityListener.onEntity(entity);
+			} catch (Exception e) {
+				LOG.warning(String.format("EntityListener %s failed on Entity %s, cause: %s",
+						entityListener, entity.getId(), e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Resolve the locations of the nodes of the ways, from the
+	 * {@link EntityCache} first and then from elasticsearch.
+	 * 
+	 * @return The locations of the found nodes
+	 */
+	protected NodeLocations getNodeItems(List<Way> ways) {
+		NodeLocations locations = new NodeLocations(countWayNodes(ways));
+		MultiGetRequestBuilder request = buildNodeItemsRequest(ways, locations);
+		if (request != null) readNodeItems(request.execute().actionGet(), locations);
+		return locations;
+	}
+
+	/**
+	 * Build the multi-get request of the distinct way nodes missing from the
+	 * node location store and the {@link EntityCache}. Nodes shared by several
+	 * ways, or closing a way, are only requested once. The locations of stored
+	 * or cached nodes are added to <code>locations</code>.
+	 * <p>
+	 * Only <code>shape.coordinates</code> is fetched, unless nodes are cached:
+	 * the whole documents are then needed to fill the cache.
+	 * 
+	 * @return The request, null if all nodes were stored or cached
+	 */
+	protected MultiGetRequestBuilder buildNodeItemsRequest(List<Way> ways, NodeLocations locations) {
+		EntityCache cache = entityCache;
+		FlatNodeLocationStore store = nodeLocationStore;
+		FetchSourceContext fetchSourceContext = cache == null ? NODE_LOCATION_FILTER.toFetchSourceContext() : null;
+		LongHashSet nodeIds = new LongHashSet(countWayNodes(ways));
+		MultiGetRequestBuilder request = null;
 		for (Way way : ways) {
 			for (WayNode wayNode : way.getWayNodes()) {
-				request.add(new Item(indexName, ESEntityType.NODE.getIndiceName(),
-						String.valueOf(wayNode.getNodeId())));
+				long nodeId = wayNode.getNodeId();
+				if (!nodeIds.add(nodeId)) continue;
+				if (store != null && nodeId >= 0 && store.copyTo(nodeId, locations)) continue;
+				if (cache != null) {
+					ESNode node = (ESNode) cache.get(ESEntityType.NODE, nodeId);
+					if (node != null) {
+						locations.put(nodeId, node.getLatitude(), node.getLongitude());
+						continue;
+					}
+				}
+				if (request == null) request = client.prepareMultiGet();
+				request.add(new Item(indexName, ESEntityType.NODE.getIndiceName(), String.valueOf(nodeId))
+						.fetchSourceContext(fetchSourceContext));
 			}
 		}
-		MultiGetResponse responses = request.execute().actionGet();
-		Iterator<MultiGetItemResponse> iterator = responses.iterator();
-		return iterator;
+		return request;
 	}
 
-	protected ESShape getShape(Iterator<MultiGetItemResponse> iterator, int size) {
-		ESShapeBuilder shapeBuilder = new ESShapeBuilder(size);
-		for (int i = 0; i < size; i++) {
-			GetResponse response = iterator.next().getResponse();
-			if (!response.isExists()) continue;
-			@SuppressWarnings("unchecked")
-			Map<String, Object> shape = (Map<String, Object>) response.getSource().get("shape");
-			@SuppressWarnings("unchecked")
-			List<Double> coordinates = (List<Double>) shape.get("coordinates");
-			shapeBuilder.addLocation(coordinates.get(1), coordinates.get(0));
+	private static int countWayNodes(List<Way> ways) {
+		int count = 0;
+		for (Way way : ways) {
+			count += way.getWayNodes().size();
 		}
+		return count;
+	}
+
+	/**
+	 * Decode the node locations of a multi-get response into
+	 * <code>locations</code>. Missing nodes are ignored.
+	 * <p>
+	 * Coordinates are streamed straight from the source bytes. Whole
+	 * documents, fetched when nodes are cached, are decoded and added to the
+	 * {@link EntityCache}.
+	 */
+	protected void readNodeItems(MultiGetResponse responses, NodeLocations locations) {
+		EntityCache cache = entityCache;
+		for (MultiGetItemResponse item : responses) {
+			GetResponse response = item.getResponse();
+			if (response == null || !response.isExists()) continue;
+			if (cache != null) {
+				ESNode node = ESNode.Builder.buildFromGetReponse(response);
+				locations.put(node.getId(), node.getLatitude(), node.getLongitude());
+				cache.put(node);
+			} else {
+				double[][] coordinates = GeoJsonParser.parseShapeCoordinates(response.getSourceAsBytesRef());
+				if (coordinates == null) continue;
+				locations.put(Long.parseLong(response.getId()), coordinates[0][1], coordinates[0][0]);
+			}
+		}
+	}
+
+	/**
+	 * Build the shape of a way from the resolved node locations. Missing nodes
+	 * are skipped, and large shapes simplified if enabled.
+	 */
+	protected ESShape getShape(Way way, NodeLocations locations) {
+		List<WayNode> wayNodes = way.getWayNodes();
+		ESShapeBuilder shapeBuilder = new ESShapeBuilder(wayNodes.size());
+		int count = 0;
+		for (WayNode wayNode : wayNodes) {
+			int index = locations.indexOf(wayNode.getNodeId());
+			if (index < 0) continue;
+			shapeBuilder.addLocation(locations.getLatitude(index), locations.getLongitude(index));
+			count++;
+		}
+		if (simplifyToleranceKm > 0 && count >= simplifyMinLocations) {
+			shapeBuilder.setSimplification(simplifyToleranceKm, simplifyKeepOriginal);
+		}
+		shapeBuilder.setGeoCells(geoCells);
 		return shapeBuilder.build();
 	}
 
-	protected void executeBulkRequest(BulkRequestBuilder bulkRequest) {
+	/**
+	 * @return The tiles of the shape, empty if it is not to be tiled
+	 */
+	protected List<Tile> getTiles(ESShape shape) {
+		ShapeTiler tiler = shapeTiler;
+		if (tiler == null || shape.getGeoJsonArray().length < tileMinLocations) return Collections.emptyList();
+		return tiler.clip(shape);
+	}
+
+	/**
+	 * @param documents
+	 *            the document of each action of the bulk, whose listeners are
+	 *            notified once it is acknowledged, null if there is none
+	 */
+	protected void executeBulkRequest(BulkRequestBuilder bulkRequest, List<ESEntity> documents) {
 		if (bulkRequest.numberOfActions() == 0) return;
-		BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-		if (!bulkResponse.hasFailures()) return;
+		if (isAsynchronous()) {
+			inFlightRequests.acquireUninterruptibly();
+			executeBulkRequestAsync(bulkRequest, documents);
+		} else {
+			BulkResponse bulkResponse;
+			try {
+				bulkResponse = bulkRequest.execute().actionGet();
+			} catch (RuntimeException e) {
+				failureCount.addAndGet(bulkRequest.numberOfActions());
+				throw e;
+			}
+			handleBulkResponse(bulkResponse, documents);
+		}
+	}
+
+	/**
+	 * Executes the bulk request without waiting for its response. The caller
+	 * must own an in-flight slot, which is released once the request
+	 * completes.
+	 */
+	protected void executeBulkRequestAsync(final BulkRequestBuilder bulkRequest, final List<ESEntity> documents) {
+		if (bulkRequest.numberOfActions() == 0) {
+			inFlightRequests.release();
+			return;
+		}
+		try {
+			bulkRequest.execute(new ActionListener<BulkResponse>() {
+				@Override
+				public void onResponse(final BulkResponse bulkResponse) {
+					if (documents == null) {
+						handleBulkResponseAsync(bulkResponse, null);
+						return;
+					}
+					// Listeners may block, keep them off the network threads
+					try {
+						documentExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								handleBulkResponseAsync(bulkResponse, documents);
+							}
+						});
+					} catch (RuntimeException e) {
+						handleBulkResponseAsync(bulkResponse, documents);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					LOG.warning(String.format("Unable to execute bulk request, cause: %s", e.getMessage()));
+					failureCount.addAndGet(bulkRequest.numberOfActions());
+					inFlightRequests.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlightRequests.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Handles the response of an asynchronous bulk request, then releases its
+	 * in-flight slot.
+	 */
+	private void handleBulkResponseAsync(BulkResponse bulkResponse, List<ESEntity> documents) {
+		try {
+			handleBulkResponse(bulkResponse, documents);
+		} finally {
+			inFlightRequests.release();
+		}
+	}
+
+	/**
+	 * Counts the failed items, and notifies the listeners of the documents
+	 * which were indexed.
+	 */
+	protected void handleBulkResponse(BulkResponse bulkResponse, List<ESEntity> documents) {
+		if (!bulkResponse.hasFailures() && documents == null) return;
 		for (BulkItemResponse response : bulkResponse) {
-			if (!response.isFailed()) continue;
+			if (!response.isFailed()) {
+				ESEntity document = (documents != null) ? documents.get(response.getItemId()) : null;
+				if (document != null) fireEntity(document);
+				continue;
+			}
+			failureCount.incrementAndGet();
 			LOG.warning(String.format("Unable to save Entity %s in %s/%s, cause: %s",
 					response.getId(), response.getIndex(), response.getType(), response.getFailureMessage()));
 		}
@@ -181,13 +841,22 @@ public class EntityDao {
 		return findAll(entityClass, osmId).get(0);
 	}
 
+	/**
+	 * Find an OSM entity, fetching only the fields selected by the
+	 * {@link SourceFilter}.
+	 * 
+	 * @see #find(Class, long)
+	 */
+	public <T extends ESEntity> T find(Class<T> entityClass, long osmId, SourceFilter sourceFilter) {
+		return findAll(entityClass, sourceFilter, osmId).get(0);
+	}
+
 	/**
 	 * Find all OSM entities.
 	 * <p>
 	 * <b>Warning:</b> all objects are retrieved from elasticsearch and mounted
 	 * in memory. In case of large OSM data sets, ensure you have allocated
-	 * enough heap. If you already know what ids to retrieve, please consider
-	 * the {@link #findAll(Class, long...)} method instead.
+	 * enough heap, or consider the {@link #scan(Class, int)} method instead.
 	 * <p>
 	 * <b>Warning:</b> please note that finding all {@link Relation} and
 	 * {@link Bound} is not yet supported. Trying to find such {@link Entity}
@@ -206,9 +875,27 @@ public class EntityDao {
 	 *             if something was wrong during the elasticsearch request
 	 */
 	public <T extends ESEntity> List<T> findAll(Class<T> entityClass, long... osmIds) {
+		return findAll(entityClass, SourceFilter.ALL, osmIds);
+	}
+
+	/**
+	 * Find all OSM entities, fetching only the fields selected by the
+	 * {@link SourceFilter}.
+	 * 
+	 * @see #findAll(Class, long...)
+	 */
+	public <T extends ESEntity> List<T> findAll(Class<T> entityClass, SourceFilter sourceFilter, long... osmIds) {
+		if (sourceFilter == null) throw new IllegalArgumentException("You must provide a non-null SourceFilter");
 		if (osmIds == null || osmIds.length == 0) return Collections.unmodifiableList(new ArrayList<T>(0));
 		try {
+			EntityCache cache = entityCache;
+			if (cache != null && sourceFilter.isAll()) return findAllCached(entityClass, cache, osmIds);
 			MultiGetRequestBuilder request = buildMultiGetRequest(entityClass, osmIds);
+			if (!sourceFilter.isAll()) {
+				for (Item item : request.request().getItems()) {
+					item.fetchSourceContext(sourceFilter.toFetchSourceContext());
+				}
+			}
 			return executeMultiGetRequest(entityClass, request);
 		} catch (Exception e) {
 			if (e instanceof DaoException) throw (DaoException) e;
@@ -217,6 +904,33 @@ public class EntityDao {
 		}
 	}
 
+	/**
+	 * Find all OSM entities, fetching only those missing from the cache and
+	 * caching them.
+	 */
+	protected <T extends ESEntity> List<T> findAllCached(Class<T> entityClass, EntityCache cache, long... osmIds) {
+		ESEntityType type = ESEntityType.valueOf(entityClass);
+		List<T> entities = new ArrayList<T>(osmIds.length);
+		long[] missingIds = new long[osmIds.length];
+		int missing = 0;
+		for (long osmId : osmIds) {
+			T entity = entityClass.cast(cache.get(type, osmId));
+			if (entity == null) missingIds[missing++] = osmId;
+			entities.add(entity);
+		}
+		if (missing > 0) {
+			MultiGetRequestBuilder request = buildMultiGetRequest(entityClass, Arrays.copyOf(missingIds, missing));
+			Iterator<T> fetched = executeMultiGetRequest(entityClass, request).iterator();
+			for (int i = 0; i < entities.size(); i++) {
+				if (entities.get(i) != null) continue;
+				T entity = fetched.next();
+				cache.put(entity);
+				entities.set(i, entity);
+			}
+		}
+		return Collections.unmodifiableList(entities);
+	}
+
 	protected <T extends ESEntity> MultiGetRequestBuilder buildMultiGetRequest(Class<T> entityClass, long... osmIds) {
 		ESEntityType type = ESEntityType.valueOf(entityClass);
 		MultiGetRequestBuilder request = client.prepareMultiGet();
@@ -247,6 +961,157 @@ public class EntityDao {
 		else throw new IllegalArgumentException(entityClass.getSimpleName() + " is not a known Entity");
 	}
 
+	/**
+	 * Iterate over all OSM entities of a type, in constant memory.
+	 * 
+	 * @see #scan(Class, QueryBuilder, int)
+	 */
+	public <T extends ESEntity> ScrollIterator<T> scan(Class<T> entityClass, int pageSize) {
+		return scan(entityClass, QueryBuilders.matchAllQuery(), pageSize);
+	}
+
+	/**
+	 * Iterate over the OSM entities matching a query, in constant memory.
+	 * <p>
+	 * Entities are read with a scroll, {@code pageSize} entities at a time,
+	 * and in no particular order. The next page is fetched while the current
+	 * one is consumed.
+	 * <p>
+	 * The returned iterator should be closed if it is not read until the end.
+	 * 
+	 * @param entityClass
+	 *            the class (among {@link ESNode} and {@link ESWay}) of the
+	 *            Entities
+	 * @param query
+	 *            the query the Entities must match
+	 * @param pageSize
+	 *            the number of Entities fetched per request
+	 * @return An iterator over the Entities
+	 * @throws IllegalArgumentException
+	 *             if the provided entityClass is null or invalid
+	 * @throws DaoException
+	 *             if something was wrong during the elasticsearch request
+	 */
+	public <T extends ESEntity> ScrollIterator<T> scan(Class<T> entityClass, QueryBuilder query, int pageSize) {
+		return scan(entityClass, query, pageSize, SourceFilter.ALL);
+	}
+
+	/**
+	 * Iterate over the OSM entities matching a query, fetching only the
+	 * fields selected by the {@link SourceFilter}.
+	 * 
+	 * @see #scan(Class, QueryBuilder, int)
+	 */
+	public <T extends ESEntity> ScrollIterator<T> scan(final Class<T> entityClass, QueryBuilder query, int pageSize,
+			SourceFilter sourceFilter) {
+		if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive");
+		if (sourceFilter == null) throw new IllegalArgumentException("You must provide a non-null SourceFilter");
+		String indiceName = ESEntityType.valueOf(entityClass).getIndiceName();
+		try {
+			SearchRequestBuilder request = client.prepareSearch(indexName)
+					.setTypes(indiceName)
+					.setQuery(query)
+					.addSort("_doc", SortOrder.ASC)
+					.setScroll(SCROLL_KEEP_ALIVE)
+					.setSize(pageSize);
+			if (!sourceFilter.isAll()) request.setFetchSource(sourceFilter.getIncludes(), sourceFilter.getExcludes());
+			SearchResponse firstPage = request.execute().actionGet();
+			return new ScrollIterator<T>(client, firstPage, SCROLL_KEEP_ALIVE) {
+				@Override
+				protected T decode(SearchHit hit) {
+					return buildEntityFromSearchHit(entityClass, hit);
+				}
+			};
+		} catch (Exception e) {
+			throw new DaoException("Unable to scan " + indiceName + " entities", e);
+		}
+	}
+
+	/**
+	 * Find the OSM entities whose centroid lies in a bounding box.
+	 * <p>
+	 * Results are streamed and decoded lazily, see
+	 * {@link #scan(Class, QueryBuilder, int)}.
+	 * 
+	 * @param entityClass
+	 *            the class (among {@link ESNode} and {@link ESWay}) of the
+	 *            Entities
+	 * @param sourceFilter
+	 *            the fields to fetch
+	 * @return An iterator over the Entities
+	 * @throws DaoException
+	 *             if something was wrong during the elasticsearch request
+	 */
+	public <T extends ESEntity> ScrollIterator<T> findInBoundingBox(Class<T> entityClass, double top, double left,
+			double bottom, double right, SourceFilter sourceFilter) {
+		QueryBuilder query = QueryBuilders.constantScoreQuery(QueryBuilders.geoBoundingBoxQuery("centroid")
+				.topLeft(top, left).bottomRight(bottom, right));
+		return scan(entityClass, query, GEO_QUERY_PAGE_SIZE, sourceFilter);
+	}
+
+	/**
+	 * Find the OSM entities whose centroid lies within a distance of a
+	 * location.
+	 * <p>
+	 * Results are streamed and decoded lazily, see
+	 * {@link #scan(Class, QueryBuilder, int)}.
+	 * 
+	 * @param entityClass
+	 *            the class (among {@link ESNode} and {@link ESWay}) of the
+	 *            Entities
+	 * @param distanceKm
+	 *            the radius, in kilometers
+	 * @param sourceFilter
+	 *            the fields to fetch
+	 * @return An iterator over the Entities
+	 * @throws DaoException
+	 *             if something was wrong during the elasticsearch request
+	 */
+	public <T extends ESEntity> ScrollIterator<T> findWithinDistance(Class<T> entityClass, double latitude,
+			double longitude, double distanceKm, SourceFilter sourceFilter) {
+		QueryBuilder query = QueryBuilders.constantScoreQuery(QueryBuilders.geoDistanceQuery("centroid")
+				.point(latitude, longitude).distance(distanceKm, DistanceUnit.KILOMETERS));
+		return scan(entityClass, query, GEO_QUERY_PAGE_SIZE, sourceFilter);
+	}
+
+	/**
+	 * Find the OSM entities whose shape intersects the provided shape.
+	 * <p>
+	 * Results are streamed and decoded lazily, see
+	 * {@link #scan(Class, QueryBuilder, int)}.
+	 * 
+	 * @param entityClass
+	 *            the class (among {@link ESNode} and {@link ESWay}) of the
+	 *            Entities
+	 * @param shape
+	 *            the shape to intersect, e.g. built with
+	 *            {@link ShapeBuilder#newEnvelope()}
+	 * @param sourceFilter
+	 *            the fields to fetch
+	 * @return An iterator over the Entities
+	 * @throws DaoException
+	 *             if something was wrong during the elasticsearch request
+	 */
+	public <T extends ESEntity> ScrollIterator<T> findIntersecting(Class<T> entityClass, ShapeBuilder shape,
+			SourceFilter sourceFilter) {
+		if (shape == null) throw new IllegalArgumentException("You must provide a non-null ShapeBuilder");
+		QueryBuilder query = QueryBuilders.geoIntersectionQuery("shape", shape);
+		if (shapeTiler != null && ESWay.class.equals(entityClass)) {
+			// Tiled ways only match through their tiles
+			query = QueryBuilders.boolQuery().should(query)
+					.should(QueryBuilders.hasChildQuery(ESWayTile.TYPE, QueryBuilders.geoIntersectionQuery("shape", shape)));
+		}
+		return scan(entityClass, QueryBuilders.constantScoreQuery(query), GEO_QUERY_PAGE_SIZE, sourceFilter);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected <T extends ESEntity> T buildEntityFromSearchHit(Class<T> entityClass, SearchHit hit) {
+		if (entityClass == null) throw new IllegalArgumentException("Provided Entity class is null");
+		else if (entityClass.equals(ESNode.class)) return (T) ESNode.Builder.buildFromSearchHit(hit);
+		else if (entityClass.equals(ESWay.class)) return (T) ESWay.Builder.buildFromSearchHit(hit);
+		else throw new IllegalArgumentException(entityClass.getSimpleName() + " is not a known Entity");
+	}
+
 	/**
 	 * Delete an OSM entity.
 	 * <p>
@@ -268,6 +1133,8 @@ public class EntityDao {
 	 */
 	public <T extends ESEntity> boolean delete(Class<T> entityClass, long osmId) {
 		try {
+			EntityCache cache = entityCache;
+			if (cache != null) cache.invalidate(ESEntityType.valueOf(entityClass), osmId);
 			String indiceName = ESEntityType.valueOf(entityClass).getIndiceName();
 			return client.prepareDelete(indexName, indiceName, Long.toString(osmId))
 					.execute().actionGet().isFound();
@@ -0,0 +1,23 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
+
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
+
+/**
+ * Receives the entities saved by an {@link EntityDao}.
+ * <p>
+ * Listeners are called once the bulk request holding an entity was
+ * acknowledged, and only for the entities which were indexed. They are called
+ * by the threads handling the bulk responses, possibly concurrently, so
+ * implementations must be thread-safe.
+ */
+public interface EntityListener {
+
+	/**
+	 * Called each time an entity document was indexed.
+	 *
+	 * @param entity
+	 *            the entity, as it is indexed
+	 */
+	void onEntity(ESEntity entity);
+
+}
@@ -0,0 +1,106 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * An {@link Iterator} over all the hits of a scrolled search, fetched one
+ * page at a time.
+ * <p>
+ * The next page is requested as soon as the current one is received, so
+ * elasticsearch prepares it while the caller consumes the current one. Only
+ * two pages are ever held in memory.
+ * <p>
+ * The scroll is released once the last hit was read. Callers stopping before
+ * should call {@link #close()}.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <T>
+ *            the type of objects decoded from the hits
+ */
+public abstract class ScrollIterator<T> implements Iterator<T>, Closeable {
+
+	private final Client client;
+	private final TimeValue keepAlive;
+
+	private SearchHit[] hits;
+	private int position;
+	private String scrollId;
+	private ListenableActionFuture<SearchResponse> nextPage;
+	private boolean closed;
+
+	/**
+	 * @param client
+	 *            the client used to fetch the next pages
+	 * @param firstPage
+	 *            the response of the search request opening the scroll
+	 * @param keepAlive
+	 *            how long elasticsearch keeps the scroll alive between two
+	 *            pages
+	 */
+	protected ScrollIterator(Client client, SearchResponse firstPage, TimeValue keepAlive) {
+		this.client = client;
+		this.keepAlive = keepAlive;
+		accept(firstPage);
+	}
+
+	/**
+	 * Decode a hit into the object returned by {@link #next()}.
+	 */
+	protected abstract T decode(SearchHit hit);
+
+	@Override
+	public boolean hasNext() {
+		if (position < hits.length) return true;
+		if (nextPage == null) return false;
+		try {
+			accept(nextPage.actionGet());
+		} catch (Exception e) {
+			close();
+			throw new DaoException("Unable to fetch the next page of scroll " + scrollId, e);
+		}
+		return position < hits.length;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return decode(hits[position++]);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("ScrollIterator is read-only");
+	}
+
+	/**
+	 * Release the scroll context. Subsequent calls have no effect.
+	 */
+	@Override
+	public void close() {
+		nextPage = null;
+		if (closed) return;
+		closed = true;
+		if (scrollId != null) client.prepareClearScroll().addScrollId(scrollId).execute();
+	}
+
+	private void accept(SearchResponse response) {
+		hits = response.getHits().getHits();
+		position = 0;
+		scrollId = response.getScrollId();
+		if (hits.length == 0 || scrollId == null) {
+			close();
+		} else {
+			nextPage = client.prepareSearchScroll(scrollId).setScroll(keepAlive).execute();
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
+
+import java.util.Arrays;
+
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+
+/**
+ * Selects the document fields fetched when getting or searching entities.
+ * <p>
+ * Entities decoded from a partial source only carry the requested fields:
+ * missing tags are empty, a node without <code>shape</code> is located at its
+ * <code>centroid</code>, and a way without <code>shape</code> is reduced to
+ * its centroid.
+ */
+public class SourceFilter {
+
+	/**
+	 * Fetch the whole document
+	 */
+	public static final SourceFilter ALL = new SourceFilter(null, null);
+
+	/**
+	 * Fetch only the <code>centroid</code> and the <code>tags</code> fields
+	 */
+	public static final SourceFilter CENTROID_AND_TAGS = new SourceFilter(new String[] { "centroid", "tags" }, null);
+
+	/**
+	 * Fetch everything but the <code>shape</code> field
+	 */
+	public static final SourceFilter WITHOUT_SHAPE = new SourceFilter(null, new String[] { "shape" });
+
+	private final String[] includes;
+	private final String[] excludes;
+
+	private SourceFilter(String[] includes, String[] excludes) {
+		this.includes = includes;
+		this.excludes = excludes;
+	}
+
+	/**
+	 * @return A {@link SourceFilter} fetching only the provided fields
+	 */
+	public static SourceFilter include(String... fields) {
+		if (fields == null || fields.length == 0) throw new IllegalArgumentException("You must provide at least one field");
+		return new SourceFilter(fields.clone(), null);
+	}
+
+	/**
+	 * @return A {@link SourceFilter} fetching all but the provided fields
+	 */
+	public static SourceFilter exclude(String... fields) {
+		if (fields == null || fields.length == 0) throw new IllegalArgumentException("You must provide at least one field");
+		return new SourceFilter(null, fields.clone());
+	}
+
+	public boolean isAll() {
+		return includes == null && excludes == null;
+	}
+
+	/**
+	 * @return The fields to fetch, null if the whole document is fetched
+	 */
+	public String[] getIncludes() {
+		return includes == null ? null : includes.clone();
+	}
+
+	/**
+	 * @return The fields not to fetch, null if none
+	 */
+	public String[] getExcludes() {
+		return excludes == null ? null : excludes.clone();
+	}
+
+	/**
+	 * @return The equivalent elasticsearch {@link FetchSourceContext}
+	 */
+	public FetchSourceContext toFetchSourceContext() {
+		return new FetchSourceContext(includes, excludes);
+	}
+
+	@Override
+	public String toString() {
+		return "SourceFilter [includes=" + (includes == null ? "*" : Arrays.toString(includes))
+				+ ", excludes=" + (excludes == null ? "-" : Arrays.toString(excludes)) + "]";
+	}
+
+}
@@ -0,0 +1,215 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * A compact {@link Map} of tags backed by two parallel arrays.
+ * <p>
+ * Entities hold a handful of tags, so a linear scan is as fast as hashing
+ * while avoiding one entry object per tag and the table of a
+ * {@link java.util.HashMap}. Keys and values are interned through the
+ * {@link TagDictionary}. Iteration follows insertion order.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class CompactTagMap extends AbstractMap<String, String> {
+
+	private static final String[] EMPTY = new String[0];
+
+	private String[] keys;
+	private String[] values;
+	private int size;
+
+	public CompactTagMap() {
+		this.keys = EMPTY;
+		this.values = EMPTY;
+	}
+
+	public CompactTagMap(int capacity) {
+		this.keys = new String[capacity];
+		this.values = new String[capacity];
+	}
+
+	/**
+	 * @return A new {@link CompactTagMap} holding the provided OSM tags
+	 */
+	public static CompactTagMap copyOf(Collection<Tag> tags) {
+		CompactTagMap map = new CompactTagMap(tags.size());
+		for (Tag tag : tags) {
+			map.put(tag.getKey(), tag.getValue());
+		}
+		return map;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public String get(Object key) {
+		int index = indexOf(key);
+		return (index >= 0) ? values[index] : null;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		if (key == null) throw new NullPointerException("Tag key cannot be null");
+		value = TagDictionary.internValue(value);
+		int index = indexOf(key);
+		if (index >= 0) {
+			String previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+		if (size == keys.length) {
+			int capacity = Math.max(4, size * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		keys[size] = TagDictionary.internKey(key);
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	@Override
+	public String remove(Object key) {
+		int index = indexOf(key);
+		if (index < 0) return null;
+		String previous = values[index];
+		removeAt(index);
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+
+	private int indexOf(Object key) {
+		if (key == null) return -1;
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == key || keys[i].equals(key)) return i;
+		}
+		return -1;
+	}
+
+	private void removeAt(int index) {
+		int moved = size - index - 1;
+		if (moved > 0) {
+			System.arraycopy(keys, index + 1, keys, index, moved);
+			System.arraycopy(values, index + 1, values, index, moved);
+		}
+		size--;
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+		private int next = 0;
+		private int last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Map.Entry<String, String> next() {
+			if (next >= size) throw new NoSuchElementException();
+			last = next++;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) throw new IllegalStateException();
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+
+	}
+
+	private class Entry implements Map.Entry<String, String> {
+
+		private final int index;
+
+		private Entry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return keys[index];
+		}
+
+		@Override
+		public String getValue() {
+			return values[index];
+		}
+
+		@Override
+		public String setValue(String value) {
+			String previous = values[index];
+			values[index] = TagDictionary.internValue(value);
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry)) return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+			return eq(getKey(), other.getKey()) && eq(getValue(), other.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return (getKey() == null ? 0 : getKey().hashCode()) ^ (getValue() == null ? 0 : getValue().hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+
+		private boolean eq(Object o1, Object o2) {
+			return o1 == null ? o2 == null : o1.equals(o2);
+		}
+
+	}
+
+}
@@ -1,10 +1,13 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
 
-import java.util.HashMap;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
 import java.util.Map;
 
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
-import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESLocation;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShapeType;
 
@@ -14,11 +17,16 @@ public abstract class ESEntity {
 	private final Map<String, String> tags;
 
 	protected ESEntity(Entity entity) {
+		this(entity, null);
+	}
+
+	/**
+	 * @param tagFilter
+	 *            the filter selecting the tags to keep, null to keep all
+	 */
+	protected ESEntity(Entity entity, TagFilter tagFilter) {
 		this.id = entity.getId();
-		this.tags = new HashMap<String, String>();
-		for (Tag tag : entity.getTags()) {
-			this.tags.put(tag.getKey(), tag.getValue());
-		}
+		this.tags = (tagFilter != null) ? tagFilter.project(entity.getTags()) : CompactTagMap.copyOf(entity.getTags());
 	}
 
 	protected ESEntity(long id, Map<String, String> tags) {
@@ -36,7 +44,34 @@ public abstract class ESEntity {
 
 	public abstract double getArea();
 
-	public abstract String toJson();
+	/**
+	 * Writes the document fields of this entity into an already started JSON
+	 * object.
+	 */
+	protected abstract void writeJsonFields(XContentBuilder builder) throws IOException;
+
+	public String toJson() {
+		return toJsonBytes().toUtf8();
+	}
+
+	/**
+	 * @return The JSON document of this entity, serialized straight into a
+	 *         byte buffer ready to be sent to elasticsearch
+	 */
+	public BytesReference toJsonBytes() {
+		XContentBuilder builder = null;
+		try {
+			builder = jsonBuilder();
+			builder.startObject();
+			writeJsonFields(builder);
+			builder.endObject();
+			return builder.bytes();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to serialize " + getClass().getSimpleName() + " to Json", e);
+		} finally {
+			if (builder != null) builder.close();
+		}
+	}
 
 	public long getId() {
 		return id;
@@ -1,33 +1,37 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
 
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESLocation;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoCells;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShapeType;
 
 public class ESNode extends ESEntity {
 
 	private final double latitude;
 	private final double longitude;
+	private final List<String> cells;
 
-	private ESNode(Node node) {
-		super(node);
+	private ESNode(Node node, GeoCells geoCells, TagFilter tagFilter) {
+		super(node, tagFilter);
 		this.latitude = node.getLatitude();
 		this.longitude = node.getLongitude();
+		this.cells = geoCells != null ? geoCells.cover(latitude, longitude) : Collections.<String> emptyList();
 	}
 
 	private ESNode(Builder builder) {
 		super(builder.id, builder.tags);
 		this.latitude = builder.latitude;
 		this.longitude = builder.longitude;
+		this.cells = Collections.emptyList();
 	}
 
 	@Override
@@ -63,25 +67,23 @@ public class ESNode extends ESEntity {
 		return longitude;
 	}
 
+	/**
+	 * @return The geohash cells of the location, empty unless computed when
+	 *         built from the entity
+	 */
+	public List<String> getCells() {
+		return cells;
+	}
+
 	@Override
-	public String toJson() {
-		XContentBuilder builder = null;
-		try {
-			builder = jsonBuilder();
-			builder.startObject();
-			builder.field("centroid", new double[] { longitude, latitude });
-			builder.startObject("shape")
-					.field("type", "point")
-					.field("coordinates", new double[] { longitude, latitude })
-					.endObject();
-			builder.field("tags", getTags());
-			builder.endObject();
-			return builder.string();
-		} catch (IOException e) {
-			throw new RuntimeException("Unable to serialize Node to Json", e);
-		} finally {
-			if (builder != null) builder.close();
-		}
+	protected void writeJsonFields(XContentBuilder builder) throws IOException {
+		builder.field("centroid", new double[] { longitude, latitude });
+		builder.startObject("shape")
+				.field("type", "point")
+				.field("coordinates", new double[] { longitude, latitude })
+				.endObject();
+		if (!cells.isEmpty()) builder.field("cells", cells);
+		builder.field("tags", getTags());
 	}
 
 	@Override
@@ -127,7 +129,7 @@ public class ESNode extends ESEntity {
 		private long id;
 		private double latitude;
 		private double longitude;
-		private Map<String, String> tags = new HashMap<String, String>();
+		private Map<String, String> tags = new CompactTagMap();
 
 		private Builder() {}
 
@@ -135,21 +137,46 @@ public class ESNode extends ESEntity {
 			return new Builder();
 		}
 
-		@SuppressWarnings("unchecked")
 		public static ESNode buildFromGetReponse(GetResponse response) {
 			if (!response.getType().equals(ESEntityType.NODE.getIndiceName())) throw new IllegalArgumentException("Provided GetResponse is not a Node");
+			return buildFromSource(response.getId(), response.getSourceAsBytesRef());
+		}
+
+		public static ESNode buildFromSearchHit(SearchHit hit) {
+			if (!hit.getType().equals(ESEntityType.NODE.getIndiceName())) throw new IllegalArgumentException("Provided SearchHit is not a Node");
+			return buildFromSource(hit.getId(), hit.getSourceRef());
+		}
+
+		private static ESNode buildFromSource(String id, BytesReference source) {
+			EntitySource entitySource = EntitySource.parse(id, source, true);
 			Builder builder = new Builder();
-			builder.id = Long.valueOf(response.getId());
-			builder.tags = (Map<String, String>) response.getSource().get("tags");
-			Map<String, Object> shape = (Map<String, Object>) response.getSource().get("shape");
-			List<Double> location = (List<Double>) shape.get("coordinates");
-			builder.latitude = location.get(1);
-			builder.longitude = location.get(0);
+			builder.id = Long.valueOf(id);
+			if (entitySource.tags != null) builder.tags = entitySource.tags;
+			double[] location = (entitySource.coordinates != null) ? entitySource.coordinates[0] : entitySource.centroid;
+			if (location == null) throw new IllegalArgumentException("Node " + id + " has neither shape nor centroid");
+			builder.latitude = location[1];
+			builder.longitude = location[0];
 			return builder.build();
 		}
 
 		public static ESNode buildFromEntity(Node node) {
-			return new ESNode(node);
+			return new ESNode(node, null, null);
+		}
+
+		/**
+		 * @param geoCells
+		 *            the cells to cover the location with, null to disable
+		 */
+		public static ESNode buildFromEntity(Node node, GeoCells geoCells) {
+			return new ESNode(node, geoCells, null);
+		}
+
+		/**
+		 * @param tagFilter
+		 *            the filter selecting the tags to keep, null to keep all
+		 */
+		public static ESNode buildFromEntity(Node node, GeoCells geoCells, TagFilter tagFilter) {
+			return new ESNode(node, geoCells, tagFilter);
 		}
 
 		public Builder id(long id) {
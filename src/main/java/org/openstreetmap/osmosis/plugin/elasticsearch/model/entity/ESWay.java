@@ -1,14 +1,12 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
 
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESLocation;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape;
@@ -18,18 +16,22 @@ import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShapeType;
 public class ESWay extends ESEntity {
 
 	private final ESShape shape;
-
-	private ESWay(Way way, ESShape shape) {
-		super(way);
-		double[][] locations = shape.getGeoJsonArray();
-		if (locations.length != way.getWayNodes().size()) throw new IllegalArgumentException(String.format(
-				"Incorrect size! WayNodes: %d, Shape: %d", way.getWayNodes().size(), locations.length));
+	private final int tileCount;
+
+	private ESWay(Way way, ESShape shape, int tileCount, TagFilter tagFilter) {
+		super(way, tagFilter);
+		// Simplified shapes may not keep their original locations
+		int locationCount = shape.getLocationCount();
+		if (locationCount != way.getWayNodes().size()) throw new IllegalArgumentException(String.format(
+				"Incorrect size! WayNodes: %d, Shape: %d", way.getWayNodes().size(), locationCount));
 		this.shape = shape;
+		this.tileCount = tileCount;
 	}
 
 	private ESWay(Builder builder) {
 		super(builder.id, builder.tags);
 		this.shape = builder.shape;
+		this.tileCount = builder.tileCount;
 	}
 
 	@Override
@@ -41,6 +43,14 @@ public class ESWay extends ESEntity {
             return shape.getGeoJsonArray();
         }
         
+	/**
+	 * @return The number of {@link ESWayTile} child documents indexing the
+	 *         shape of this way, 0 if the way indexes its own shape
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+
 	@Override
 	public ESShapeType getShapeType() {
 		return shape.getShapeType();
@@ -62,33 +72,43 @@ public class ESWay extends ESEntity {
 	}
 
 	@Override
-	public String toJson() {
-		XContentBuilder builder = null;
-		try {
-			builder = jsonBuilder();
-			builder.startObject();
-			ESLocation centroid = shape.getCentroid();
-			builder.field("centroid", new double[] { centroid.getLongitude(), centroid.getLatitude() });
-			builder.field("lengthKm", shape.getLengthKm());
-			builder.field("areaKm2", shape.getAreaKm2());
-			builder.startObject("shape");
-			builder.field("type", shape.isClosed() ? "polygon" : "linestring");
-			builder.startArray("coordinates");
-			if (shape.isClosed()) builder.startArray();
-			for (double[] location : shape.getGeoJsonArray()) {
-				builder.startArray().value(location[0]).value(location[1]).endArray();
-			}
-			if (shape.isClosed()) builder.endArray();
-			builder.endArray();
-			builder.endObject();
-			builder.field("tags", getTags());
-			builder.endObject();
-			return builder.string();
-		} catch (IOException e) {
-			throw new RuntimeException("Unable to serialize Way to Json", e);
-		} finally {
-			if (builder != null) builder.close();
+	protected void writeJsonFields(XContentBuilder builder) throws IOException {
+		ESLocation centroid = shape.getCentroid();
+		builder.field("centroid", new double[] { centroid.getLongitude(), centroid.getLatitude() });
+		builder.field("lengthKm", shape.getLengthKm());
+		builder.field("areaKm2", shape.getAreaKm2());
+		double[] box = shape.getBoundingBox();
+		if (box != null) {
+			builder.startObject("bbox")
+					.field("minLon", box[0]).field("minLat", box[1])
+					.field("maxLon", box[2]).field("maxLat", box[3])
+					.endObject();
+		}
+		if (!shape.getCells().isEmpty()) builder.field("cells", shape.getCells());
+		// The original locations of a simplified shape are stored, not indexed
+		double[][] original = shape.getOriginalGeoJsonArray();
+		if (tileCount > 0) {
+			// The tiles index the shape, the way only stores it
+			builder.field("tiles", tileCount);
+			writeShape(builder, "originalShape", original != null ? original : shape.getGeoJsonArray());
+		} else {
+			writeShape(builder, "shape", shape.getGeoJsonArray());
+			if (original != null) writeShape(builder, "originalShape", original);
+		}
+		builder.field("tags", getTags());
+	}
+
+	private void writeShape(XContentBuilder builder, String name, double[][] locations) throws IOException {
+		builder.startObject(name);
+		builder.field("type", shape.isClosed() ? "polygon" : "linestring");
+		builder.startArray("coordinates");
+		if (shape.isClosed()) builder.startArray();
+		for (double[] location : locations) {
+			builder.startArray().value(location[0]).value(location[1]).endArray();
 		}
+		if (shape.isClosed()) builder.endArray();
+		builder.endArray();
+		builder.endObject();
 	}
 
 	@Override
@@ -96,6 +116,7 @@ public class ESWay extends ESEntity {
 		final int prime = 31;
 		int result = super.hashCode();
 		result = prime * result + ((shape == null) ? 0 : shape.hashCode());
+		result = prime * result + tileCount;
 		return result;
 	}
 
@@ -108,6 +129,7 @@ public class ESWay extends ESEntity {
 		if (shape == null) {
 			if (other.shape != null) return false;
 		} else if (!shape.equals(other.shape)) return false;
+		if (tileCount != other.tileCount) return false;
 		return true;
 	}
 
@@ -118,6 +140,8 @@ public class ESWay extends ESEntity {
 		builder.append(getId());
 		builder.append(", shape=");
 		builder.append(shape);
+		builder.append(", tileCount=");
+		builder.append(tileCount);
 		builder.append(", tags=");
 		builder.append(getTags());
 		builder.append("]");
@@ -130,7 +154,8 @@ public class ESWay extends ESEntity {
 
 		private long id;
 		private ESShape shape;
-		private Map<String, String> tags = new HashMap<String, String>();
+		private int tileCount;
+		private Map<String, String> tags = new CompactTagMap();
 
 		private Builder() {}
 
@@ -138,40 +163,62 @@ public class ESWay extends ESEntity {
 			return new Builder();
 		}
 
-		@SuppressWarnings("unchecked")
 		public static ESWay buildFromGetReponse(GetResponse response) {
 			if (!response.getType().equals(ESEntityType.WAY.getIndiceName())) throw new IllegalArgumentException("Provided GetResponse is not a Way");
+			return buildFromSource(response.getId(), response.getSourceAsBytesRef());
+		}
+
+		public static ESWay buildFromSearchHit(SearchHit hit) {
+			if (!hit.getType().equals(ESEntityType.WAY.getIndiceName())) throw new IllegalArgumentException("Provided SearchHit is not a Way");
+			return buildFromSource(hit.getId(), hit.getSourceRef());
+		}
 
+		/**
+		 * Tags and shape metadata are decoded right away, coordinates only
+		 * when the shape locations are first requested.
+		 */
+		private static ESWay buildFromSource(String id, BytesReference source) {
+			EntitySource entitySource = EntitySource.parse(id, source, false);
 			Builder builder = new Builder();
-			builder.id = Long.valueOf(response.getId());
-			builder.tags = (Map<String, String>) response.getSource().get("tags");
-			Map<String, Object> shape = (Map<String, Object>) response.getSource().get("shape");
-			String type = (String) shape.get("type");
-			if ("linestring".equals(type)) {
-				List<List<Double>> locations = (List<List<Double>>) shape.get("coordinates");
-				for (List<Double> location : locations) {
-					builder.addLocation(location.get(1), location.get(0));
-				}
+			builder.id = Long.valueOf(id);
+			if (entitySource.tags != null) builder.tags = entitySource.tags;
+			double[] centroid = entitySource.centroid;
+			if (centroid != null) builder.shapeBuilder.setCentroid(new ESLocation(centroid[1], centroid[0]));
+			if (entitySource.lengthKm != null) builder.shapeBuilder.setLength(entitySource.lengthKm);
+			if (entitySource.areaKm2 != null) builder.shapeBuilder.setArea(entitySource.areaKm2);
+			if (entitySource.tiles != null) builder.tileCount = entitySource.tiles;
+			if (entitySource.hasShape && entitySource.shapeType != null) {
+				builder.shapeBuilder.setShapeType(ESShapeType.valueOf(entitySource.shapeType.toUpperCase()));
+				builder.shape = builder.shapeBuilder.buildLazy(source);
+			} else if (centroid != null) {
+				builder.addLocation(centroid[1], centroid[0]);
+				builder.shape = builder.shapeBuilder.buildFast();
 			} else {
-				List<List<List<Double>>> locations = (List<List<List<Double>>>) shape.get("coordinates");
-				for (List<Double> location : locations.get(0)) {
-					builder.addLocation(location.get(1), location.get(0));
-				}
+				throw new IllegalArgumentException("Way " + id + " has neither shape nor centroid");
 			}
-
-			List<Double> centroid = (List<Double>) response.getSource().get("centroid");
-			builder.shapeBuilder.setCentroid(new ESLocation(centroid.get(1), centroid.get(0)));
-			Double length = (Double) response.getSource().get("lengthKm");
-			builder.shapeBuilder.setLength(length);
-			Double area = (Double) response.getSource().get("areaKm2");
-			builder.shapeBuilder.setArea(area);
-
-			builder.shape = builder.shapeBuilder.buildFast();
 			return new ESWay(builder);
 		}
 
 		public static ESWay buildFromEntity(Way way, ESShape locationArrayBuilder) {
-			return new ESWay(way, locationArrayBuilder);
+			return new ESWay(way, locationArrayBuilder, 0, null);
+		}
+
+		/**
+		 * @param tileCount
+		 *            the number of {@link ESWayTile} indexing the shape of the
+		 *            way instead of the way itself
+		 */
+		public static ESWay buildFromEntity(Way way, ESShape locationArrayBuilder, int tileCount) {
+			return new ESWay(way, locationArrayBuilder, tileCount, null);
+		}
+
+		/**
+		 * @param tagFilter
+		 *            the filter selecting the tags to keep, null to keep all
+		 */
+		public static ESWay buildFromEntity(Way way, ESShape locationArrayBuilder, int tileCount,
+				TagFilter tagFilter) {
+			return new ESWay(way, locationArrayBuilder, tileCount, tagFilter);
 		}
 
 		public Builder id(long id) {
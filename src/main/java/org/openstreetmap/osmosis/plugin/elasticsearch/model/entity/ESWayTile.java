@@ -0,0 +1,128 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler.Tile;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * The piece of a large way within a tile, indexed as a child document of the
+ * way.
+ */
+public class ESWayTile {
+
+	public static final String TYPE = "way_tile";
+
+	private final long wayId;
+	private final Tile tile;
+
+	public ESWayTile(long wayId, Tile tile) {
+		this.wayId = wayId;
+		this.tile = tile;
+	}
+
+	public long getWayId() {
+		return wayId;
+	}
+
+	public String getWayIdString() {
+		return Long.toString(wayId);
+	}
+
+	/**
+	 * @return The id of the document, unique among the tiles of all ways
+	 */
+	public String getIdString() {
+		return wayId + ":" + tile.getX() + ":" + tile.getY();
+	}
+
+	public Tile getTile() {
+		return tile;
+	}
+
+	public String toJson() {
+		return toJsonBytes().toUtf8();
+	}
+
+	public BytesReference toJsonBytes() {
+		XContentBuilder builder = null;
+		try {
+			builder = jsonBuilder();
+			builder.startObject();
+			builder.field("way", wayId);
+			builder.array("tile", tile.getX(), tile.getY());
+			builder.startObject("shape");
+			writeGeometry(builder, tile.getGeometry());
+			builder.endObject();
+			builder.endObject();
+			return builder.bytes();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to serialize " + getClass().getSimpleName() + " to Json", e);
+		} finally {
+			if (builder != null) builder.close();
+		}
+	}
+
+	private static void writeGeometry(XContentBuilder builder, Geometry geometry) throws IOException {
+		if (geometry instanceof Polygon) {
+			builder.field("type", "polygon");
+			builder.startArray("coordinates");
+			writePolygon(builder, (Polygon) geometry);
+			builder.endArray();
+		} else if (geometry instanceof MultiPolygon) {
+			builder.field("type", "multipolygon");
+			builder.startArray("coordinates");
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				builder.startArray();
+				writePolygon(builder, (Polygon) geometry.getGeometryN(i));
+				builder.endArray();
+			}
+			builder.endArray();
+		} else if (geometry instanceof LineString) {
+			builder.field("type", "linestring");
+			writeCoordinates(builder, "coordinates", geometry.getCoordinates());
+		} else if (geometry instanceof MultiLineString) {
+			builder.field("type", "multilinestring");
+			builder.startArray("coordinates");
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				writeCoordinates(builder, null, geometry.getGeometryN(i).getCoordinates());
+			}
+			builder.endArray();
+		} else {
+			throw new IllegalArgumentException("Unsupported tile geometry " + geometry.getGeometryType());
+		}
+	}
+
+	private static void writePolygon(XContentBuilder builder, Polygon polygon) throws IOException {
+		writeCoordinates(builder, null, polygon.getExteriorRing().getCoordinates());
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+			writeCoordinates(builder, null, polygon.getInteriorRingN(i).getCoordinates());
+		}
+	}
+
+	private static void writeCoordinates(XContentBuilder builder, String name, Coordinate[] coordinates)
+			throws IOException {
+		if (name == null) builder.startArray();
+		else builder.startArray(name);
+		for (Coordinate coordinate : coordinates) {
+			builder.startArray().value(coordinate.x).value(coordinate.y).endArray();
+		}
+		builder.endArray();
+	}
+
+	@Override
+	public String toString() {
+		return "ESWayTile [wayId=" + wayId + ", tile=" + tile + "]";
+	}
+
+}
@@ -0,0 +1,115 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoJsonParser;
+
+/**
+ * The fields of an entity document, decoded in a single streaming pass over
+ * its raw source.
+ * <p>
+ * Sources may be partial (see source filtering), so any field may be
+ * missing. The stored <code>originalShape</code> stands for the shape when
+ * the document has none, i.e. when its shape is indexed by tiles.
+ */
+class EntitySource {
+
+	Map<String, String> tags;
+	double[] centroid;
+	String shapeType;
+	boolean hasShape;
+	double[][] coordinates;
+	Double lengthKm;
+	Double areaKm2;
+	Integer tiles;
+
+	private EntitySource() {}
+
+	/**
+	 * @param withCoordinates
+	 *            if false, <code>shape.coordinates</code> is skipped, e.g. to
+	 *            be decoded later on demand
+	 */
+	static EntitySource parse(String id, BytesReference source, boolean withCoordinates) {
+		if (source == null) throw new IllegalArgumentException("Entity " + id + " has no source");
+		EntitySource entitySource = new EntitySource();
+		EntitySource original = null;
+		XContentParser parser = null;
+		try {
+			parser = XContentFactory.xContent(source).createParser(source);
+			if (parser.nextToken() != Token.START_OBJECT) throw new IOException("Source must be an object");
+			while (parser.nextToken() == Token.FIELD_NAME) {
+				String field = parser.currentName();
+				Token token = parser.nextToken();
+				if ("tags".equals(field) && token == Token.START_OBJECT) {
+					entitySource.tags = parseTags(parser);
+				} else if ("centroid".equals(field) && token == Token.START_ARRAY) {
+					entitySource.centroid = GeoJsonParser.parseCoordinates(parser)[0];
+				} else if ("lengthKm".equals(field) && token == Token.VALUE_NUMBER) {
+					entitySource.lengthKm = parser.doubleValue();
+				} else if ("areaKm2".equals(field) && token == Token.VALUE_NUMBER) {
+					entitySource.areaKm2 = parser.doubleValue();
+				} else if ("tiles".equals(field) && token == Token.VALUE_NUMBER) {
+					entitySource.tiles = parser.intValue();
+				} else if ("shape".equals(field) && token == Token.START_OBJECT) {
+					entitySource.hasShape = true;
+					parseShape(parser, entitySource, withCoordinates);
+				} else if ("originalShape".equals(field) && token == Token.START_OBJECT) {
+					if (original == null) original = new EntitySource();
+					original.hasShape = true;
+					parseShape(parser, original, withCoordinates);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (!entitySource.hasShape && original != null) {
+				entitySource.hasShape = true;
+				entitySource.shapeType = original.shapeType;
+				entitySource.coordinates = original.coordinates;
+			}
+			return entitySource;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to parse source of entity " + id, e);
+		} catch (ElasticsearchParseException e) {
+			throw new IllegalArgumentException("Unable to parse source of entity " + id, e);
+		} finally {
+			if (parser != null) parser.close();
+		}
+	}
+
+	private static void parseShape(XContentParser parser, EntitySource entitySource, boolean withCoordinates)
+			throws IOException {
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			String field = parser.currentName();
+			Token token = parser.nextToken();
+			if ("type".equals(field) && token == Token.VALUE_STRING) {
+				entitySource.shapeType = parser.text();
+			} else if ("coordinates".equals(field) && token == Token.START_ARRAY && withCoordinates) {
+				entitySource.coordinates = GeoJsonParser.parseCoordinates(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private static Map<String, String> parseTags(XContentParser parser) throws IOException {
+		CompactTagMap tags = new CompactTagMap();
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			String key = parser.currentName();
+			Token token = parser.nextToken();
+			if (token.isValue()) {
+				tags.put(key, parser.text());
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return tags;
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A process wide dictionary of tag keys and common tag values.
+ * <p>
+ * OSM data uses a tiny set of keys ({@code highway}, {@code building},
+ * {@code name}...) and values ({@code yes}, {@code residential}...) for most
+ * of its tags. Interning them lets all entities share the same String
+ * instances instead of holding one copy per tag.
+ * <p>
+ * The pool of keys is bounded: once full, unknown keys are returned as is.
+ * Only the curated common values are interned, as other values (names,
+ * house numbers, refs...) are rarely shared and would fill the pool in the
+ * order they are read.
+ */
+public class TagDictionary {
+
+	private static final int MAX_KEYS = 16384;
+
+	private static final String[] COMMON_KEYS = {
+			"highway", "building", "name", "ref", "oneway", "surface", "maxspeed", "lanes", "service",
+			"landuse", "natural", "waterway", "amenity", "barrier", "access", "source", "power",
+			"addr:housenumber", "addr:street", "addr:postcode", "addr:city", "addr:country", "layer",
+			"bridge", "tunnel", "railway", "leisure", "shop", "type", "boundary", "admin_level", "wall" };
+
+	private static final String[] COMMON_VALUES = {
+			"yes", "no", "residential", "service", "track", "unclassified", "footway", "path", "tertiary",
+			"secondary", "primary", "trunk", "motorway", "living_street", "pedestrian", "cycleway", "steps",
+			"house", "garage", "apartments", "detached", "roof", "industrial", "commercial", "retail",
+			"asphalt", "paved", "unpaved", "gravel", "ground", "grass", "forest", "farmland", "meadow",
+			"water", "stream", "ditch", "river", "fence", "wall", "hedge", "gate", "parking", "bench",
+			"tree", "crossing", "traffic_signals", "stop", "bus_stop", "street_lamp", "tower", "line",
+			"pole", "private", "permissive", "destination", "1", "2", "-1", "30", "50", "70", "90" };
+
+	private static final ConcurrentMap<String, String> KEYS = new ConcurrentHashMap<String, String>();
+	private static final Map<String, String> VALUES = new HashMap<String, String>();
+
+	static {
+		for (String key : COMMON_KEYS) {
+			KEYS.put(key, key);
+		}
+		for (String value : COMMON_VALUES) {
+			VALUES.put(value, value);
+		}
+	}
+
+	private TagDictionary() {}
+
+	/**
+	 * @return The shared instance of the provided tag key
+	 */
+	public static String internKey(String key) {
+		return intern(KEYS, MAX_KEYS, key);
+	}
+
+	/**
+	 * @return The shared instance of the provided tag value if it is a
+	 *         common one, the value itself otherwise
+	 */
+	public static String internValue(String value) {
+		if (value == null) return null;
+		String interned = VALUES.get(value);
+		return (interned != null) ? interned : value;
+	}
+
+	private static String intern(ConcurrentMap<String, String> pool, int maxSize, String s) {
+		if (s == null) return null;
+		String interned = pool.get(s);
+		if (interned != null) return interned;
+		if (pool.size() >= maxSize) return s;
+		interned = pool.putIfAbsent(s, s);
+		return (interned != null) ? interned : s;
+	}
+
+}
@@ -0,0 +1,139 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * Select the entities to index and the tags to keep from their tags, without
+ * going through the <code>--tag-filter</code> task of osmosis.
+ * <p>
+ * Rules are comma separated, each one being either a key matching any value
+ * (<code>highway</code>, <code>highway=*</code>) or a key and one or more
+ * values (<code>highway=primary|secondary</code>). An entity is accepted if
+ * it matches an include rule, or if there is none, and matches no exclude
+ * rule.
+ * <p>
+ * Tag keys to keep are comma separated, a trailing <code>*</code> keeping all
+ * keys with this prefix (<code>name*</code>).
+ * <p>
+ * Rules are compiled once, a filter is immutable and thread-safe.
+ */
+public class TagFilter {
+
+	private static final Set<String> ANY_VALUE = new HashSet<String>();
+
+	private final Map<String, Set<String>> includes;
+	private final Map<String, Set<String>> excludes;
+	private final Set<String> keys;
+	private final String[] keyPrefixes;
+
+	/**
+	 * @param include
+	 *            the include rules, empty to include all entities
+	 * @param exclude
+	 *            the exclude rules, empty to exclude none
+	 * @param keys
+	 *            the tag keys to keep, empty to keep all tags
+	 */
+	public TagFilter(String include, String exclude, String keys) {
+		this.includes = parseRules(include);
+		this.excludes = parseRules(exclude);
+		Set<String> exactKeys = new HashSet<String>();
+		List<String> prefixes = new ArrayList<String>();
+		for (String key : split(keys)) {
+			if (key.endsWith("*")) prefixes.add(key.substring(0, key.length() - 1));
+			else exactKeys.add(key);
+		}
+		this.keys = (exactKeys.isEmpty() && prefixes.isEmpty()) ? null : exactKeys;
+		this.keyPrefixes = prefixes.toArray(new String[prefixes.size()]);
+	}
+
+	/**
+	 * @return true if this filter has include or exclude rules, i.e. may
+	 *         reject entities
+	 */
+	public boolean isSelective() {
+		return !includes.isEmpty() || !excludes.isEmpty();
+	}
+
+	/**
+	 * @return true if the entity is to be indexed
+	 */
+	public boolean accepts(Entity entity) {
+		return accepts(entity.getTags());
+	}
+
+	public boolean accepts(Collection<Tag> tags) {
+		boolean included = includes.isEmpty();
+		for (Tag tag : tags) {
+			if (matches(excludes, tag)) return false;
+			if (!included && matches(includes, tag)) included = true;
+		}
+		return included;
+	}
+
+	/**
+	 * @return The tags whose key is kept
+	 */
+	public CompactTagMap project(Collection<Tag> tags) {
+		if (keys == null) return CompactTagMap.copyOf(tags);
+		CompactTagMap map = new CompactTagMap();
+		for (Tag tag : tags) {
+			if (keeps(tag.getKey())) map.put(tag.getKey(), tag.getValue());
+		}
+		return map;
+	}
+
+	private boolean keeps(String key) {
+		if (keys.contains(key)) return true;
+		for (String prefix : keyPrefixes) {
+			if (key.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	private static boolean matches(Map<String, Set<String>> rules, Tag tag) {
+		if (rules.isEmpty()) return false;
+		Set<String> values = rules.get(tag.getKey());
+		return values != null && (values == ANY_VALUE || values.contains(tag.getValue()));
+	}
+
+	private static Map<String, Set<String>> parseRules(String rules) {
+		Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+		for (String rule : split(rules)) {
+			int index = rule.indexOf('=');
+			String key = (index < 0) ? rule : rule.substring(0, index).trim();
+			String values = (index < 0) ? "*" : rule.substring(index + 1).trim();
+			if (key.isEmpty()) throw new IllegalArgumentException("Invalid tag rule [" + rule + "]");
+			Set<String> previous = map.get(key);
+			if (values.equals("*") || previous == ANY_VALUE) {
+				map.put(key, ANY_VALUE);
+				continue;
+			}
+			Set<String> set = (previous != null) ? previous : new HashSet<String>();
+			for (String value : values.split("\\|")) {
+				if (!value.trim().isEmpty()) set.add(value.trim());
+			}
+			map.put(key, set);
+		}
+		return map;
+	}
+
+	private static List<String> split(String list) {
+		List<String> items = new ArrayList<String>();
+		if (list == null) return items;
+		for (String item : list.split(",")) {
+			if (!item.trim().isEmpty()) items.add(item.trim());
+		}
+		return items;
+	}
+
+}
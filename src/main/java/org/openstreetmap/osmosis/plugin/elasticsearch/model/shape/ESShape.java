@@ -2,10 +2,14 @@ package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import org.elasticsearch.common.bytes.BytesReference;
+
 import com.spatial4j.core.distance.DistanceUtils;
 import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 
 import static org.elasticsearch.common.geo.builders.ShapeBuilder.SPATIAL_CONTEXT;
 
@@ -15,7 +19,13 @@ public class ESShape {
 	private final ESLocation centroid;
 	private final double length;
 	private final double area;
-	private final double[][] geoJsonArray;
+	private final BytesReference lazySource;
+	private final boolean simplified;
+	private final int locationCount;
+	private final double[][] originalGeoJsonArray;
+	private final List<String> cells;
+	private volatile double[][] geoJsonArray;
+	private volatile double[] boundingBox;
 
 	private ESShape(ESShapeBuilder builder) {
 		this.esShapeType = builder.esShapeType;
@@ -23,6 +33,12 @@ public class ESShape {
 		this.length = builder.length;
 		this.centroid = builder.centroid;
 		this.geoJsonArray = builder.geoJsonArray;
+		this.lazySource = builder.lazySource;
+		this.simplified = builder.simplified;
+		this.locationCount = builder.locationCount;
+		this.originalGeoJsonArray = builder.originalGeoJsonArray;
+		this.boundingBox = builder.boundingBox;
+		this.cells = builder.cells != null ? builder.cells : Collections.<String> emptyList();
 	}
 
 	public ESShapeType getShapeType() {
@@ -54,8 +70,69 @@ public class ESShape {
 		return area;
 	}
 
+	/**
+	 * @return The locations of this shape as <code>[lon, lat]</code> arrays.
+	 *         Lazy shapes decode them on the first call.
+	 */
 	public double[][] getGeoJsonArray() {
-		return geoJsonArray;
+		double[][] array = geoJsonArray;
+		if (array == null && lazySource != null) {
+			array = GeoJsonParser.parseShapeCoordinates(lazySource);
+			geoJsonArray = array;
+		}
+		return array;
+	}
+
+	/**
+	 * @return The <code>[minLon, minLat, maxLon, maxLat]</code> envelope of
+	 *         the original locations of this shape
+	 */
+	public double[] getBoundingBox() {
+		double[] box = boundingBox;
+		if (box == null) {
+			double[][] array = originalGeoJsonArray != null ? originalGeoJsonArray : getGeoJsonArray();
+			if (array == null) return null;
+			box = newBoundingBox();
+			for (double[] location : array) {
+				extend(box, location[0], location[1]);
+			}
+			boundingBox = box;
+		}
+		return box;
+	}
+
+	/**
+	 * @return The geohash cells covering the bounding box, empty unless
+	 *         computed by {@link ESShapeBuilder#setGeoCells(GeoCells)}
+	 */
+	public List<String> getCells() {
+		return cells;
+	}
+
+	/**
+	 * @return true if {@link #getGeoJsonArray()} holds fewer locations than
+	 *         the shape was built from
+	 */
+	public boolean isSimplified() {
+		return simplified;
+	}
+
+	/**
+	 * @return The number of locations the shape was built from, before any
+	 *         simplification
+	 */
+	public int getLocationCount() {
+		if (locationCount >= 0) return locationCount;
+		double[][] array = getGeoJsonArray();
+		return (array != null) ? array.length : 0;
+	}
+
+	/**
+	 * @return The locations of a simplified shape before simplification, if
+	 *         kept, null otherwise
+	 */
+	public double[][] getOriginalGeoJsonArray() {
+		return originalGeoJsonArray;
 	}
 
 	@Override
@@ -67,7 +144,7 @@ public class ESShape {
 		result = prime * result + (int) (temp ^ (temp >>> 32));
 		result = prime * result + ((centroid == null) ? 0 : centroid.hashCode());
 		result = prime * result + ((esShapeType == null) ? 0 : esShapeType.hashCode());
-		result = prime * result + Arrays.hashCode(geoJsonArray);
+		result = prime * result + Arrays.deepHashCode(getGeoJsonArray());
 		temp = Double.doubleToLongBits(length);
 		result = prime * result + (int) (temp ^ (temp >>> 32));
 		return result;
@@ -84,7 +161,7 @@ public class ESShape {
 			if (other.centroid != null) return false;
 		} else if (!centroid.equals(other.centroid)) return false;
 		if (esShapeType != other.esShapeType) return false;
-		if (!Arrays.deepEquals(geoJsonArray, other.geoJsonArray)) return false;
+		if (!Arrays.deepEquals(getGeoJsonArray(), other.getGeoJsonArray())) return false;
 		if (Double.doubleToLongBits(length) != Double.doubleToLongBits(other.length)) return false;
 		return true;
 	}
@@ -103,11 +180,23 @@ public class ESShape {
 		builder.append(", area=");
 		builder.append(area);
 		builder.append(", geoJsonArray=");
-		builder.append(Arrays.deepToString(geoJsonArray));
+		builder.append(Arrays.deepToString(getGeoJsonArray()));
 		builder.append("]");
 		return builder.toString();
 	}
 
+	private static double[] newBoundingBox() {
+		return new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+	}
+
+	private static void extend(double[] box, double longitude, double latitude) {
+		if (longitude < box[0]) box[0] = longitude;
+		if (latitude < box[1]) box[1] = latitude;
+		if (longitude > box[2]) box[2] = longitude;
+		if (latitude > box[3]) box[3] = latitude;
+	}
+
 	public static class ESShapeBuilder {
 
 		private ESShapeType esShapeType;
@@ -115,11 +204,24 @@ public class ESShape {
 		private double length;
 		private ESLocation centroid;
 		private double[][] geoJsonArray;
+		private BytesReference lazySource;
+		private double simplifyTolerance;
+		private boolean keepOriginal;
+		private boolean simplified;
+		private int locationCount = -1;
+		private double[][] originalGeoJsonArray;
+		private double[] boundingBox;
+		private GeoCells geoCells;
+		private List<String> cells;
 
 		/*
 		 * REGULAR BUILDER
 		 */
 
+		public void setShapeType(ESShapeType esShapeType) {
+			this.esShapeType = esShapeType;
+		}
+
 		public void setArea(double area) {
 			this.area = area;
 		}
@@ -132,9 +234,22 @@ public class ESShape {
 			this.centroid = centroid;
 		}
 
+		/**
+		 * Build a shape whose locations are only decoded from the
+		 * <code>shape.coordinates</code> field of the provided entity source
+		 * when first requested. Type, centroid, length and area must be set.
+		 */
+		public ESShape buildLazy(BytesReference source) {
+			if (esShapeType == null) throw new IllegalStateException("The shape type must be set");
+			this.lazySource = source;
+			this.geoJsonArray = null;
+			return new ESShape(this);
+		}
+
 		public ESShape buildFast() {
 			this.esShapeType = getShapeType();
 			this.geoJsonArray = toGeoJsonArray();
+			this.locationCount = locations.size();
 			return new ESShape(this);
 		}
 
@@ -157,6 +272,34 @@ public class ESShape {
 			return this;
 		}
 
+		/**
+		 * Simplify the locations of lines and polygons with the
+		 * Douglas-Peucker algorithm, preserving their topology. Centroid,
+		 * length and area are still computed on the original locations.
+		 * 
+		 * @param toleranceKm
+		 *            the maximum distance between the original and the
+		 *            simplified shape, 0 to disable simplification
+		 * @param keepOriginal
+		 *            true to keep the original locations in the shape
+		 */
+		public ESShapeBuilder setSimplification(double toleranceKm, boolean keepOriginal) {
+			this.simplifyTolerance = DistanceUtils.dist2Degrees(toleranceKm, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+			this.keepOriginal = keepOriginal;
+			return this;
+		}
+
+		/**
+		 * Compute the geohash cells covering the bounding box of the shape
+		 * 
+		 * @param geoCells
+		 *            the cells to cover the shape with, null to disable
+		 */
+		public ESShapeBuilder setGeoCells(GeoCells geoCells) {
+			this.geoCells = geoCells;
+			return this;
+		}
+
 		public ESShape build() {
 			this.esShapeType = getShapeType();
 			Geometry geometry = buildGeometry();
@@ -165,9 +308,42 @@ public class ESShape {
 			Point centroid = geometry.getCentroid();
 			this.centroid = new ESLocation(centroid.getY(), centroid.getX());
 			this.geoJsonArray = toGeoJsonArray();
+			this.locationCount = locations.size();
+			if (geoCells != null) this.cells = geoCells.cover(boundingBox);
+			if (simplifyTolerance > 0 && esShapeType != ESShapeType.POINT) {
+				double[][] simplifiedArray = simplify(geometry);
+				if (simplifiedArray.length < geoJsonArray.length) {
+					this.simplified = true;
+					this.originalGeoJsonArray = keepOriginal ? geoJsonArray : null;
+					this.geoJsonArray = simplifiedArray;
+				}
+			}
 			return new ESShape(this);
 		}
 
+		/**
+		 * @return The simplified locations, or the original ones if the
+		 *         simplified shape would collapse
+		 */
+		private double[][] simplify(Geometry geometry) {
+			Geometry simplifiedGeometry = TopologyPreservingSimplifier.simplify(geometry, simplifyTolerance);
+			Coordinate[] coordinates;
+			if (simplifiedGeometry instanceof Polygon) {
+				coordinates = ((Polygon) simplifiedGeometry).getExteriorRing().getCoordinates();
+				if (coordinates.length < 4) return geoJsonArray;
+			} else if (simplifiedGeometry instanceof LineString) {
+				coordinates = simplifiedGeometry.getCoordinates();
+				if (coordinates.length < 2) return geoJsonArray;
+			} else {
+				return geoJsonArray;
+			}
+			double[][] array = new double[coordinates.length][];
+			for (int i = 0; i < coordinates.length; i++) {
+				array[i] = new double[] { coordinates[i].x, coordinates[i].y };
+			}
+			return array;
+		}
+
 		private boolean isClosed() {
 			ESLocation first = locations.get(0);
 			ESLocation last = locations.get(locations.size() - 1);
@@ -208,11 +384,18 @@ public class ESShape {
 			}
 		}
 
+		/**
+		 * Computes the bounding box in the same pass
+		 */
 		private double[][] toGeoJsonArray() {
 			double[][] array = new double[locations.size()][2];
+			double[] box = newBoundingBox();
 			for (int i = 0; i < locations.size(); i++) {
-				array[i] = locations.get(i).toGeoJsonArray();
+				ESLocation location = locations.get(i);
+				array[i] = location.toGeoJsonArray();
+				extend(box, location.getLongitude(), location.getLatitude());
 			}
+			this.boundingBox = box;
 			return array;
 		}
 
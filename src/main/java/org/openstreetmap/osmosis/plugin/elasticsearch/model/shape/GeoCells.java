@@ -0,0 +1,103 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compute the geohash cells covering a bounding box, from the coarsest level
+ * down to the finest level where the box still spans few cells, so that
+ * coarse spatial filters can be answered with plain term queries.
+ * <p>
+ * The cells of a region to query at a given level and all their prefixes
+ * match every entity whose bounding box intersects the region: an entity
+ * either has cells down to that level, or stopped at a coarser level where
+ * one of its cells is a prefix of a cell of the region.
+ */
+public class GeoCells {
+
+	private static final char[] BASE_32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	public static final int MAX_LEVEL = 12;
+
+	private final int maxLevel;
+	private final int maxCellsPerLevel;
+
+	/**
+	 * @param maxLevel
+	 *            the length of the finest geohash, from 1 to
+	 *            {@link #MAX_LEVEL}
+	 * @param maxCellsPerLevel
+	 *            the maximum number of cells of a level, finer levels are
+	 *            skipped once a level would need more. The coarsest level is
+	 *            always emitted, whatever its number of cells
+	 */
+	public GeoCells(int maxLevel, int maxCellsPerLevel) {
+		if (maxLevel < 1 || maxLevel > MAX_LEVEL) throw new IllegalArgumentException("maxLevel must be between 1 and "
+				+ MAX_LEVEL);
+		if (maxCellsPerLevel < 1) throw new IllegalArgumentException("maxCellsPerLevel must be positive");
+		this.maxLevel = maxLevel;
+		this.maxCellsPerLevel = maxCellsPerLevel;
+	}
+
+	/**
+	 * @return The geohashes of the cells intersecting the location at each
+	 *         level
+	 */
+	public List<String> cover(double latitude, double longitude) {
+		return cover(new double[] { longitude, latitude, longitude, latitude });
+	}
+
+	/**
+	 * @param boundingBox
+	 *            the <code>[minLon, minLat, maxLon, maxLat]</code> box
+	 * @return The geohashes of the cells intersecting the box, level by level
+	 */
+	public List<String> cover(double[] boundingBox) {
+		if (boundingBox == null) return Collections.emptyList();
+		List<String> cells = new ArrayList<String>();
+		for (int level = 1; level <= maxLevel; level++) {
+			int lonBits = (5 * level + 1) / 2;
+			int latBits = 5 * level / 2;
+			int minX = cellOf(boundingBox[0], -180, 360, lonBits);
+			int maxX = cellOf(boundingBox[2], -180, 360, lonBits);
+			int minY = cellOf(boundingBox[1], -90, 180, latBits);
+			int maxY = cellOf(boundingBox[3], -90, 180, latBits);
+			if (level > 1 && (long) (maxX - minX + 1) * (maxY - minY + 1) > maxCellsPerLevel) break;
+			for (int x = minX; x <= maxX; x++) {
+				for (int y = minY; y <= maxY; y++) {
+					cells.add(encode(x, y, level));
+				}
+			}
+		}
+		return cells;
+	}
+
+	private static int cellOf(double coordinate, double min, double range, int bits) {
+		int cells = 1 << bits;
+		int cell = (int) Math.floor((coordinate - min) / range * cells);
+		return Math.max(0, Math.min(cells - 1, cell));
+	}
+
+	/**
+	 * Interleave the bits of the cell, longitude first, five by five
+	 */
+	private static String encode(int x, int y, int level) {
+		char[] geohash = new char[level];
+		int lonBit = (5 * level + 1) / 2;
+		int latBit = 5 * level / 2;
+		int character = 0;
+		for (int i = 0; i < 5 * level; i++) {
+			int bit;
+			if (i % 2 == 0) bit = (x >>> --lonBit) & 1;
+			else bit = (y >>> --latBit) & 1;
+			character = (character << 1) | bit;
+			if (i % 5 == 4) {
+				geohash[i / 5] = BASE_32[character];
+				character = 0;
+			}
+		}
+		return new String(geohash);
+	}
+
+}
@@ -0,0 +1,135 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+
+/**
+ * Streaming decoder of GeoJSON coordinates into primitive arrays.
+ * <p>
+ * Coordinates are read token by token, without building the intermediate
+ * boxed {@code List<List<Double>>} of a parsed source map.
+ */
+public class GeoJsonParser {
+
+	private GeoJsonParser() {}
+
+	/**
+	 * Decode the coordinates the parser is positioned on, i.e. its current
+	 * token is the START_ARRAY of a point, a linestring or a polygon.
+	 * <p>
+	 * A point is returned as a single location, a polygon as its outer ring.
+	 *
+	 * @return The locations as <code>[lon, lat]</code> arrays
+	 */
+	public static double[][] parseCoordinates(XContentParser parser) throws IOException {
+		if (parser.currentToken() != Token.START_ARRAY) throw new IOException("Coordinates must be an array");
+		Token token = parser.nextToken();
+		if (token == Token.VALUE_NUMBER) {
+			// Point: [lon, lat]
+			return new double[][] { parseLocation(parser) };
+		}
+		if (token != Token.START_ARRAY) throw new IOException("Unexpected token " + token + " in coordinates");
+		parser.nextToken();
+		double[][] locations;
+		if (parser.currentToken() == Token.START_ARRAY) {
+			// Polygon: [[[lon, lat], ...], ...], keep the outer ring only
+			locations = parseLocations(parser);
+			while (parser.nextToken() != Token.END_ARRAY) {
+				parser.skipChildren();
+			}
+		} else {
+			// Linestring: [[lon, lat], ...], the first location is started
+			double[] first = parseLocation(parser);
+			locations = parseLocations(parser, first);
+		}
+		return locations;
+	}
+
+	/**
+	 * Decode the <code>shape.coordinates</code> field of an entity source, or
+	 * the <code>originalShape.coordinates</code> one if the shape is indexed
+	 * by tiles.
+	 *
+	 * @return The locations, null if the source has no shape
+	 */
+	public static double[][] parseShapeCoordinates(BytesReference source) {
+		XContentParser parser = null;
+		try {
+			parser = XContentFactory.xContent(source).createParser(source);
+			if (parser.nextToken() != Token.START_OBJECT) return null;
+			double[][] original = null;
+			Token token;
+			while ((token = parser.nextToken()) == Token.FIELD_NAME) {
+				String field = parser.currentName();
+				token = parser.nextToken();
+				if ("shape".equals(field) && token == Token.START_OBJECT) {
+					return parseObjectCoordinates(parser);
+				} else if ("originalShape".equals(field) && token == Token.START_OBJECT) {
+					original = parseObjectCoordinates(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return original;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to parse shape coordinates", e);
+		} finally {
+			if (parser != null) parser.close();
+		}
+	}
+
+	/**
+	 * Decode the coordinates of a GeoJSON object, the parser being positioned
+	 * on its START_OBJECT. The whole object is consumed.
+	 */
+	private static double[][] parseObjectCoordinates(XContentParser parser) throws IOException {
+		double[][] coordinates = null;
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			String field = parser.currentName();
+			parser.nextToken();
+			if ("coordinates".equals(field)) coordinates = parseCoordinates(parser);
+			else parser.skipChildren();
+		}
+		return coordinates;
+	}
+
+	/**
+	 * Parse a <code>[[lon, lat], ...]</code> array, the parser being
+	 * positioned on the START_ARRAY of its first location.
+	 */
+	private static double[][] parseLocations(XContentParser parser) throws IOException {
+		parser.nextToken();
+		double[] first = parseLocation(parser);
+		return parseLocations(parser, first);
+	}
+
+	private static double[][] parseLocations(XContentParser parser, double[] first) throws IOException {
+		double[][] locations = new double[8][];
+		int size = 0;
+		locations[size++] = first;
+		while (parser.nextToken() == Token.START_ARRAY) {
+			parser.nextToken();
+			if (size == locations.length) locations = Arrays.copyOf(locations, size * 2);
+			locations[size++] = parseLocation(parser);
+		}
+		return Arrays.copyOf(locations, size);
+	}
+
+	/**
+	 * Parse a <code>[lon, lat]</code> pair, the parser being positioned on
+	 * the longitude. Leaves the parser on the END_ARRAY of the pair.
+	 */
+	private static double[] parseLocation(XContentParser parser) throws IOException {
+		double longitude = parser.doubleValue();
+		parser.nextToken();
+		double latitude = parser.doubleValue();
+		if (parser.nextToken() != Token.END_ARRAY) throw new IOException("A location must hold exactly two values");
+		return new double[] { longitude, latitude };
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
+
+import static org.elasticsearch.common.geo.builders.ShapeBuilder.SPATIAL_CONTEXT;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.geom.util.LineStringExtracter;
+import com.vividsolutions.jts.geom.util.PolygonExtracter;
+
+/**
+ * Clip shapes along a grid of square tiles aligned on multiples of the tile
+ * size, so that a large shape can be indexed as several small pieces.
+ * <p>
+ * The pieces of a polygon are polygons, and the pieces of a line are lines:
+ * parts of lower dimension, e.g. where a polygon only touches a tile border,
+ * are dropped.
+ */
+public class ShapeTiler {
+
+	private final double tileSize;
+
+	/**
+	 * @param tileSize
+	 *            the side of a tile, in degrees
+	 */
+	public ShapeTiler(double tileSize) {
+		if (tileSize <= 0) throw new IllegalArgumentException("tileSize must be positive");
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * @return The pieces of the shape by tile, empty if it fits in a single
+	 *         tile or cannot be clipped, e.g. a self-intersecting polygon
+	 */
+	public List<Tile> clip(ESShape shape) {
+		if (shape.getShapeType() == ESShapeType.POINT) return Collections.emptyList();
+		Geometry geometry = buildGeometry(shape);
+		Envelope envelope = geometry.getEnvelopeInternal();
+		int minX = tileOf(envelope.getMinX());
+		int maxX = tileOf(envelope.getMaxX());
+		int minY = tileOf(envelope.getMinY());
+		int maxY = tileOf(envelope.getMaxY());
+		if (minX == maxX && minY == maxY) return Collections.emptyList();
+		GeometryFactory factory = geometry.getFactory();
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(geometry);
+		List<Tile> tiles = new ArrayList<Tile>();
+		try {
+			for (int x = minX; x <= maxX; x++) {
+				for (int y = minY; y <= maxY; y++) {
+					Geometry tile = factory.toGeometry(new Envelope(x * tileSize, (x + 1) * tileSize, y * tileSize,
+							(y + 1) * tileSize));
+					if (!prepared.intersects(tile)) continue;
+					Geometry piece = extract(geometry.intersection(tile), shape.getShapeType());
+					if (piece != null) tiles.add(new Tile(x, y, piece));
+				}
+			}
+		} catch (TopologyException e) {
+			return Collections.emptyList();
+		}
+		return tiles;
+	}
+
+	private int tileOf(double coordinate) {
+		return (int) Math.floor(coordinate / tileSize);
+	}
+
+	/**
+	 * @return The parts of the same dimension as the clipped shape, null if
+	 *         none
+	 */
+	@SuppressWarnings("unchecked")
+	private static Geometry extract(Geometry geometry, ESShapeType shapeType) {
+		GeometryFactory factory = geometry.getFactory();
+		if (shapeType == ESShapeType.POLYGON) {
+			List<Polygon> polygons = PolygonExtracter.getPolygons(geometry);
+			if (polygons.isEmpty()) return null;
+			if (polygons.size() == 1) return polygons.get(0);
+			return factory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+		} else {
+			List<LineString> lines = LineStringExtracter.getLines(geometry);
+			if (lines.isEmpty()) return null;
+			if (lines.size() == 1) return lines.get(0);
+			return factory.createMultiLineString(lines.toArray(new LineString[lines.size()]));
+		}
+	}
+
+	private static Geometry buildGeometry(ESShape shape) {
+		double[][] locations = shape.getGeoJsonArray();
+		Coordinate[] coordinates = new Coordinate[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			coordinates[i] = new Coordinate(locations[i][0], locations[i][1]);
+		}
+		GeometryFactory factory = SPATIAL_CONTEXT.getGeometryFactory();
+		if (shape.getShapeType() == ESShapeType.POLYGON) {
+			return factory.createPolygon(factory.createLinearRing(coordinates), null);
+		} else {
+			return factory.createLineString(coordinates);
+		}
+	}
+
+	/**
+	 * The piece of a shape within a tile
+	 */
+	public static class Tile {
+
+		private final int x;
+		private final int y;
+		private final Geometry geometry;
+
+		public Tile(int x, int y, Geometry geometry) {
+			this.x = x;
+			this.y = y;
+			this.geometry = geometry;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		/**
+		 * @return A polygon, line, multi-polygon or multi-line
+		 */
+		public Geometry getGeometry() {
+			return geometry;
+		}
+
+		@Override
+		public String toString() {
+			return "Tile [x=" + x + ", y=" + y + ", geometry=" + geometry + "]";
+		}
+
+	}
+
+}
@@ -1,49 +1,208 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.service;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.logging.Logger;
 
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
+import org.elasticsearch.action.admin.indices.template.get.GetIndexTemplatesResponse;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequestBuilder;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexTemplateMetaData;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 
 public class IndexAdminService {
 
+	private static final Logger LOG = Logger.getLogger(IndexAdminService.class.getName());
+	private static final TimeValue HEALTH_TIMEOUT = TimeValue.timeValueSeconds(30);
+	private static final String TEMPLATE_PREFIX = "osmosis-";
+
 	private final Client client;
 
 	public IndexAdminService(Client client) {
 		this.client = client;
 	}
 
+	/**
+	 * Create an index, deleting any previous one with the same name, and wait
+	 * for it to be usable.
+	 */
 	public void createIndex(String name, int shards, int replicas, Map<String, String> mappings) {
+		createIndex(new IndexConfiguration(name, shards, replicas, mappings));
+	}
+
+	/**
+	 * Create an index, deleting any previous one with the same name, and wait
+	 * for it to be usable.
+	 */
+	public void createIndex(IndexConfiguration configuration) {
+		String name = configuration.getName();
+		Map<String, Exception> failures = createIndices(Arrays.asList(configuration));
+		if (!failures.isEmpty()) throw new RuntimeException("Unable to create index " + name, failures.get(name));
+	}
+
+	/**
+	 * Create several indices at once, deleting any previous ones with the same
+	 * names.
+	 * <p>
+	 * All previous indices are deleted by a single request, then all creation
+	 * requests are sent before waiting for any of them, and the cluster health
+	 * is only awaited once, until all created indices are at least yellow.
+	 * 
+	 * @return The failures by index name, empty if all indices were created
+	 */
+	public Map<String, Exception> createIndices(Collection<IndexConfiguration> configurations) {
+		Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+		if (configurations.isEmpty()) return failures;
+		List<String> names = new ArrayList<String>(configurations.size());
+		for (IndexConfiguration configuration : configurations) {
+			names.add(configuration.getName());
+		}
 		try {
-			if (mappings == null) mappings = new HashMap<String, String>();
-			// Delete previous existing index
-			if (indexExists(name)) deleteIndex(name);
-			// Build index configuration
-			XContentBuilder jsonBuilder = XContentFactory.jsonBuilder();
-			jsonBuilder.startObject();
-			// Add settings
-			jsonBuilder.startObject("settings")
-					.field("number_of_shards", shards)
-					.field("number_of_replicas", replicas)
-					.endObject();
-			// Add mappings
-			jsonBuilder.startObject("mappings");
-			for (String indiceName : mappings.keySet()) {
-				jsonBuilder.rawField(indiceName, mappings.get(indiceName).getBytes());
-			}
-			jsonBuilder.endObject();
-			// Build JSON
-			String configuration = jsonBuilder.endObject().string();
-					// https://github.com/elasticsearch/elasticsearch/issues/2897
-					//.replaceAll("\\{,", "\\{");
-			// Create the new index
-			client.admin().indices().prepareCreate(name)
-					.setSource(configuration)
+			// Missing indices are ignored, so no exists request is needed
+			client.admin().indices().prepareDelete(names.toArray(new String[names.size()]))
+					.setIndicesOptions(IndicesOptions.lenientExpandOpen())
 					.execute().actionGet();
 		} catch (Exception e) {
-			throw new RuntimeException("Unable to create index " + name, e);
+			for (String name : names) {
+				failures.put(name, e);
+			}
+			return failures;
+		}
+		Map<String, ListenableActionFuture<CreateIndexResponse>> responses =
+				new LinkedHashMap<String, ListenableActionFuture<CreateIndexResponse>>();
+		for (IndexConfiguration configuration : configurations) {
+			try {
+				responses.put(configuration.getName(), client.admin().indices().prepareCreate(configuration.getName())
+						.setSource(buildSource(configuration))
+						.execute());
+			} catch (Exception e) {
+				failures.put(configuration.getName(), e);
+			}
+		}
+		List<String> created = new ArrayList<String>(responses.size());
+		for (Entry<String, ListenableActionFuture<CreateIndexResponse>> response : responses.entrySet()) {
+			try {
+				response.getValue().actionGet();
+				created.add(response.getKey());
+			} catch (Exception e) {
+				failures.put(response.getKey(), e);
+			}
+		}
+		if (!created.isEmpty()) waitForYellowStatus(created.toArray(new String[created.size()]));
+		return failures;
+	}
+
+	protected String buildSource(IndexConfiguration configuration) throws IOException {
+		XContentBuilder jsonBuilder = XContentFactory.jsonBuilder();
+		jsonBuilder.startObject();
+		// Add settings
+		jsonBuilder.field("settings", configuration.getAllSettings());
+		// Add mappings
+		jsonBuilder.startObject("mappings");
+		for (Entry<String, String> mapping : configuration.getMappings().entrySet()) {
+			jsonBuilder.rawField(mapping.getKey(), mapping.getValue().getBytes());
+		}
+		jsonBuilder.endObject();
+		// Build JSON
+		return jsonBuilder.endObject().string();
+				// https://github.com/elasticsearch/elasticsearch/issues/2897
+				//.replaceAll("\\{,", "\\{");
+	}
+
+	/**
+	 * Install the settings and mappings of an index as a template applied to
+	 * the indices created with the same name, unless this version of the
+	 * template is installed already. Other versions are deleted.
+	 * <p>
+	 * The template name ends with a digest of the settings and mappings, so
+	 * a template is only reused while they are unchanged, whatever the
+	 * version. The index can then be created without sending its mappings.
+	 * 
+	 * @return true if the template was installed, false if it was reused
+	 */
+	public boolean installTemplate(IndexConfiguration configuration, int version) {
+		String prefix = getTemplatePrefix(configuration.getName());
+		String templateName = prefix + version + "-" + digest(configuration);
+		boolean installed = false;
+		GetIndexTemplatesResponse templates = client.admin().indices().prepareGetTemplates(prefix + "*")
+				.execute().actionGet();
+		for (IndexTemplateMetaData template : templates.getIndexTemplates()) {
+			if (template.getName().equals(templateName)) {
+				installed = true;
+			} else {
+				LOG.info("Deleting outdated index template [" + template.getName() + "]");
+				client.admin().indices().prepareDeleteTemplate(template.getName()).execute().actionGet();
+			}
+		}
+		if (installed) return false;
+		PutIndexTemplateRequestBuilder request = client.admin().indices().preparePutTemplate(templateName)
+				.setTemplate(configuration.getName())
+				.setSettings(configuration.getAllSettings());
+		for (Entry<String, String> mapping : configuration.getMappings().entrySet()) {
+			request.addMapping(mapping.getKey(), mapping.getValue());
+		}
+		request.execute().actionGet();
+		LOG.info("Index template [" + templateName + "] installed");
+		return true;
+	}
+
+	/**
+	 * @return The first hexadecimal digits of the MD5 of the settings and
+	 *         mappings, sorted by name
+	 */
+	protected static String digest(IndexConfiguration configuration) {
+		StringBuilder content = new StringBuilder();
+		for (Entry<String, Object> setting : new TreeMap<String, Object>(configuration.getAllSettings()).entrySet()) {
+			content.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+		}
+		for (Entry<String, String> mapping : new TreeMap<String, String>(configuration.getMappings()).entrySet()) {
+			content.append(mapping.getKey()).append(':').append(mapping.getValue()).append('\n');
+		}
+		try {
+			byte[] hash = MessageDigest.getInstance("MD5").digest(content.toString().getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 4; i++) {
+				hex.append(String.format("%02x", hash[i]));
+			}
+			return hex.toString();
+		} catch (Exception e) {
+			throw new IllegalStateException("Unable to digest the template of " + configuration.getName(), e);
+		}
+	}
+
+	/**
+	 * @return The name of the templates of an index, without their version
+	 */
+	public static String getTemplatePrefix(String indexName) {
+		return TEMPLATE_PREFIX + indexName + "-v";
+	}
+
+	/**
+	 * Wait until the primary shards of the indices are allocated. A timeout
+	 * is only logged: the indices exist, requests may just be retried.
+	 */
+	public void waitForYellowStatus(String... indices) {
+		ClusterHealthResponse response = client.admin().cluster().prepareHealth(indices)
+				.setWaitForYellowStatus()
+				.setTimeout(HEALTH_TIMEOUT)
+				.execute().actionGet();
+		if (response.isTimedOut()) {
+			LOG.warning(String.format("Indices %s not yellow after %s, status is %s",
+					Arrays.toString(indices), HEALTH_TIMEOUT, response.getStatus()));
 		}
 	}
 
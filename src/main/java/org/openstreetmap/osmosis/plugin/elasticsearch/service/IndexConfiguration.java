@@ -0,0 +1,87 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The name, settings and mappings of an index to create with
+ * {@link IndexAdminService#createIndices(java.util.Collection)}.
+ */
+public class IndexConfiguration {
+
+	private final String name;
+	private final int shards;
+	private final int replicas;
+	private final Map<String, String> mappings;
+	private final Map<String, String> settings;
+
+	/**
+	 * @param mappings
+	 *            the JSON mapping by type, null for none
+	 */
+	public IndexConfiguration(String name, int shards, int replicas, Map<String, String> mappings) {
+		this(name, shards, replicas, mappings, null);
+	}
+
+	/**
+	 * @param mappings
+	 *            the JSON mapping by type, null for none
+	 * @param settings
+	 *            additional index settings, e.g. <code>index.codec</code>,
+	 *            null for none
+	 */
+	public IndexConfiguration(String name, int shards, int replicas, Map<String, String> mappings,
+			Map<String, String> settings) {
+		if (name == null || name.isEmpty()) throw new IllegalArgumentException("You must provide an index name");
+		this.name = name;
+		this.shards = shards;
+		this.replicas = replicas;
+		this.mappings = copyOf(mappings);
+		this.settings = copyOf(settings);
+	}
+
+	private static Map<String, String> copyOf(Map<String, String> map) {
+		return map == null ? Collections.<String, String> emptyMap()
+				: Collections.unmodifiableMap(new LinkedHashMap<String, String>(map));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	public int getReplicas() {
+		return replicas;
+	}
+
+	public Map<String, String> getMappings() {
+		return mappings;
+	}
+
+	public Map<String, String> getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return The settings as sent to elasticsearch, i.e. the additional
+	 *         settings plus the number of shards and replicas
+	 */
+	public Map<String, Object> getAllSettings() {
+		Map<String, Object> allSettings = new LinkedHashMap<String, Object>();
+		allSettings.put("number_of_shards", shards);
+		allSettings.put("number_of_replicas", replicas);
+		allSettings.putAll(settings);
+		return allSettings;
+	}
+
+	@Override
+	public String toString() {
+		return "IndexConfiguration [name=" + name + ", shards=" + shards + ", replicas=" + replicas
+				+ ", mappings=" + mappings.keySet() + ", settings=" + settings + "]";
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+
+/**
+ * The progress of an import: the id of the last indexed entity of each
+ * {@link EntityType}, persisted in a properties file.
+ * <p>
+ * Like osmosis, it relies on the input being sorted by type, then by id, so an
+ * entity is indexed if its id is lower than or equal to the last one of its
+ * type, or if entities of a following type were indexed.
+ * <p>
+ * The file is written to a temporary file first, then renamed, so a crash
+ * while saving leaves the previous checkpoint intact.
+ */
+public class Checkpoint {
+
+	private final File file;
+	private final Map<EntityType, Long> lastIds;
+
+	public Checkpoint(File file) {
+		this.file = file;
+		this.lastIds = new EnumMap<EntityType, Long>(EntityType.class);
+	}
+
+	/**
+	 * @return The checkpoint saved in the given file, empty if the file does
+	 *         not exist
+	 */
+	public static Checkpoint load(File file) {
+		Checkpoint checkpoint = new Checkpoint(file);
+		if (!file.exists()) return checkpoint;
+		Properties properties = new Properties();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			properties.load(input);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to load checkpoint file " + file, e);
+		} finally {
+			close(input);
+		}
+		for (EntityType type : EntityType.values()) {
+			String lastId = properties.getProperty(type.name().toLowerCase());
+			if (lastId != null) checkpoint.lastIds.put(type, Long.valueOf(lastId));
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * @return The id of the last indexed entity of this type, null if none
+	 */
+	public synchronized Long getLastId(EntityType type) {
+		return lastIds.get(type);
+	}
+
+	public synchronized void setLastId(EntityType type, long id) {
+		lastIds.put(type, id);
+	}
+
+	public synchronized boolean isEmpty() {
+		return lastIds.isEmpty();
+	}
+
+	/**
+	 * @return true if the entity was indexed before this checkpoint
+	 */
+	public synchronized boolean isIndexed(Entity entity) {
+		EntityType type = entity.getType();
+		Long lastId = lastIds.get(type);
+		if (lastId != null && entity.getId() <= lastId) return true;
+		for (EntityType indexedType : lastIds.keySet()) {
+			if (indexedType.compareTo(type) > 0) return true;
+		}
+		return false;
+	}
+
+	public synchronized void save() {
+		Properties properties = new Properties();
+		for (Entry<EntityType, Long> lastId : lastIds.entrySet()) {
+			properties.setProperty(lastId.getKey().name().toLowerCase(), String.valueOf(lastId.getValue()));
+		}
+		File tmpFile = new File(file.getPath() + ".tmp");
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(tmpFile);
+			properties.store(output, "Last indexed entity ids");
+			output.close();
+			output = null;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to save checkpoint file " + file, e);
+		} finally {
+			close(output);
+		}
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file)) throw new RuntimeException("Unable to save checkpoint file " + file);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null) return;
+		try {
+			closeable.close();
+		} catch (IOException e) {}
+	}
+
+	@Override
+	public String toString() {
+		return "Checkpoint [file=" + file + ", lastIds=" + lastIds + "]";
+	}
+
+}
@@ -0,0 +1,194 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * A local store of node locations, indexed by node id in a memory-mapped flat
+ * file.
+ * <p>
+ * Each node takes 8 bytes at offset <code>id * 8</code>: latitude and
+ * longitude as fixed-point integers of 1e-7 degrees, the precision of OSM
+ * coordinates. The file is sparse, so only the pages holding stored nodes use
+ * disk space, and the operating system page cache keeps the hot ones in
+ * memory.
+ * <p>
+ * The file is mapped in segments of 1 GB, on first use. Nodes can be stored
+ * and read by several threads at once, each location being written as a
+ * single long.
+ * <p>
+ * Only positive ids are supported, as in OSM data: negative ids are rejected,
+ * and ids beyond the mapped range are never stored.
+ */
+public class FlatNodeLocationStore implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(FlatNodeLocationStore.class.getName());
+
+	private static final int SEGMENT_BITS = 27;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final int MAX_SEGMENTS = 1 << 10;
+	private static final int LOCATION_BYTES = 8;
+	private static final double PRECISION = 1e7;
+	// Keeps stored latitudes away from 0, which marks unknown nodes
+	private static final int LATITUDE_OFFSET = 900000001;
+
+	private final File file;
+	private final boolean deleteOnClose;
+	private final RandomAccessFile randomAccessFile;
+	private final AtomicReferenceArray<MappedByteBuffer> segments;
+	private final AtomicLong size = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * @param file
+	 *            the flat file, created if needed. An existing file is reused
+	 *            with the locations it holds.
+	 * @param deleteOnClose
+	 *            true to delete the file on {@link #close()}
+	 */
+	public FlatNodeLocationStore(File file, boolean deleteOnClose) {
+		try {
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to open node location store " + file, e);
+		}
+		this.file = file;
+		this.deleteOnClose = deleteOnClose;
+		this.segments = new AtomicReferenceArray<MappedByteBuffer>(MAX_SEGMENTS);
+	}
+
+	/**
+	 * @return A store backed by a temporary file, deleted on close
+	 */
+	public static FlatNodeLocationStore createTemporary() {
+		try {
+			File file = File.createTempFile("osmosis-es-nodes-", ".bin");
+			return new FlatNodeLocationStore(file, true);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to create temporary node location store", e);
+		}
+	}
+
+	/**
+	 * Store the location of a node, replacing any previous one.
+	 *
+	 * @return false if the node id is out of the supported range
+	 * @throws IllegalArgumentException
+	 *             if the node id is negative
+	 */
+	public boolean put(long id, double latitude, double longitude) {
+		checkId(id);
+		if (!isSupported(id)) return false;
+		MappedByteBuffer segment = getSegment(id, true);
+		long latitudeBits = Math.round(latitude * PRECISION) + LATITUDE_OFFSET;
+		long longitudeBits = Math.round(longitude * PRECISION);
+		segment.putLong(offsetOf(id), (latitudeBits << 32) | (longitudeBits & 0xffffffffL));
+		size.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Add the location of a node to <code>locations</code>.
+	 *
+	 * @return false if the node location is unknown
+	 * @throws IllegalArgumentException
+	 *             if the node id is negative
+	 */
+	public boolean copyTo(long id, NodeLocations locations) {
+		checkId(id);
+		if (!isSupported(id)) return false;
+		MappedByteBuffer segment = getSegment(id, false);
+		if (segment == null) return false;
+		long location = segment.getLong(offsetOf(id));
+		int latitudeBits = (int) (location >>> 32);
+		if (latitudeBits == 0) return false;
+		int longitudeBits = (int) location;
+		locations.put(id, (latitudeBits - LATITUDE_OFFSET) / PRECISION, longitudeBits / PRECISION);
+		return true;
+	}
+
+	/**
+	 * @return The number of locations stored since this store was opened
+	 */
+	public long getStoredCount() {
+		return size.get();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Close the file, release the mapped segments, and delete the file if
+	 * asked so. The store cannot be used afterwards.
+	 */
+	@Override
+	public void close() {
+		synchronized (segments) {
+			if (closed) return;
+			closed = true;
+			// Mappings are only released once unreachable
+			for (int i = 0; i < MAX_SEGMENTS; i++) {
+				segments.set(i, null);
+			}
+		}
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+			LOG.warning("Unable to close node location store " + file + ": " + e.getMessage());
+		}
+		if (deleteOnClose && !file.delete() && file.exists()) {
+			// Mapped files cannot be deleted on some platforms
+			LOG.warning("Unable to delete node location store " + file + ", deleting it on exit");
+			file.deleteOnExit();
+		}
+	}
+
+	private static void checkId(long id) {
+		if (id < 0) throw new IllegalArgumentException("Negative node id " + id + " is not supported by the node location store");
+	}
+
+	private static boolean isSupported(long id) {
+		return (id >>> SEGMENT_BITS) < MAX_SEGMENTS;
+	}
+
+	private static int offsetOf(long id) {
+		return (int) (id & (SEGMENT_SIZE - 1)) * LOCATION_BYTES;
+	}
+
+	private MappedByteBuffer getSegment(long id, boolean create) {
+		int index = (int) (id >>> SEGMENT_BITS);
+		MappedByteBuffer segment = segments.get(index);
+		if (segment != null) return segment;
+		long position = index * SEGMENT_SIZE * LOCATION_BYTES;
+		synchronized (segments) {
+			if (closed) throw new IllegalStateException("Node location store " + file + " is closed");
+			segment = segments.get(index);
+			if (segment == null) {
+				try {
+					// Segments of a reused file are mapped on first read
+					if (!create && randomAccessFile.length() <= position) return null;
+					segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, position,
+							SEGMENT_SIZE * LOCATION_BYTES);
+				} catch (IOException e) {
+					throw new IllegalStateException("Unable to map node location store " + file, e);
+				}
+				segments.set(index, segment);
+			}
+			return segment;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FlatNodeLocationStore [file=" + file + ", storedCount=" + size.get() + "]";
+	}
+
+}
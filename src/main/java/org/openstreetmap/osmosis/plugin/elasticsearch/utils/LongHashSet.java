@@ -0,0 +1,120 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, backed by an open addressing hash table.
+ * <p>
+ * Unlike a {@code HashSet<Long>}, values are neither boxed nor wrapped in
+ * entries, which makes it suitable for the large sets of ids handled while
+ * resolving way nodes.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class LongHashSet {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] table;
+	private int mask;
+	private int size;
+	private boolean containsEmpty;
+
+	public LongHashSet() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of values expected to be added
+	 */
+	public LongHashSet(int expectedSize) {
+		if (expectedSize < 0) throw new IllegalArgumentException("expectedSize must be positive or 0");
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * @return true if the value was not already in the set
+	 */
+	public boolean add(long value) {
+		if (value == EMPTY) {
+			if (containsEmpty) return false;
+			containsEmpty = true;
+			size++;
+			return true;
+		}
+		int slot = slot(table, mask, value);
+		if (table[slot] == value) return false;
+		table[slot] = value;
+		if (++size > (table.length >> 1)) resize();
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == EMPTY) return containsEmpty;
+		return table[slot(table, mask, value)] == value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return The values of this set, in no particular order
+	 */
+	public long[] toArray() {
+		long[] values = new long[size];
+		int i = 0;
+		if (containsEmpty) values[i++] = EMPTY;
+		for (long value : table) {
+			if (value != EMPTY) values[i++] = value;
+		}
+		return values;
+	}
+
+	private void resize() {
+		long[] oldTable = table;
+		allocate(oldTable.length << 1);
+		for (long value : oldTable) {
+			if (value != EMPTY) table[slot(table, mask, value)] = value;
+		}
+	}
+
+	private void allocate(int capacity) {
+		table = new long[capacity];
+		Arrays.fill(table, EMPTY);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return The slot holding the value, or the empty slot where it belongs
+	 */
+	static int slot(long[] table, int mask, long value) {
+		int slot = hash(value) & mask;
+		while (table[slot] != EMPTY && table[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	static int hash(long value) {
+		long hash = value * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * @return The power of two table size keeping the load factor under 0.5
+	 */
+	static int tableSizeFor(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.util.Arrays;
+
+/**
+ * The locations of nodes by id, backed by an open addressing hash table of
+ * primitive arrays.
+ * <p>
+ * Each location costs two doubles and a long, instead of a boxed key, an
+ * entry and a whole decoded node in a {@code Map<Long, ESNode>}.
+ * <p>
+ * Lookups return a slot index, to be passed to {@link #getLatitude(int)} and
+ * {@link #getLongitude(int)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class NodeLocations {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] ids;
+	private double[] latitudes;
+	private double[] longitudes;
+	private int mask;
+	private int size;
+
+	public NodeLocations() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of locations expected to be added
+	 */
+	public NodeLocations(int expectedSize) {
+		if (expectedSize < 0) throw new IllegalArgumentException("expectedSize must be positive or 0");
+		allocate(LongHashSet.tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Add the location of a node, replacing any previous one.
+	 */
+	public void put(long id, double latitude, double longitude) {
+		if (id == EMPTY) throw new IllegalArgumentException("Invalid node id " + id);
+		int slot = LongHashSet.slot(ids, mask, id);
+		if (ids[slot] == EMPTY) {
+			ids[slot] = id;
+			size++;
+		}
+		latitudes[slot] = latitude;
+		longitudes[slot] = longitude;
+		if (size > (ids.length >> 1)) resize();
+	}
+
+	/**
+	 * @return The slot of the node location, -1 if unknown
+	 */
+	public int indexOf(long id) {
+		if (id == EMPTY) return -1;
+		int slot = LongHashSet.slot(ids, mask, id);
+		return ids[slot] == id ? slot : -1;
+	}
+
+	public boolean contains(long id) {
+		return indexOf(id) >= 0;
+	}
+
+	public double getLatitude(int index) {
+		return latitudes[index];
+	}
+
+	public double getLongitude(int index) {
+		return longitudes[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void resize() {
+		long[] oldIds = ids;
+		double[] oldLatitudes = latitudes;
+		double[] oldLongitudes = longitudes;
+		allocate(oldIds.length << 1);
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldIds[i] == EMPTY) continue;
+			int slot = LongHashSet.slot(ids, mask, oldIds[i]);
+			ids[slot] = oldIds[i];
+			latitudes[slot] = oldLatitudes[i];
+			longitudes[slot] = oldLongitudes[i];
+		}
+	}
+
+	private void allocate(int capacity) {
+		ids = new long[capacity];
+		Arrays.fill(ids, EMPTY);
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		mask = capacity - 1;
+	}
+
+}
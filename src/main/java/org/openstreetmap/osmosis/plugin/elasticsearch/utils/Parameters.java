@@ -17,13 +17,56 @@ public class Parameters {
 	public static final String INDEX_SETTINGS_REPLICAS = "index.settings.replicas";
 	public static final String INDEX_MAPPING_NODE = "index.mapping.node";
 	public static final String INDEX_MAPPING_WAY = "index.mapping.way";
+	public static final String INDEX_MAPPING_WAY_TILE = "index.mapping.way_tile";
+	public static final String INDEX_MAPPING_ALL_ENABLED = "index.mapping.all.enabled";
+	public static final String INDEX_MAPPING_SHAPE_TREE = "index.mapping.shape.tree";
+	public static final String INDEX_MAPPING_SHAPE_PRECISION = "index.mapping.shape.precision";
+	public static final String INDEX_MAPPING_SHAPE_DISTANCE_ERROR_PCT = "index.mapping.shape.distance_error_pct";
+	public static final String INDEX_MAPPING_SHAPE_POINTS_ONLY = "index.mapping.shape.points_only";
+	public static final String INDEX_SETTINGS_CODEC = "index.settings.codec";
+	public static final String INDEX_TEMPLATE_ENABLED = "index.template.enabled";
+	public static final String INDEX_TEMPLATE_VERSION = "index.template.version";
 
 	public static final String INDEX_BUILDERS = "index.builders";
 
+	public static final String RESUME = "resume";
+
 	public static final String CONFIG_QUEUE_SIZE = "config.queue.size";
+	public static final String CONFIG_QUEUE_TYPE = "config.queue.type";
+	public static final String CONFIG_QUEUE_WAIT_STRATEGY = "config.queue.wait.strategy";
+	public static final String CONFIG_CHUNK_SIZE = "config.chunk.size";
 	public static final String CONFIG_NODE_BULK_SIZE = "config.node.bulk.size";
 	public static final String CONFIG_WAY_BULK_SIZE = "config.way.bulk.size";
 	public static final String CONFIG_WORKER_POOL_SIZE = "config.worker.pool.size";
+	public static final String CONFIG_CONCURRENT_REQUESTS = "config.concurrent.requests";
+	public static final String CONFIG_CACHE_SIZE = "config.cache.size";
+	public static final String CONFIG_NODE_CHUNK_SIZE = "config.node.chunk.size";
+	public static final String CONFIG_NODE_CHUNK_CONCURRENCY = "config.node.chunk.concurrency";
+	public static final String CONFIG_SPILL_ENABLED = "config.spill.enabled";
+	public static final String CONFIG_SPILL_DIRECTORY = "config.spill.directory";
+	public static final String CONFIG_SPILL_SEGMENT_SIZE_MB = "config.spill.segment.size.mb";
+	public static final String CONFIG_SPILL_MAX_SIZE_MB = "config.spill.max.size.mb";
+	public static final String CONFIG_CHECKPOINT_FILE = "config.checkpoint.file";
+	public static final String CONFIG_CHECKPOINT_INTERVAL = "config.checkpoint.interval";
+	public static final String CONFIG_NODE_STORE_ENABLED = "config.node.store.enabled";
+	public static final String CONFIG_NODE_STORE_FILE = "config.node.store.file";
+	public static final String CONFIG_SIMPLIFY_TOLERANCE = "config.simplify.tolerance";
+	public static final String CONFIG_SIMPLIFY_MIN_LOCATIONS = "config.simplify.min.locations";
+	public static final String CONFIG_SIMPLIFY_KEEP_ORIGINAL = "config.simplify.keep.original";
+	public static final String CONFIG_TILE_SIZE = "config.tile.size";
+	public static final String CONFIG_TILE_MIN_LOCATIONS = "config.tile.min.locations";
+	public static final String CONFIG_CELLS_MAX_LEVEL = "config.cells.max.level";
+	public static final String CONFIG_CELLS_MAX_COUNT = "config.cells.max.count";
+	public static final String CONFIG_FILTER_NODE_INCLUDE = "config.filter.node.include";
+	public static final String CONFIG_FILTER_NODE_EXCLUDE = "config.filter.node.exclude";
+	public static final String CONFIG_FILTER_NODE_TAGS = "config.filter.node.tags";
+	public static final String CONFIG_FILTER_WAY_INCLUDE = "config.filter.way.include";
+	public static final String CONFIG_FILTER_WAY_EXCLUDE = "config.filter.way.exclude";
+	public static final String CONFIG_FILTER_WAY_TAGS = "config.filter.way.tags";
+	public static final String CONFIG_PARTITION_COUNT = "config.partition.count";
+	public static final String CONFIG_PARTITION_INDEX = "config.partition.index";
+	public static final String CONFIG_PARTITION_DIRECTORY = "config.partition.directory";
+	public static final String CONFIG_PARTITION_RUN = "config.partition.run";
 
 	private final Properties params;
 
@@ -0,0 +1,181 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+
+/**
+ * One partition of an import split across several processes reading the same
+ * input and writing into the same index.
+ * <p>
+ * Entities are assigned to partitions by id, which spreads them evenly
+ * whatever the area covered by the input. Partition 0 is the coordinator: it
+ * creates the index and builds the specialized indices once all partitions
+ * are done.
+ * <p>
+ * Partitions synchronize through marker files in a directory shared by all
+ * processes: {@link #markDone(String)} creates
+ * <code>&lt;step&gt;-&lt;partition&gt;.done</code> and
+ * {@link #awaitAll(String)} waits until all partitions created theirs.
+ * Markers are kept in a subdirectory named after the run id, which all
+ * partitions of an import share and each import must change, so markers left
+ * by an earlier import are never mistaken for the current one's.
+ */
+public class Partition {
+
+	private static final Logger LOG = Logger.getLogger(Partition.class.getName());
+
+	public static final String STEP_INDEX = "index";
+	public static final String STEP_COMPLETE = "complete";
+
+	private static final long DEFAULT_POLL_INTERVAL = 1000;
+	private static final long LOG_INTERVAL = 60000;
+
+	private final int index;
+	private final int count;
+	private final File directory;
+	private final long pollInterval;
+
+	public Partition(int index, int count, File directory) {
+		this(index, count, directory, DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * @param index
+	 *            the partition of this process, from 0 to count - 1
+	 * @param count
+	 *            the number of partitions
+	 * @param directory
+	 *            the coordination directory of this run, shared by all
+	 *            partitions
+	 * @param pollInterval
+	 *            the delay between two checks of the marker files, in
+	 *            milliseconds
+	 */
+	public Partition(int index, int count, File directory, long pollInterval) {
+		if (count <= 0) throw new IllegalArgumentException("count must be positive");
+		if (index < 0 || index >= count) throw new IllegalArgumentException("index must be between 0 and " + (count - 1));
+		if (directory == null) throw new IllegalArgumentException("You must provide a coordination directory");
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Unable to create coordination directory " + directory);
+		}
+		// No partition completes before all of them started, so this is a finished run
+		for (int partition = 0; partition < count; partition++) {
+			File marker = getMarker(directory, STEP_COMPLETE, partition);
+			if (marker.exists()) {
+				throw new IllegalArgumentException("Coordination directory " + directory
+						+ " holds the markers of a completed import, use a new run id");
+			}
+		}
+		this.index = index;
+		this.count = count;
+		this.directory = directory;
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * @return The partition configured by the given parameters, null if the
+	 *         import is not partitioned
+	 */
+	public static Partition fromParameters(Parameters params) {
+		int count = Integer.valueOf(params.getProperty(Parameters.CONFIG_PARTITION_COUNT, "1"));
+		if (count <= 1) return null;
+		int index = Integer.valueOf(params.getProperty(Parameters.CONFIG_PARTITION_INDEX, "0"));
+		String directory = params.getProperty(Parameters.CONFIG_PARTITION_DIRECTORY, "");
+		if (directory.isEmpty()) {
+			throw new IllegalArgumentException(Parameters.CONFIG_PARTITION_COUNT + " requires "
+					+ Parameters.CONFIG_PARTITION_DIRECTORY);
+		}
+		String run = params.getProperty(Parameters.CONFIG_PARTITION_RUN, "");
+		if (run.isEmpty() || run.contains(File.separator)) {
+			throw new IllegalArgumentException(Parameters.CONFIG_PARTITION_COUNT + " requires a "
+					+ Parameters.CONFIG_PARTITION_RUN + " file name");
+		}
+		return new Partition(index, count, new File(directory, run));
+	}
+
+	/**
+	 * @return true if the entity belongs to this partition
+	 */
+	public boolean accepts(Entity entity) {
+		return partitionOf(entity.getId()) == index;
+	}
+
+	protected int partitionOf(long id) {
+		return (int) (((id % count) + count) % count);
+	}
+
+	public boolean isCoordinator() {
+		return index == 0;
+	}
+
+	/**
+	 * Tell the other partitions this one completed the given step.
+	 */
+	public void markDone(String step) {
+		File marker = getMarker(step, index);
+		try {
+			if (!marker.createNewFile() && !marker.exists()) throw new IOException("File not created");
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to create marker file " + marker, e);
+		}
+	}
+
+	public boolean isDone(String step, int partition) {
+		return getMarker(step, partition).exists();
+	}
+
+	/**
+	 * Wait until the given partition completed the given step.
+	 */
+	public void await(String step, int partition) {
+		long start = System.currentTimeMillis();
+		long lastLog = start;
+		while (!isDone(step, partition)) {
+			if (System.currentTimeMillis() - lastLog >= LOG_INTERVAL) {
+				lastLog = System.currentTimeMillis();
+				LOG.info(String.format("Partition %d waiting for partition %d to complete [%s] since %d seconds",
+						index, partition, step, (lastLog - start) / 1000));
+			}
+			try {
+				Thread.sleep(pollInterval);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for partition " + partition, e);
+			}
+		}
+	}
+
+	/**
+	 * Wait until all partitions completed the given step.
+	 */
+	public void awaitAll(String step) {
+		for (int partition = 0; partition < count; partition++) {
+			await(step, partition);
+		}
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	private File getMarker(String step, int partition) {
+		return getMarker(directory, step, partition);
+	}
+
+	private static File getMarker(File directory, String step, int partition) {
+		return new File(directory, step + "-" + partition + ".done");
+	}
+
+	@Override
+	public String toString() {
+		return "Partition [index=" + index + ", count=" + count + ", directory=" + directory + "]";
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the chunks submitted to the workers and not processed yet, so that
+ * the {@link WorkerPool} can wait for them without polling the task queue.
+ */
+public class ChunkCounter {
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition drained = lock.newCondition();
+
+	private long pending = 0;
+
+	public void submitted() {
+		lock.lock();
+		try {
+			pending++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void processed(int count) {
+		lock.lock();
+		try {
+			pending -= count;
+			if (pending <= 0) drained.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until all submitted chunks are processed
+	 */
+	public void awaitDrained() throws InterruptedException {
+		lock.lock();
+		try {
+			while (pending > 0) {
+				drained.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer queue backed by a
+ * preallocated ring of slots.
+ * <p>
+ * Each slot carries a sequence number telling whether it is ready to be
+ * written or read, so producers and consumers only contend on a CAS of their
+ * own cursor and never share a lock. Blocking operations wait using the
+ * provided {@link WaitStrategy}.
+ * <p>
+ * <b>Warning:</b> {@link #iterator()} is not supported.
+ *
+ * @param <E>
+ *            the type of elements held in this queue
+ */
+public class RingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final int capacity;
+	private final int mask;
+	private final Object[] slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head;
+	private final AtomicLong tail;
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * @param capacity
+	 *            the minimum capacity, rounded up to the next power of two
+	 *            and to at least 2, as a single slot cannot tell a full
+	 *            ring from an empty one
+	 * @param waitStrategy
+	 *            how blocking operations wait
+	 */
+	public RingBuffer(int capacity, WaitStrategy waitStrategy) {
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+		if (capacity > MAX_CAPACITY) throw new IllegalArgumentException("Capacity must not exceed " + MAX_CAPACITY);
+		if (waitStrategy == null) throw new IllegalArgumentException("You must provide a non-null WaitStrategy");
+		this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.slots = new Object[this.capacity];
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.head = new AtomicLong();
+		this.tail = new AtomicLong();
+		this.waitStrategy = waitStrategy;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		if (e == null) throw new NullPointerException();
+		long position = tail.get();
+		int index;
+		while (true) {
+			index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) break;
+			} else if (difference < 0) {
+				return false; // Full
+			} else {
+				position = tail.get();
+			}
+		}
+		slots[index] = e;
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long position = head.get();
+		int index;
+		while (true) {
+			index = (int) (position & mask);
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) break;
+			} else if (difference < 0) {
+				return null; // Empty
+			} else {
+				position = head.get();
+			}
+		}
+		return (E) release(index, position);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		long position = head.get();
+		int index = (int) (position & mask);
+		if (sequences.get(index) != position + 1) return null;
+		return (E) slots[index];
+	}
+
+	private Object release(int index, long position) {
+		Object e = slots[index];
+		slots[index] = null;
+		sequences.lazySet(index, position + capacity);
+		return e;
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!offer(e)) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			if (System.nanoTime() - deadline >= 0) return false;
+			waitStrategy.idle();
+		}
+		return true;
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		E e;
+		while ((e = poll()) == null) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			if (System.nanoTime() - deadline >= 0) return null;
+			waitStrategy.idle();
+		}
+		return e;
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		while (!offer(e)) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			waitStrategy.idle();
+		}
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e;
+		while ((e = poll()) == null) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			waitStrategy.idle();
+		}
+		return e;
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Claims up to maxElements published slots with a single CAS, then moves
+	 * their content to the provided collection.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		if (c == null) throw new NullPointerException();
+		if (c == this) throw new IllegalArgumentException();
+		while (true) {
+			long position = head.get();
+			int available = 0;
+			while (available < maxElements && available < capacity) {
+				int index = (int) ((position + available) & mask);
+				if (sequences.get(index) != position + available + 1) break;
+				available++;
+			}
+			if (available == 0) return 0;
+			if (!head.compareAndSet(position, position + available)) continue;
+			for (int i = 0; i < available; i++) {
+				int index = (int) ((position + i) & mask);
+				c.add((E) release(index, position + i));
+			}
+			return available;
+		}
+	}
+
+	@Override
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		throw new UnsupportedOperationException("RingBuffer does not support iteration");
+	}
+
+	@Override
+	public String toString() {
+		return "RingBuffer [capacity=" + capacity + ", size=" + size() + ", waitStrategy=" + waitStrategy + "]";
+	}
+
+}
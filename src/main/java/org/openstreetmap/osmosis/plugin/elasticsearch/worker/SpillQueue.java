@@ -0,0 +1,423 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.store.DataInputStoreReader;
+import org.openstreetmap.osmosis.core.store.DataOutputStoreWriter;
+import org.openstreetmap.osmosis.core.store.DynamicStoreClassRegister;
+import org.openstreetmap.osmosis.core.store.GenericObjectReader;
+import org.openstreetmap.osmosis.core.store.GenericObjectWriter;
+
+/**
+ * A queue of entity chunks that overflows to disk instead of blocking
+ * producers.
+ * <p>
+ * Chunks go to the in-memory queue while it has room. Once it is full, they
+ * are appended to segment files, serialized with the osmosis store format, and
+ * keep going there until the spilled chunks are drained, so chunks are taken
+ * in the order they were offered. A segment file is deleted as soon as all its
+ * chunks were read, and the directory on {@link #close()} if it was created by
+ * the queue.
+ * <p>
+ * Spilling never blocks, unless <code>maxSpillBytes</code> is reached: the
+ * in-memory queue then applies back-pressure again, and ordering is relaxed.
+ * <p>
+ * Writing and reading use separate locks, so consumers draining the spilled
+ * chunks do not stall the producer.
+ * <p>
+ * <b>Warning:</b> {@link #iterator()} is not supported.
+ */
+public class SpillQueue extends AbstractQueue<List<Entity>> implements BlockingQueue<List<Entity>>, Closeable {
+
+	private static final Logger LOG = Logger.getLogger(SpillQueue.class.getName());
+
+	private final BlockingQueue<List<Entity>> memoryQueue;
+	private final File directory;
+	private final boolean ownsDirectory;
+	private final long segmentBytes;
+	private final long maxSpillBytes;
+
+	private final Object writeLock = new Object();
+	private final Object readLock = new Object();
+	private final Deque<Segment> sealedSegments = new ArrayDeque<Segment>();
+	private final AtomicInteger spilledChunks = new AtomicInteger();
+	private final AtomicLong spilledBytes = new AtomicLong();
+	private final AtomicLong totalSpilledChunks = new AtomicLong();
+
+	private int segmentCount;
+	private Segment writeSegment;
+	private Segment readSegment;
+	private boolean closed;
+
+	/**
+	 * @param memoryQueue
+	 *            the queue used while it has room
+	 * @param directory
+	 *            where segment files are written, created if needed and
+	 *            then deleted on close
+	 * @param segmentBytes
+	 *            the size from which a segment file is sealed and a new one
+	 *            started
+	 * @param maxSpillBytes
+	 *            the maximum size of all segment files, 0 for no limit
+	 */
+	public SpillQueue(BlockingQueue<List<Entity>> memoryQueue, File directory, long segmentBytes, long maxSpillBytes) {
+		if (memoryQueue == null) throw new IllegalArgumentException("You must provide a non-null BlockingQueue");
+		if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segmentBytes must be positive and lower than 2GB");
+		}
+		if (maxSpillBytes < 0) throw new IllegalArgumentException("maxSpillBytes must be positive or 0");
+		boolean created = false;
+		if (!directory.isDirectory()) {
+			if (!directory.mkdirs()) throw new IllegalArgumentException("Unable to create spill directory " + directory);
+			created = true;
+		}
+		this.memoryQueue = memoryQueue;
+		this.directory = directory;
+		this.ownsDirectory = created;
+		this.segmentBytes = segmentBytes;
+		this.maxSpillBytes = maxSpillBytes;
+	}
+
+	@Override
+	public boolean offer(List<Entity> chunk) {
+		if (chunk == null) throw new NullPointerException();
+		if (spilledChunks.get() == 0 && memoryQueue.offer(chunk)) return true;
+		if (maxSpillBytes > 0 && spilledBytes.get() >= maxSpillBytes) return false;
+		try {
+			spill(chunk);
+			return true;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to spill chunk to " + directory, e);
+		}
+	}
+
+	@Override
+	public List<Entity> poll() {
+		List<Entity> chunk = memoryQueue.poll();
+		if (chunk != null || spilledChunks.get() == 0) return chunk;
+		return unspill();
+	}
+
+	@Override
+	public List<Entity> peek() {
+		throw new UnsupportedOperationException("SpillQueue does not support peek");
+	}
+
+	@Override
+	public boolean offer(List<Entity> chunk, long timeout, TimeUnit unit) throws InterruptedException {
+		if (offer(chunk)) return true;
+		return memoryQueue.offer(chunk, timeout, unit);
+	}
+
+	@Override
+	public List<Entity> poll(long timeout, TimeUnit unit) throws InterruptedException {
+		List<Entity> chunk = poll();
+		if (chunk != null) return chunk;
+		return memoryQueue.poll(timeout, unit);
+	}
+
+	@Override
+	public void put(List<Entity> chunk) throws InterruptedException {
+		if (!offer(chunk)) memoryQueue.put(chunk);
+	}
+
+	@Override
+	public List<Entity> take() throws InterruptedException {
+		List<Entity> chunk;
+		while ((chunk = poll(WorkerPool.POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null);
+		return chunk;
+	}
+
+	@Override
+	public int drainTo(Collection<? super List<Entity>> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super List<Entity>> c, int maxElements) {
+		if (c == null) throw new NullPointerException();
+		if (c == this) throw new IllegalArgumentException();
+		int count = 0;
+		List<Entity> chunk;
+		while (count < maxElements && (chunk = poll()) != null) {
+			c.add(chunk);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of chunks, in memory and on disk
+	 */
+	@Override
+	public int size() {
+		return memoryQueue.size() + spilledChunks.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return spilledChunks.get() == 0 && memoryQueue.isEmpty();
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return The number of chunks currently on disk
+	 */
+	public int getSpilledChunks() {
+		return spilledChunks.get();
+	}
+
+	/**
+	 * @return The number of chunks that went through the disk so far
+	 */
+	public long getTotalSpilledChunks() {
+		return totalSpilledChunks.get();
+	}
+
+	@Override
+	public Iterator<List<Entity>> iterator() {
+		throw new UnsupportedOperationException("SpillQueue does not support iteration");
+	}
+
+	/**
+	 * Delete all segment files, and the directory if it was created by this
+	 * queue. Spilled chunks not read yet are lost.
+	 */
+	@Override
+	public void close() {
+		synchronized (readLock) {
+			synchronized (writeLock) {
+				if (closed) return;
+				closed = true;
+				if (writeSegment != null) writeSegment.delete();
+				writeSegment = null;
+				if (readSegment != null) sealedSegments.addFirst(readSegment);
+				readSegment = null;
+				for (Segment segment : sealedSegments) {
+					segment.delete();
+				}
+				sealedSegments.clear();
+				spilledChunks.set(0);
+				spilledBytes.set(0);
+				if (ownsDirectory && !directory.delete() && directory.exists()) {
+					LOG.warning("Unable to delete spill directory " + directory);
+				}
+			}
+		}
+	}
+
+	private void spill(List<Entity> chunk) throws IOException {
+		synchronized (writeLock) {
+			if (closed) throw new IOException("SpillQueue is closed");
+			if (writeSegment == null) {
+				File file = new File(directory, String.format("spill-%06d.seg", segmentCount++));
+				writeSegment = new Segment(file);
+			}
+			long bytes;
+			try {
+				bytes = writeSegment.write(chunk);
+			} catch (IOException e) {
+				// The segment was truncated after its last complete chunk, and is not written to anymore
+				if (writeSegment.chunks == 0) {
+					writeSegment.delete();
+				} else {
+					sealedSegments.addLast(writeSegment);
+				}
+				writeSegment = null;
+				throw e;
+			}
+			spilledBytes.addAndGet(bytes);
+			if (writeSegment.bytes >= segmentBytes) {
+				writeSegment.seal();
+				sealedSegments.addLast(writeSegment);
+				writeSegment = null;
+			}
+			// Published last, so a consumer seeing it finds the chunk
+			spilledChunks.incrementAndGet();
+			totalSpilledChunks.incrementAndGet();
+		}
+	}
+
+	private List<Entity> unspill() {
+		synchronized (readLock) {
+			if (spilledChunks.get() == 0) return null;
+			if (readSegment == null) {
+				synchronized (writeLock) {
+					readSegment = sealedSegments.pollFirst();
+					if (readSegment == null && writeSegment != null) {
+						// Nothing sealed yet, take over the segment being written
+						writeSegment.seal();
+						readSegment = writeSegment;
+						writeSegment = null;
+					}
+				}
+				if (readSegment == null) return null;
+			}
+			Segment segment = readSegment;
+			try {
+				List<Entity> chunk = segment.read();
+				spilledChunks.decrementAndGet();
+				if (segment.isExhausted()) {
+					readSegment = null;
+					segment.delete();
+					spilledBytes.addAndGet(-segment.bytes);
+				}
+				return chunk;
+			} catch (IOException e) {
+				int lost = segment.chunks - segment.readChunks;
+				LOG.log(Level.SEVERE, String.format("Unable to read spilled segment %s, %d chunks lost",
+						segment.file, lost), e);
+				readSegment = null;
+				segment.delete();
+				spilledChunks.addAndGet(-lost);
+				spilledBytes.addAndGet(-segment.bytes);
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SpillQueue [directory=" + directory + ", size=" + size() + ", spilledChunks=" + spilledChunks.get()
+				+ ", spilledBytes=" + spilledBytes.get() + "]";
+	}
+
+	/**
+	 * An append-only segment file. Each chunk is written as its number of
+	 * entities followed by the stored entities. The class register is local to
+	 * the segment, so it is only accessed by its writer, then by its reader.
+	 */
+	private static final class Segment {
+
+		private final File file;
+		private final DynamicStoreClassRegister classRegister = new DynamicStoreClassRegister();
+		private DataOutputStream output;
+		private GenericObjectWriter writer;
+		private DataInputStream input;
+		private GenericObjectReader reader;
+		private long bytes;
+		private int chunks;
+		private int readChunks;
+
+		Segment(File file) throws IOException {
+			this.file = file;
+			this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+			this.writer = new GenericObjectWriter(new DataOutputStoreWriter(output), classRegister);
+		}
+
+		/**
+		 * On failure, the segment is sealed and truncated after its last
+		 * complete chunk, so that readers never see a partial one.
+		 */
+		long write(List<Entity> chunk) throws IOException {
+			int start = output.size();
+			try {
+				output.writeInt(chunk.size());
+				for (Entity entity : chunk) {
+					writer.writeObject(entity);
+				}
+			} catch (IOException e) {
+				truncate();
+				throw e;
+			} catch (RuntimeException e) {
+				truncate();
+				throw new IOException("Unable to write chunk to " + file, e);
+			}
+			chunks++;
+			long written = output.size() - start;
+			bytes += written;
+			return written;
+		}
+
+		private void truncate() {
+			seal();
+			RandomAccessFile randomAccessFile = null;
+			try {
+				randomAccessFile = new RandomAccessFile(file, "rw");
+				randomAccessFile.setLength(bytes);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Unable to truncate segment " + file, e);
+			} finally {
+				if (randomAccessFile != null) {
+					try {
+						randomAccessFile.close();
+					} catch (IOException e) {}
+				}
+			}
+		}
+
+		void seal() {
+			if (output == null) return;
+			try {
+				output.close();
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Unable to close segment " + file, e);
+			}
+			output = null;
+			writer = null;
+		}
+
+		List<Entity> read() throws IOException {
+			if (input == null) {
+				input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+				reader = new GenericObjectReader(new DataInputStoreReader(input), classRegister);
+			}
+			int size = input.readInt();
+			List<Entity> chunk = new ArrayList<Entity>(size);
+			try {
+				for (int i = 0; i < size; i++) {
+					chunk.add((Entity) reader.readObject());
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("Unable to read chunk from " + file, e);
+			}
+			readChunks++;
+			return chunk;
+		}
+
+		boolean isExhausted() {
+			return readChunks == chunks;
+		}
+
+		void delete() {
+			seal();
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {}
+				input = null;
+			}
+			if (!file.delete() && file.exists()) LOG.warning("Unable to delete segment " + file);
+		}
+
+	}
+
+}
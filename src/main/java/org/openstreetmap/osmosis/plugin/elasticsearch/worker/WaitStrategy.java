@@ -0,0 +1,46 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Defines how a thread waits on a {@link RingBuffer} that is either full (for
+ * producers) or empty (for consumers).
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Spins on the CPU. Lowest latency, but burns a core per waiting thread.
+	 */
+	BUSY_SPIN {
+		@Override
+		public void idle() {}
+	},
+
+	/**
+	 * Gives the CPU back to the scheduler between two attempts.
+	 */
+	YIELD {
+		@Override
+		public void idle() {
+			Thread.yield();
+		}
+	},
+
+	/**
+	 * Parks the thread for a short while between two attempts.
+	 */
+	PARK {
+		@Override
+		public void idle() {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	};
+
+	private static final long PARK_NANOS = 50000L;
+
+	/**
+	 * Called each time an attempt to claim a slot failed.
+	 */
+	public abstract void idle();
+
+}
@@ -1,5 +1,7 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -15,22 +17,34 @@ public class Worker extends Thread {
 
 	private static final Logger LOG = Logger.getLogger(Worker.class.getName());
 
-	private final BlockingQueue<Entity> taskQueue;
+	private final BlockingQueue<List<Entity>> taskQueue;
 	private final EntityBufferFactory bufferFactory;
+	private final int batchSize;
+	private final ChunkCounter chunkCounter;
 	private final AtomicReference<NewTypeNotification> newTypeNotification;
 
 	private boolean running = true;
 
-	public Worker(String name, BlockingQueue<Entity> taskQueue, EntityBufferFactory bufferFactory) {
+	/**
+	 * @param batchSize
+	 *            the maximum number of chunks taken from the queue at once
+	 * @param chunkCounter
+	 *            notified of each processed chunk
+	 */
+	public Worker(String name, BlockingQueue<List<Entity>> taskQueue, EntityBufferFactory bufferFactory, int batchSize,
+			ChunkCounter chunkCounter) {
 		super(name);
 		this.taskQueue = taskQueue;
 		this.bufferFactory = bufferFactory;
+		this.batchSize = Math.max(1, batchSize);
+		this.chunkCounter = chunkCounter;
 		this.newTypeNotification = new AtomicReference<Worker.NewTypeNotification>();
 	}
 
 	@Override
 	public void run() {
-		Entity entity = null;
+		List<Entity> chunk = null;
+		List<List<Entity>> batch = new ArrayList<List<Entity>>(batchSize);
 		EntityBuffer entityBuffer = null;
 		NewTypeNotification notification = null;
 		while (running || !taskQueue.isEmpty()) {
@@ -39,12 +53,24 @@ public class Worker extends Thread {
 				if ((notification = newTypeNotification.getAndSet(null)) != null) {
 					LOG.fine("NewTypeNotification detected, flushing...");
 					if (entityBuffer != null) entityBuffer.flush();
-					entityBuffer = bufferFactory.buildForType(notification.getType());
+					EntityType type = notification.getType();
+					entityBuffer = (type != null) ? bufferFactory.buildForType(type) : null;
 					notification.getLatch().countDown();
 				}
-				// Poll the queue
-				if ((entity = taskQueue.poll(WorkerPool.POLL_INTERVAL, TimeUnit.MILLISECONDS)) != null) {
-					entityBuffer.add(entity);
+				// Poll the queue, then claim the chunks already waiting behind
+				if ((chunk = taskQueue.poll(WorkerPool.POLL_INTERVAL, TimeUnit.MILLISECONDS)) != null) {
+					batch.add(chunk);
+					if (batchSize > 1) taskQueue.drainTo(batch, batchSize - 1);
+					try {
+						for (List<Entity> claimed : batch) {
+							for (Entity entity : claimed) {
+								entityBuffer.add(entity);
+							}
+						}
+					} finally {
+						chunkCounter.processed(batch.size());
+						batch.clear();
+					}
 				}
 			} catch (InterruptedException e) {
 				LOG.fine("InterruptedException triggered, leaving...");
@@ -54,6 +80,12 @@ public class Worker extends Thread {
 		LOG.fine(String.format("%s shutdown", getName()));
 	}
 
+	/**
+	 * Flush the current buffer and start buffering entities of the given type.
+	 * 
+	 * @param type
+	 *            the new {@link EntityType}, null to flush only
+	 */
 	public void notifyNewType(EntityType type) throws InterruptedException {
 		NewTypeNotification notification = new NewTypeNotification(type);
 		newTypeNotification.set(notification);
@@ -1,11 +1,16 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
@@ -13,54 +18,162 @@ import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityDao;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.EntityBuffer.EntityBufferFactory;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
 
+/**
+ * Runs the CPU bound part of the indexing, i.e. converting entities to
+ * documents, on a pool of {@link Worker} sized after the number of cores by
+ * default, or at least {@link #BLOCKING_POOL_SIZE} when bulk requests are
+ * sent synchronously.
+ * <p>
+ * The network part is left to the {@link EntityDao}. When it is asynchronous,
+ * documents of ways are built once their nodes are resolved, on a separate
+ * executor of the same size: it never waits for an in-flight request slot, so
+ * it cannot be starved by workers waiting for one.
+ */
 public class WorkerPool {
 
+	private static final Logger LOG = Logger.getLogger(WorkerPool.class.getName());
+
 	public static final int POLL_INTERVAL = 10;
 
+	/**
+	 * Pool size when bulk requests are sent synchronously, as workers then
+	 * also wait for the network
+	 */
+	public static final int BLOCKING_POOL_SIZE = 5;
+
+	private final EntityDao entityDao;
 	private final AtomicReference<EntityType> lastEntityType;
-	private final BlockingQueue<Entity> taskQueue;
+	private final BlockingQueue<List<Entity>> taskQueue;
+	private final ChunkCounter chunkCounter;
+	private final ExecutorService documentExecutor;
 	private final List<Worker> workers;
 
 	public WorkerPool(EntityDao entityDao, Parameters params) {
+		this.entityDao = entityDao;
 		this.lastEntityType = new AtomicReference<EntityType>();
-		int queueSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_QUEUE_SIZE));
-		this.taskQueue = new ArrayBlockingQueue<Entity>(queueSize);
+		this.taskQueue = buildTaskQueue(params);
+		this.chunkCounter = new ChunkCounter();
 		int poolSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_WORKER_POOL_SIZE));
+		if (poolSize <= 0) {
+			poolSize = Runtime.getRuntime().availableProcessors();
+			if (!entityDao.isAsynchronous()) poolSize = Math.max(poolSize, BLOCKING_POOL_SIZE);
+		}
 		this.workers = new ArrayList<Worker>(poolSize);
 		EntityBufferFactory factory = new EntityBufferFactory(entityDao, params);
+		// Claim chunks in batches, but leave enough of them for the other workers
+		int batchSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_QUEUE_SIZE)) / poolSize;
 		for (int i = 0; i < poolSize; i++) {
 			String name = "Worker #" + i;
-			Worker worker = new Worker(name, taskQueue, factory);
+			Worker worker = new Worker(name, taskQueue, factory, batchSize, chunkCounter);
 			workers.add(worker);
 			worker.start();
 		}
+		if (entityDao.isAsynchronous()) {
+			this.documentExecutor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Document builder #" + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			entityDao.setDocumentExecutor(documentExecutor);
+		} else {
+			this.documentExecutor = null;
+		}
 	}
 
-	public synchronized void submit(Entity entity) {
-		if (!entity.getType().equals(lastEntityType.getAndSet(entity.getType()))) {
-			notifyNewType(entity.getType());
+	protected static BlockingQueue<List<Entity>> buildTaskQueue(Parameters params) {
+		int queueSize = Integer.valueOf(params.getProperty(Parameters.CONFIG_QUEUE_SIZE));
+		String queueType = params.getProperty(Parameters.CONFIG_QUEUE_TYPE, "blocking");
+		BlockingQueue<List<Entity>> queue;
+		if ("blocking".equals(queueType)) {
+			queue = new ArrayBlockingQueue<List<Entity>>(queueSize);
+		} else if ("ringbuffer".equals(queueType)) {
+			String waitStrategy = params.getProperty(Parameters.CONFIG_QUEUE_WAIT_STRATEGY, "park");
+			queue = new RingBuffer<List<Entity>>(queueSize, WaitStrategy.valueOf(waitStrategy.toUpperCase()));
+		} else {
+			throw new IllegalArgumentException("Unknown queue type [" + queueType + "]");
 		}
+		if (!Boolean.valueOf(params.getProperty(Parameters.CONFIG_SPILL_ENABLED, "false"))) return queue;
+		String directory = params.getProperty(Parameters.CONFIG_SPILL_DIRECTORY, "");
+		File spillDirectory = directory.isEmpty()
+				? new File(System.getProperty("java.io.tmpdir"), "osmosis-es-spill-" + System.nanoTime())
+				: new File(directory);
+		long segmentMb = Long.valueOf(params.getProperty(Parameters.CONFIG_SPILL_SEGMENT_SIZE_MB, "64"));
+		long maxMb = Long.valueOf(params.getProperty(Parameters.CONFIG_SPILL_MAX_SIZE_MB, "0"));
+		return new SpillQueue(queue, spillDirectory, segmentMb << 20, maxMb << 20);
+	}
+
+	/**
+	 * Submits a chunk of entities to the workers.
+	 * <p>
+	 * All entities of a chunk must share the same {@link EntityType}. The
+	 * chunk is handed over as is, the caller must not modify it afterwards.
+	 * 
+	 * @param chunk
+	 *            the List of Entity objects to process
+	 */
+	public synchronized void submit(List<Entity> chunk) {
+		if (chunk.isEmpty()) return;
+		EntityType type = chunk.get(0).getType();
+		if (!type.equals(lastEntityType.getAndSet(type))) {
+			// Ways resolved from a local store do not wait for their nodes to be indexed
+			notifyNewType(type, !entityDao.resolvesNodesLocally());
+		}
+		chunkCounter.submitted();
 		try {
-			while (!taskQueue.offer(entity, POLL_INTERVAL, TimeUnit.MILLISECONDS));
+			while (!taskQueue.offer(chunk, POLL_INTERVAL, TimeUnit.MILLISECONDS));
 		} catch (InterruptedException e) {
+			chunkCounter.processed(1);
 			throw new IllegalStateException("InterruptedException caught", e);
 		}
 	}
 
-	protected void notifyNewType(EntityType type) {
+	/**
+	 * Waits until all submitted chunks are indexed: the workers flush their
+	 * buffers and all pending requests are acknowledged.
+	 */
+	public synchronized void flush() {
+		notifyNewType(lastEntityType.get(), true);
+	}
+
+	/**
+	 * @param awaitPendingRequests
+	 *            true to also wait for the requests in flight
+	 */
+	protected void notifyNewType(EntityType type, boolean awaitPendingRequests) {
+		// Let workers process all chunks of the previous type first
+		try {
+			chunkCounter.awaitDrained();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException("InterruptedException caught", e);
+		}
 		for (Worker worker : workers) {
 			try {
 				worker.notifyNewType(type);
 			} catch (InterruptedException e) {}
 		}
+		// Entities of the next type may depend on the ones in flight
+		if (awaitPendingRequests) entityDao.awaitPendingRequests();
 	}
 
 	public void shutdown() {
+		// Flush all buffers and wait for the pending requests
+		notifyNewType(null, true);
 		for (Worker worker : workers) {
 			try {
 				worker.shutdown();
 			} catch (InterruptedException e) {}
 		}
+		if (documentExecutor != null) documentExecutor.shutdown();
+		if (taskQueue instanceof SpillQueue) {
+			SpillQueue spillQueue = (SpillQueue) taskQueue;
+			LOG.info(String.format("%d chunks were spilled to disk", spillQueue.getTotalSpilledChunks()));
+			spillQueue.close();
+		}
 	}
 
 }
@@ -0,0 +1,133 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.client.Client;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityDao;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.TagFilter;
+import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexConfiguration;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
+
+public class ElasticSearchWriterFactoryUTest {
+
+	private ElasticSearchWriterFactory factory;
+
+	@Before
+	public void setUp() {
+		factory = new ElasticSearchWriterFactory();
+	}
+
+	@Test
+	public void buildIndexConfiguration() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.INDEX_SETTINGS_CODEC, "best_compression")
+				.addParameter(Parameters.INDEX_MAPPING_SHAPE_TREE, "quadtree").build();
+
+		// Action
+		IndexConfiguration configuration = factory.buildIndexConfiguration(params);
+
+		// Assert
+		Assert.assertEquals("osm-test", configuration.getName());
+		Assert.assertEquals("best_compression", configuration.getSettings().get("index.codec"));
+		Assert.assertTrue(configuration.getMappings().get("node").contains("\"tree\":\"quadtree\""));
+		Assert.assertTrue(configuration.getMappings().get("way").contains("\"tree\":\"quadtree\""));
+	}
+
+	@Test
+	public void buildMapping() {
+		// Setup
+		String mapping = "{\"properties\":{\"shape\":{\"type\":\"geo_shape\"}}}";
+		Map<String, Object> shapeOptions = new LinkedHashMap<String, Object>();
+		shapeOptions.put("points_only", true);
+
+		// Action
+		String actual = factory.buildMapping(mapping, true, shapeOptions);
+
+		// Assert
+		Assert.assertEquals("{\"properties\":{\"shape\":{\"type\":\"geo_shape\",\"points_only\":true}},"
+				+ "\"_all\":{\"enabled\":true}}", actual);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void buildMapping_withShapeOptionsAndNoShape() {
+		factory.buildMapping("{\"properties\":{}}", false, Collections.<String, Object> singletonMap("tree", "quadtree"));
+	}
+
+	@Test
+	public void buildShapeOptions() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.INDEX_MAPPING_SHAPE_TREE, "quadtree")
+				.addParameter(Parameters.INDEX_MAPPING_SHAPE_PRECISION, "10m")
+				.addParameter(Parameters.INDEX_MAPPING_SHAPE_DISTANCE_ERROR_PCT, "0.05")
+				.addParameter(Parameters.INDEX_MAPPING_SHAPE_POINTS_ONLY, "true").build();
+
+		// Action
+		Map<String, Object> options = factory.buildShapeOptions(params);
+
+		// Assert
+		Assert.assertEquals(4, options.size());
+		Assert.assertEquals("quadtree", options.get("tree"));
+		Assert.assertEquals("10m", options.get("precision"));
+		Assert.assertEquals(0.05, options.get("distance_error_pct"));
+		Assert.assertEquals(true, options.get("points_only"));
+		Assert.assertTrue(factory.buildShapeOptions(new Parameters.Builder().loadResource("plugin.properties")
+				.build()).isEmpty());
+	}
+
+	@Test
+	public void buildTagFilter() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_FILTER_WAY_INCLUDE, "highway").build();
+
+		// Action
+		TagFilter wayTagFilter = factory.buildTagFilter(params, Parameters.CONFIG_FILTER_WAY_INCLUDE,
+				Parameters.CONFIG_FILTER_WAY_EXCLUDE, Parameters.CONFIG_FILTER_WAY_TAGS);
+		TagFilter nodeTagFilter = factory.buildTagFilter(params, Parameters.CONFIG_FILTER_NODE_INCLUDE,
+				Parameters.CONFIG_FILTER_NODE_EXCLUDE, Parameters.CONFIG_FILTER_NODE_TAGS);
+
+		// Assert
+		Assert.assertNotNull(wayTagFilter);
+		Assert.assertTrue(wayTagFilter.accepts(Arrays.asList(new Tag("highway", "primary"))));
+		Assert.assertFalse(wayTagFilter.accepts(Arrays.asList(new Tag("building", "yes"))));
+		Assert.assertNull(nodeTagFilter);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void buildEntityDao_withNodeFilterAndNoNodeStore() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_FILTER_NODE_INCLUDE, "amenity").build();
+
+		// Action
+		factory.buildEntityDao(mock(Client.class), params);
+	}
+
+	@Test
+	public void buildEntityDao_withNodeFilterAndNodeStore() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_FILTER_NODE_INCLUDE, "amenity")
+				.addParameter(Parameters.CONFIG_NODE_STORE_ENABLED, "true").build();
+
+		// Action
+		EntityDao entityDao = factory.buildEntityDao(mock(Client.class), params);
+
+		// Assert
+		Assert.assertNotNull(entityDao.getNodeLocationStore());
+		entityDao.getNodeLocationStore().close();
+	}
+
+}
@@ -1,28 +1,49 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.elasticsearch.client.Client;
+import junit.framework.Assert;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.NodeContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.WayContainer;
 import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
 import org.openstreetmap.osmosis.plugin.elasticsearch.builder.AbstractIndexBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.builder.highway.HighwayIndexBuilder;
 import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityDao;
 import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexAdminService;
+import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexConfiguration;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Checkpoint;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Endpoint;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Partition;
 
 public class ElasticSearchWriterTaskUTest {
 
@@ -44,6 +65,7 @@ public class ElasticSearchWriterTaskUTest {
 		indexBuilders = new HashSet<AbstractIndexBuilder>();
 		params = new Parameters.Builder().loadResource("plugin.properties")
 				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHUNK_SIZE, "2")
 				.addParameter(Parameters.CONFIG_NODE_BULK_SIZE, "1")
 				.addParameter(Parameters.CONFIG_WAY_BULK_SIZE, "1")
 				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1").build();
@@ -67,6 +89,183 @@ public class ElasticSearchWriterTaskUTest {
 		verify(entityDaoMocked, times(2)).saveAll(eq(Arrays.asList(new Entity[] {})));
 	}
 
+	@Test
+	public void process_withSeveralChunks() {
+		// Setup
+		Entity entityMocked = mock(Entity.class);
+		when(entityMocked.getType()).thenReturn(EntityType.Node);
+
+		EntityContainer entityContainerMocked = mock(EntityContainer.class);
+		when(entityContainerMocked.getEntity()).thenReturn(entityMocked);
+
+		// Action
+		for (int i = 0; i < 3; i++) {
+			elasticSearchWriterTask.process(entityContainerMocked);
+		}
+		elasticSearchWriterTask.complete();
+
+		// Assert
+		verify(elasticSearchWriterTask, times(2)).flushChunk();
+		verify(entityDaoMocked, times(4)).saveAll(any(List.class));
+	}
+
+	@Test
+	public void process_withCheckpoint() {
+		// Setup
+		File file = new File("target/checkpoint-" + System.nanoTime() + ".properties");
+		Parameters checkpointParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHUNK_SIZE, "2")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHECKPOINT_FILE, file.getPath())
+				.addParameter(Parameters.CONFIG_CHECKPOINT_INTERVAL, "2").build();
+		ElasticSearchWriterTask task = spy(new ElasticSearchWriterTask(endpoint, indexBuilders, checkpointParams));
+
+		try {
+			// Action
+			for (long id = 1; id <= 3; id++) {
+				task.process(new NodeContainer(OsmDataBuilder.buildSampleNode(id)));
+			}
+
+			// Assert
+			verify(task, times(1)).saveCheckpoint();
+			Assert.assertEquals(Long.valueOf(2), Checkpoint.load(file).getLastId(EntityType.Node));
+			task.complete();
+			Assert.assertEquals(Long.valueOf(3), Checkpoint.load(file).getLastId(EntityType.Node));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void process_withCheckpointAndFailedBulk() {
+		// Setup
+		File file = new File("target/checkpoint-" + System.nanoTime() + ".properties");
+		Parameters checkpointParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHUNK_SIZE, "2")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHECKPOINT_FILE, file.getPath())
+				.addParameter(Parameters.CONFIG_CHECKPOINT_INTERVAL, "2").build();
+		ElasticSearchWriterTask task = spy(new ElasticSearchWriterTask(endpoint, indexBuilders, checkpointParams));
+		// The bulk of nodes 3 and 4 fails
+		when(entityDaoMocked.getAndResetFailureCount()).thenReturn(0L, 2L, 0L);
+
+		try {
+			// Action
+			for (long id = 1; id <= 5; id++) {
+				task.process(new NodeContainer(OsmDataBuilder.buildSampleNode(id)));
+			}
+			task.complete();
+
+			// Assert
+			verify(task, times(2)).saveCheckpoint();
+			Assert.assertEquals(Long.valueOf(2), Checkpoint.load(file).getLastId(EntityType.Node));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void process_withResume() {
+		// Setup
+		File file = new File("target/checkpoint-" + System.nanoTime() + ".properties");
+		Checkpoint checkpoint = new Checkpoint(file);
+		checkpoint.setLastId(EntityType.Node, 2);
+		checkpoint.save();
+		Parameters resumeParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHUNK_SIZE, "10")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHECKPOINT_FILE, file.getPath())
+				.addParameter(Parameters.RESUME, "true").build();
+		ElasticSearchWriterTask task = new ElasticSearchWriterTask(endpoint, indexBuilders, resumeParams);
+		final List<Long> savedIds = new ArrayList<Long>();
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				for (Object entity : (List<?>) invocation.getArguments()[0]) {
+					savedIds.add(((Entity) entity).getId());
+				}
+				return null;
+			}
+		}).when(entityDaoMocked).saveAll(any(List.class));
+
+		try {
+			// Action
+			for (long id = 1; id <= 4; id++) {
+				task.process(new NodeContainer(OsmDataBuilder.buildSampleNode(id)));
+			}
+			task.complete();
+
+			// Assert
+			Assert.assertEquals(Arrays.asList(3l, 4l), savedIds);
+			Assert.assertEquals(Long.valueOf(4), Checkpoint.load(file).getLastId(EntityType.Node));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void process_withPartition() {
+		// Setup
+		File directory = new File("target/partition-" + System.nanoTime());
+		Parameters partitionParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHUNK_SIZE, "10")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter(Parameters.CONFIG_PARTITION_COUNT, "2")
+				.addParameter(Parameters.CONFIG_PARTITION_INDEX, "1")
+				.addParameter(Parameters.CONFIG_PARTITION_DIRECTORY, directory.getPath())
+				.addParameter(Parameters.CONFIG_PARTITION_RUN, "run-1").build();
+		ElasticSearchWriterTask task = spy(new ElasticSearchWriterTask(endpoint, indexBuilders, partitionParams));
+		File runDirectory = new File(directory, "run-1");
+		Partition coordinator = new Partition(0, 2, runDirectory);
+		coordinator.markDone("bound");
+		coordinator.markDone("node");
+		final List<Long> savedIds = new ArrayList<Long>();
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				for (Object entity : (List<?>) invocation.getArguments()[0]) {
+					savedIds.add(((Entity) entity).getId());
+				}
+				return null;
+			}
+		}).when(entityDaoMocked).saveAll(any(List.class));
+
+		try {
+			// Action
+			for (long id = 1; id <= 4; id++) {
+				task.process(new NodeContainer(OsmDataBuilder.buildSampleNode(id)));
+			}
+			task.process(new WayContainer(OsmDataBuilder.buildWay(5)));
+			task.complete();
+
+			// Assert
+			Assert.assertEquals(Arrays.asList(1l, 3l, 5l), savedIds);
+			Assert.assertTrue(coordinator.isDone("node", 1));
+			Assert.assertTrue(coordinator.isDone(Partition.STEP_COMPLETE, 1));
+			verify(task, times(0)).buildSpecializedIndex();
+		} finally {
+			for (File file : runDirectory.listFiles()) {
+				file.delete();
+			}
+			runDirectory.delete();
+			directory.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_withResumeAndNoCheckpointFile() {
+		// Setup
+		Parameters resumeParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.RESUME, "true").build();
+
+		// Action
+		new ElasticSearchWriterTask(endpoint, indexBuilders, resumeParams);
+	}
+
 	@Test
 	public void complete() {
 		// Setup
@@ -79,6 +278,149 @@ public class ElasticSearchWriterTaskUTest {
 		verify(elasticSearchWriterTask, times(1)).buildSpecializedIndex();
 	}
 
+	@Test
+	public void initialize_withStreamingIndexBuilder() {
+		// Setup
+		AbstractIndexBuilder indexBuilderMocked = mock(AbstractIndexBuilder.class);
+		when(indexBuilderMocked.isStreaming()).thenReturn(true);
+		indexBuilders.add(indexBuilderMocked);
+
+		// Action
+		elasticSearchWriterTask.initialize(new HashMap<String, Object>());
+
+		// Assert
+		verify(indexAdminServiceMocked, times(1)).createIndices(any(Collection.class));
+		verify(indexBuilderMocked, times(1)).onIndexCreated();
+		verify(entityDaoMocked, times(1)).addEntityListener(indexBuilderMocked);
+	}
+
+	@Test
+	public void initialize_withStreamingIndexBuilderAndResume() {
+		// Setup
+		File file = new File("target/checkpoint-" + System.nanoTime() + ".properties");
+		Parameters resumeParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter(Parameters.CONFIG_CHECKPOINT_FILE, file.getPath())
+				.addParameter(Parameters.RESUME, "true")
+				.addParameter("highway.streaming", "true").build();
+		HighwayIndexBuilder indexBuilder = spy(new HighwayIndexBuilder(endpoint, resumeParams));
+		doNothing().when(indexBuilder).buildIndex();
+		indexBuilders.add(indexBuilder);
+		ElasticSearchWriterTask task = new ElasticSearchWriterTask(endpoint, indexBuilders, resumeParams);
+
+		// Action
+		task.initialize(new HashMap<String, Object>());
+		task.buildSpecializedIndex();
+
+		// Assert
+		Assert.assertFalse(indexBuilder.isStreaming());
+		verify(entityDaoMocked, never()).addEntityListener(indexBuilder);
+		verify(indexAdminServiceMocked, times(1)).createIndices(any(Collection.class));
+		verify(indexBuilder, times(1)).buildIndex();
+	}
+
+	@Test
+	public void initialize_withStreamingIndexBuilderAndPartition() {
+		// Setup
+		File directory = new File("target/partition-" + System.nanoTime());
+		Parameters partitionParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter(Parameters.CONFIG_PARTITION_COUNT, "2")
+				.addParameter(Parameters.CONFIG_PARTITION_INDEX, "0")
+				.addParameter(Parameters.CONFIG_PARTITION_DIRECTORY, directory.getPath())
+				.addParameter(Parameters.CONFIG_PARTITION_RUN, "run-1")
+				.addParameter("highway.streaming", "true").build();
+		HighwayIndexBuilder indexBuilder = new HighwayIndexBuilder(endpoint, partitionParams);
+		indexBuilders.add(indexBuilder);
+		ElasticSearchWriterTask task = new ElasticSearchWriterTask(endpoint, indexBuilders, partitionParams);
+
+		try {
+			// Action
+			task.initialize(new HashMap<String, Object>());
+
+			// Assert
+			Assert.assertFalse(indexBuilder.isStreaming());
+			verify(entityDaoMocked, never()).addEntityListener(indexBuilder);
+		} finally {
+			new File(directory, "run-1").delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void initialize_withStreamingIndexBuilderAndIndexCreationFailure() {
+		// Setup
+		Parameters streamingParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_QUEUE_SIZE, "1")
+				.addParameter(Parameters.CONFIG_WORKER_POOL_SIZE, "1")
+				.addParameter("highway.streaming", "true").build();
+		HighwayIndexBuilder indexBuilder = spy(new HighwayIndexBuilder(endpoint, streamingParams));
+		doNothing().when(indexBuilder).buildIndex();
+		indexBuilders.add(indexBuilder);
+		Map<String, Exception> failures = new HashMap<String, Exception>();
+		failures.put(indexBuilder.getSpecializedIndexName(), new RuntimeException("Simulated failure"));
+		when(indexAdminServiceMocked.createIndices(any(Collection.class))).thenReturn(failures,
+				new HashMap<String, Exception>());
+		ElasticSearchWriterTask task = new ElasticSearchWriterTask(endpoint, indexBuilders, streamingParams);
+
+		// Action
+		task.initialize(new HashMap<String, Object>());
+		task.buildSpecializedIndex();
+
+		// Assert
+		Assert.assertFalse(indexBuilder.isStreaming());
+		verify(entityDaoMocked, never()).addEntityListener(indexBuilder);
+		verify(indexAdminServiceMocked, times(2)).createIndices(any(Collection.class));
+		verify(indexBuilder, times(1)).onIndexCreated();
+		verify(indexBuilder, times(1)).buildIndex();
+	}
+
+	@Test
+	public void buildSpecializedIndex_withFailingIndexBuilder() {
+		// Setup
+		AbstractIndexBuilder indexBuilderMocked1 = mock(AbstractIndexBuilder.class);
+		doThrow(new RuntimeException("Simulated failure")).when(indexBuilderMocked1).buildIndex();
+		AbstractIndexBuilder indexBuilderMocked2 = mock(AbstractIndexBuilder.class);
+		indexBuilders.add(indexBuilderMocked1);
+		indexBuilders.add(indexBuilderMocked2);
+
+		// Action
+		elasticSearchWriterTask.buildSpecializedIndex();
+
+		// Assert
+		verify(indexAdminServiceMocked, times(1)).createIndices(any(Collection.class));
+		verify(indexBuilderMocked1, times(1)).onIndexCreated();
+		verify(indexBuilderMocked2, times(1)).onIndexCreated();
+		verify(indexBuilderMocked2, times(1)).buildIndex();
+	}
+
+	@Test
+	public void buildSpecializedIndex_withIndexCreationFailure() {
+		// Setup
+		AbstractIndexBuilder indexBuilderMocked1 = mock(AbstractIndexBuilder.class);
+		when(indexBuilderMocked1.getIndexConfiguration()).thenReturn(new IndexConfiguration("osm-failing", 1, 0, null));
+		when(indexBuilderMocked1.getSpecializedIndexName()).thenReturn("osm-failing");
+		AbstractIndexBuilder indexBuilderMocked2 = mock(AbstractIndexBuilder.class);
+		when(indexBuilderMocked2.getIndexConfiguration()).thenReturn(new IndexConfiguration("osm-working", 1, 0, null));
+		when(indexBuilderMocked2.getSpecializedIndexName()).thenReturn("osm-working");
+		indexBuilders.add(indexBuilderMocked1);
+		indexBuilders.add(indexBuilderMocked2);
+		Map<String, Exception> failures = new HashMap<String, Exception>();
+		failures.put("osm-failing", new RuntimeException("Simulated failure"));
+		when(indexAdminServiceMocked.createIndices(any(Collection.class))).thenReturn(failures);
+
+		// Action
+		elasticSearchWriterTask.buildSpecializedIndex();
+
+		// Assert
+		verify(indexBuilderMocked1, never()).onIndexCreated();
+		verify(indexBuilderMocked1, never()).buildIndex();
+		verify(indexBuilderMocked2, times(1)).onIndexCreated();
+		verify(indexBuilderMocked2, times(1)).buildIndex();
+	}
+
 	@Test
 	public void release() {
 		// Action
@@ -0,0 +1,110 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.builder.highway;
+
+import java.util.HashMap;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.plugin.elasticsearch.dao.EntityDao;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESNode;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWay;
+import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexAdminService;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.AbstractElasticSearchInMemoryTest;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Endpoint;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
+
+public class HighwayIndexBuilderITest extends AbstractElasticSearchInMemoryTest {
+
+	private static final String INDEX_NAME = "osm-test";
+	private static final String HIGHWAY_INDEX_NAME = "osm-test-highway";
+
+	private Endpoint endpoint;
+	private Parameters params;
+	private HighwayIndexBuilder indexBuilder;
+
+	@Before
+	public void setUp() {
+		params = new Parameters.Builder().loadResource("plugin.properties").build();
+		IndexAdminService indexAdminService = new IndexAdminService(client());
+		HashMap<String, String> mappings = new HashMap<String, String>();
+		mappings.put(ESEntityType.NODE.getIndiceName(), params.getProperty(Parameters.INDEX_MAPPING_NODE));
+		mappings.put(ESEntityType.WAY.getIndiceName(), params.getProperty(Parameters.INDEX_MAPPING_WAY));
+		indexAdminService.createIndex(INDEX_NAME, 1, 0, mappings);
+		EntityDao entityDao = new EntityDao(INDEX_NAME, client());
+		endpoint = new Endpoint(client(), indexAdminService, entityDao);
+		indexBuilder = new HighwayIndexBuilder(endpoint, params);
+	}
+
+	@Test
+	public void getSpecializedIndexName() {
+		Assert.assertEquals(HIGHWAY_INDEX_NAME, indexBuilder.getSpecializedIndexName());
+	}
+
+	@Test
+	public void createIndex() {
+		// Action
+		indexBuilder.createIndex();
+
+		// Assert
+		Assert.assertTrue(exists(HIGHWAY_INDEX_NAME));
+		Assert.assertTrue(client().admin().indices().prepareGetMappings(HIGHWAY_INDEX_NAME).execute().actionGet()
+				.getMappings().get(HIGHWAY_INDEX_NAME).containsKey("way"));
+	}
+
+	@Test
+	public void buildIndex() {
+		// Setup
+		ESWay highway = ESWay.Builder.create().id(1).addLocation(1.0, 2.0).addLocation(2.0, 3.0)
+				.addTag("highway", "primary").addTag("name", "Avenue").build();
+		ESWay building = ESWay.Builder.create().id(2).addLocation(1.0, 2.0).addLocation(2.0, 3.0)
+				.addLocation(3.0, 2.0).addLocation(1.0, 2.0).addTag("building", "yes").build();
+		index(INDEX_NAME, highway, building);
+		refresh(INDEX_NAME);
+		indexBuilder.createIndex();
+
+		// Action
+		indexBuilder.buildIndex();
+		refresh(HIGHWAY_INDEX_NAME);
+
+		// Assert
+		GetResponse response = client().prepareGet(HIGHWAY_INDEX_NAME, "way", "1").execute().actionGet();
+		Assert.assertTrue(response.isExists());
+		String expected = "{\"line\":{\"type\":\"linestring\",\"coordinates\":[[2.0,1.0],[3.0,2.0]]}," +
+				"\"tags\":{\"highway\":\"primary\",\"name\":\"Avenue\"}}";
+		Assert.assertEquals(expected, response.getSourceAsString());
+		Assert.assertFalse(client().prepareGet(HIGHWAY_INDEX_NAME, "way", "2").execute().actionGet().isExists());
+	}
+
+	@Test
+	public void buildIndex_streaming() {
+		// Setup
+		Parameters streamingParams = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter("highway.streaming", "true").build();
+		HighwayIndexBuilder streamingIndexBuilder = new HighwayIndexBuilder(endpoint, streamingParams);
+		endpoint.getEntityDao().addEntityListener(streamingIndexBuilder);
+		streamingIndexBuilder.createIndex();
+
+		ESNode node1 = ESNode.Builder.create().id(1).location(1, 2).build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(2, 3).build();
+		index(INDEX_NAME, node1, node2);
+		refresh(INDEX_NAME);
+		Way highway = OsmDataBuilder.buildSampleWay(1, 1, 2);
+
+		// Action
+		endpoint.getEntityDao().save(highway);
+		streamingIndexBuilder.buildIndex();
+		refresh(HIGHWAY_INDEX_NAME);
+
+		// Assert
+		Assert.assertTrue(streamingIndexBuilder.isStreaming());
+		GetResponse response = client().prepareGet(HIGHWAY_INDEX_NAME, "way", "1").execute().actionGet();
+		Assert.assertTrue(response.isExists());
+		Assert.assertEquals(0, client().prepareCount(HIGHWAY_INDEX_NAME).setTypes("node").execute().actionGet().getCount());
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESNode;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWay;
+
+public class EntityCacheUTest {
+
+	@Test
+	public void get() {
+		// Setup
+		EntityCache entityCache = new EntityCache(10);
+		ESNode node = ESNode.Builder.create().id(1).location(1.0, 2.0).build();
+		entityCache.put(node);
+
+		// Action
+		Object actualNode = entityCache.get(ESEntityType.NODE, 1);
+		Object actualWay = entityCache.get(ESEntityType.WAY, 1);
+
+		// Assert
+		Assert.assertSame(node, actualNode);
+		Assert.assertNull(actualWay);
+		Assert.assertEquals(1, entityCache.getHitCount());
+		Assert.assertEquals(1, entityCache.getMissCount());
+		Assert.assertEquals(0.5, entityCache.getHitRate(), 1E-9);
+	}
+
+	@Test
+	public void put_evictsLeastRecentlyUsed() {
+		// Setup
+		EntityCache entityCache = new EntityCache(2, 1);
+		entityCache.put(ESNode.Builder.create().id(1).location(1.0, 2.0).build());
+		entityCache.put(ESNode.Builder.create().id(2).location(1.0, 2.0).build());
+		entityCache.get(ESEntityType.NODE, 1);
+
+		// Action
+		entityCache.put(ESWay.Builder.create().id(3).addLocation(1.0, 2.0).addLocation(2.0, 3.0).build());
+
+		// Assert
+		Assert.assertEquals(2, entityCache.size());
+		Assert.assertNotNull(entityCache.get(ESEntityType.NODE, 1));
+		Assert.assertNull(entityCache.get(ESEntityType.NODE, 2));
+		Assert.assertNotNull(entityCache.get(ESEntityType.WAY, 3));
+	}
+
+	@Test
+	public void put_isBounded() {
+		// Setup
+		EntityCache entityCache = new EntityCache(100);
+
+		// Action
+		for (int i = 0; i < 1000; i++) {
+			entityCache.put(ESNode.Builder.create().id(i).location(1.0, 2.0).build());
+		}
+
+		// Assert
+		Assert.assertTrue(entityCache.size() <= 100);
+	}
+
+	@Test
+	public void invalidate() {
+		// Setup
+		EntityCache entityCache = new EntityCache(10);
+		entityCache.put(ESNode.Builder.create().id(1).location(1.0, 2.0).build());
+		entityCache.put(ESNode.Builder.create().id(2).location(1.0, 2.0).build());
+
+		// Action
+		entityCache.invalidate(ESEntityType.NODE, 1);
+
+		// Assert
+		Assert.assertNull(entityCache.get(ESEntityType.NODE, 1));
+		Assert.assertNotNull(entityCache.get(ESEntityType.NODE, 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void create_withInvalidSize() {
+		new EntityCache(0);
+	}
+
+}
@@ -3,24 +3,36 @@ package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.geo.builders.ShapeBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.Before;
 import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.CommonEntityData;
 import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntityType;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESNode;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWay;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESWayTile;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.TagFilter;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShapeType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoCells;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler;
 import org.openstreetmap.osmosis.plugin.elasticsearch.service.IndexAdminService;
 import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.AbstractElasticSearchInMemoryTest;
 import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.FlatNodeLocationStore;
 import org.openstreetmap.osmosis.plugin.elasticsearch.utils.Parameters;
 
 public class EntityDaoITest extends AbstractElasticSearchInMemoryTest {
@@ -37,6 +49,7 @@ public class EntityDaoITest extends AbstractElasticSearchInMemoryTest {
 		HashMap<String, String> mappings = new HashMap<String, String>();
 		mappings.put(ESEntityType.NODE.getIndiceName(), params.getProperty(Parameters.INDEX_MAPPING_NODE));
 		mappings.put(ESEntityType.WAY.getIndiceName(), params.getProperty(Parameters.INDEX_MAPPING_WAY));
+		mappings.put(ESWayTile.TYPE, params.getProperty(Parameters.INDEX_MAPPING_WAY_TILE));
 		indexAdminService.createIndex(INDEX_NAME, 1, 0, mappings);
 	}
 
@@ -77,7 +90,8 @@ public class EntityDaoITest extends AbstractElasticSearchInMemoryTest {
 		GetResponse response = client().prepareGet(INDEX_NAME, "way", "1").execute().actionGet();
 		Assert.assertTrue(response.isExists());
 		String expected = "{\"centroid\":[2.3333333333333335,2.0],\"lengthKm\":536.8973391277414," +
-				"\"areaKm2\":12364.345757132623,\"shape\":{\"type\":\"polygon\",\"coordinates\":" +
+				"\"areaKm2\":12364.345757132623," +
+				"\"bbox\":{\"minLon\":2.0,\"minLat\":1.0,\"maxLon\":3.0,\"maxLat\":3.0},\"shape\":{\"type\":\"polygon\",\"coordinates\":" +
 				"[[[2.0,1.0],[3.0,2.0],[2.0,3.0],[2.0,1.0]]]},\"tags\":{\"highway\":\"residential\"}}";
 		String actual = response.getSourceAsString();
 		Assert.assertEquals(expected, actual);
@@ -102,12 +116,69 @@ public class EntityDaoITest extends AbstractElasticSearchInMemoryTest {
 		GetResponse response = client().prepareGet(INDEX_NAME, "way", "1").execute().actionGet();
 		Assert.assertTrue(response.isExists());
 		String expected = "{\"centroid\":[2.1666666666666665,2.5],\"lengthKm\":471.76076948850596," +
-				"\"areaKm2\":0.0,\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
+				"\"areaKm2\":0.0," +
+				"\"bbox\":{\"minLon\":1.0,\"minLat\":1.0,\"maxLon\":3.0,\"maxLat\":4.0},\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
 				"[[2.0,1.0],[3.0,2.0],[2.0,3.0],[1.0,4.0]]},\"tags\":{\"highway\":\"residential\"}}";
 		String actual = response.getSourceAsString();
 		Assert.assertEquals(expected, actual);
 	}
 
+	@Test
+	public void saveWay_withGeoCells() {
+		// Setup
+		ESNode node1 = ESNode.Builder.create().id(1).location(1, 2).build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(2, 3).build();
+		ESNode node3 = ESNode.Builder.create().id(3).location(3, 2).build();
+		index(INDEX_NAME, node1, node2, node3);
+		entityDao.setGeoCells(new GeoCells(2, 4));
+
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2, 3, 1);
+
+		// Action
+		entityDao.save(way);
+		refresh(INDEX_NAME);
+
+		// Assert
+		// Coarse filters are answered with terms and ranges
+		Assert.assertEquals(1, client().prepareSearch(INDEX_NAME).setTypes("way")
+				.setQuery(QueryBuilders.termQuery("cells", "s")).execute().actionGet().getHits().getTotalHits());
+		Assert.assertEquals(0, client().prepareSearch(INDEX_NAME).setTypes("way")
+				.setQuery(QueryBuilders.termQuery("cells", "u")).execute().actionGet().getHits().getTotalHits());
+		Assert.assertEquals(1, client().prepareSearch(INDEX_NAME).setTypes("way")
+				.setQuery(QueryBuilders.rangeQuery("bbox.maxLat").gte(3)).execute().actionGet().getHits().getTotalHits());
+	}
+
+	@Test
+	public void saveAllWays_withSeveralNodeChunks() {
+		// Setup
+		ESNode node1 = ESNode.Builder.create().id(1).location(1.0, 2.0).build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(2.0, 3.0).build();
+		ESNode node3 = ESNode.Builder.create().id(3).location(3.0, 2.0).build();
+		ESNode node4 = ESNode.Builder.create().id(4).location(4.0, 1.0).build();
+		index(INDEX_NAME, node1, node2, node3, node4);
+		entityDao.setNodeChunking(2, 2);
+
+		List<Way> ways = new ArrayList<Way>();
+		ways.add(OsmDataBuilder.buildSampleWay(1, 1, 2));
+		ways.add(OsmDataBuilder.buildSampleWay(2, 2, 3));
+		ways.add(OsmDataBuilder.buildSampleWay(3, 1, 2, 3, 4));
+
+		// Action
+		entityDao.saveAll(ways);
+		refresh(INDEX_NAME);
+
+		// Assert
+		Assert.assertEquals(ESWay.Builder.create().id(2).addLocation(2.0, 3.0).addLocation(3.0, 2.0)
+				.addTag("highway", "residential").build(), entityDao.find(ESWay.class, 2));
+		String expected = "{\"centroid\":[2.1666666666666665,2.5],\"lengthKm\":471.76076948850596," +
+				"\"areaKm2\":0.0," +
+				"\"bbox\":{\"minLon\":1.0,\"minLat\":1.0,\"maxLon\":3.0,\"maxLat\":4.0},\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
+				"[[2.0,1.0],[3.0,2.0],[2.0,3.0],[1.0,4.0]]},\"tags\":{\"highway\":\"residential\"}}";
+		Assert.assertEquals(expected, client().prepareGet(INDEX_NAME, "way", "3").execute().actionGet()
+				.getSourceAsString());
+		Assert.assertEquals(3, client().prepareCount(INDEX_NAME).setTypes("way").execute().actionGet().getCount());
+	}
+
 	@Test
 	public void saveAll() throws InterruptedException {
 		// Setup
@@ -133,6 +204,37 @@ public class EntityDaoITest extends AbstractElasticSearchInMemoryTest {
 		Assert.assertEquals(expected, actual2);
 	}
 
+	@Test
+	public void saveAll_withTagFilters() {
+		// Setup
+		FlatNodeLocationStore store = FlatNodeLocationStore.createTemporary();
+		entityDao.setNodeLocationStore(store);
+		entityDao.setTagFilters(new TagFilter("", "highway=traffic_signals", ""),
+				new TagFilter("highway=residential|primary", "", "name*"));
+		Node node1 = OsmDataBuilder.buildSampleNode(1);
+		Node node2 = new Node(new CommonEntityData(2, 0, new Date(), new OsmUser(1, "nco"), 1l), 2.0d, 3.0d);
+
+		// Action
+		entityDao.saveAll(Arrays.asList(new Entity[] { node1, node2 }));
+		entityDao.saveAll(Arrays.asList(new Entity[] { OsmDataBuilder.buildSampleWay(1, 1, 2) }));
+		refresh(INDEX_NAME);
+
+		// Assert
+		// The way is resolved through the rejected node
+		Assert.assertFalse(client().prepareGet(INDEX_NAME, "node", "1").execute().actionGet().isExists());
+		Assert.assertTrue(client().prepareGet(INDEX_NAME, "node", "2").execute().actionGet().isExists());
+		GetResponse response = client().prepareGet(INDEX_NAME, "way", "1").execute().actionGet();
+		Assert.assertTrue(response.isExists());
+		Assert.assertTrue(response.getSourceAsString().contains("\"coordinates\":[[2.0,1.0],[3.0,2.0]]"));
+		Assert.assertTrue(response.getSourceAsString().endsWith("\"tags\":{}}"));
+		store.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void setTagFilters_withNodeFilterAndNoNodeStore() {
+		entityDao.setTagFilters(new TagFilter("amenity", "", ""), null);
+	}
+
 	/* find */
 
 	@Test
@@ -337,6 +439,211 @@ public class EntityDaoITest extends AbstractElasticSearchInMemoryTest {
 		Assert.assertEquals(expected, actual);
 	}
 
+	@Test
+	public void findWay_withoutShape() {
+		// Setup
+		ESWay way = ESWay.Builder.create().id(1).addLocation(1.0, 2.0).addLocation(2.0, 3.0)
+				.addTag("highway", "primary").build();
+		index(INDEX_NAME, way);
+		refresh(INDEX_NAME);
+
+		// Action
+		ESWay actual = entityDao.find(ESWay.class, 1, SourceFilter.WITHOUT_SHAPE);
+
+		// Assert
+		Assert.assertEquals(way.getTags(), actual.getTags());
+		Assert.assertEquals(way.getCentroid(), actual.getCentroid());
+		Assert.assertEquals(way.getLenght(), actual.getLenght());
+		Assert.assertEquals(ESShapeType.POINT, actual.getShapeType());
+	}
+
+	@Test
+	public void findAllNodes_withInclude() {
+		// Setup
+		ESNode node1 = ESNode.Builder.create().id(1).location(1.0, 2.0).addTag("highway", "traffic_signals").build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(3.0, 4.0).addTag("highway", "crossing").build();
+		index(INDEX_NAME, node1, node2);
+		refresh(INDEX_NAME);
+
+		// Action
+		List<ESNode> actual = entityDao.findAll(ESNode.class, SourceFilter.include("shape"), 2l, 1l);
+
+		// Assert
+		Assert.assertEquals(2, actual.size());
+		Assert.assertEquals(node2.getLatitude(), actual.get(0).getLatitude());
+		Assert.assertEquals(node2.getLongitude(), actual.get(0).getLongitude());
+		Assert.assertTrue(actual.get(0).getTags().isEmpty());
+		Assert.assertEquals(node1.getLatitude(), actual.get(1).getLatitude());
+	}
+
+	/* scan */
+
+	@Test
+	public void scanNodes_withSeveralPages() {
+		// Setup
+		int SIZE = 25;
+		Map<Long, ESNode> expected = new HashMap<Long, ESNode>();
+		for (int i = 0; i < SIZE; i++) {
+			ESNode node = OsmDataBuilder.buildSampleESNode(i);
+			expected.put(node.getId(), node);
+		}
+		index(INDEX_NAME, expected.values().toArray(new ESEntity[0]));
+		refresh(INDEX_NAME);
+
+		// Action
+		Map<Long, ESNode> actual = new HashMap<Long, ESNode>();
+		ScrollIterator<ESNode> iterator = entityDao.scan(ESNode.class, 10);
+		while (iterator.hasNext()) {
+			ESNode node = iterator.next();
+			actual.put(node.getId(), node);
+		}
+
+		// Assert
+		Assert.assertEquals(expected, actual);
+	}
+
+	@Test
+	public void scanWays_withQuery() {
+		// Setup
+		ESWay way1 = ESWay.Builder.create().id(1).addLocation(1.1, 2.1).addLocation(1.2, 2.2)
+				.addTag("highway", "primary").build();
+		ESWay way2 = ESWay.Builder.create().id(2).addLocation(1.1, 2.1).addLocation(1.2, 2.2)
+				.addTag("highway", "secondary").build();
+		index(INDEX_NAME, way1, way2);
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESWay> iterator = entityDao.scan(ESWay.class, QueryBuilders.termQuery("tags.highway", "secondary"), 10);
+
+		// Assert
+		Assert.assertTrue(iterator.hasNext());
+		Assert.assertEquals(way2, iterator.next());
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void scanNodes_withEarlyClose() {
+		// Setup
+		index(INDEX_NAME, OsmDataBuilder.buildSampleESNode(1), OsmDataBuilder.buildSampleESNode(2));
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESNode> iterator = entityDao.scan(ESNode.class, 1);
+		iterator.next();
+		iterator.close();
+
+		// Assert
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void scanNodes_withInvalidPageSize() {
+		// Action
+		entityDao.scan(ESNode.class, 0);
+	}
+
+	/* geo queries */
+
+	@Test
+	public void findInBoundingBox() {
+		// Setup
+		ESNode node1 = ESNode.Builder.create().id(1).location(1.0, 2.0).addTag("highway", "bus_stop").build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(10.0, 20.0).build();
+		index(INDEX_NAME, node1, node2);
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESNode> iterator = entityDao.findInBoundingBox(ESNode.class, 5.0, 0.0, 0.0, 5.0, SourceFilter.ALL);
+
+		// Assert
+		Assert.assertEquals(node1, iterator.next());
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void findInBoundingBox_withCentroidAndTags() {
+		// Setup
+		ESWay way = ESWay.Builder.create().id(1).addLocation(1.0, 2.0).addLocation(2.0, 3.0)
+				.addTag("highway", "primary").build();
+		index(INDEX_NAME, way);
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESWay> iterator = entityDao.findInBoundingBox(ESWay.class, 5.0, 0.0, 0.0, 5.0,
+				SourceFilter.CENTROID_AND_TAGS);
+
+		// Assert
+		ESWay actual = iterator.next();
+		Assert.assertFalse(iterator.hasNext());
+		Assert.assertEquals(1, actual.getId());
+		Assert.assertEquals(way.getTags(), actual.getTags());
+		Assert.assertEquals(way.getCentroid(), actual.getCentroid());
+		Assert.assertEquals(0.0, actual.getLenght());
+	}
+
+	@Test
+	public void findWithinDistance() {
+		// Setup
+		ESNode node1 = ESNode.Builder.create().id(1).location(1.0, 2.0).build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(1.5, 2.0).build();
+		index(INDEX_NAME, node1, node2);
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESNode> iterator = entityDao.findWithinDistance(ESNode.class, 1.0, 2.0, 10.0,
+				SourceFilter.include("centroid"));
+
+		// Assert
+		ESNode actual = iterator.next();
+		Assert.assertFalse(iterator.hasNext());
+		Assert.assertEquals(node1, actual);
+	}
+
+	@Test
+	public void findIntersecting() {
+		// Setup
+		ESWay way1 = ESWay.Builder.create().id(1).addLocation(1.0, 1.0).addLocation(1.0, 3.0).build();
+		ESWay way2 = ESWay.Builder.create().id(2).addLocation(5.0, 5.0).addLocation(6.0, 6.0).build();
+		index(INDEX_NAME, way1, way2);
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESWay> iterator = entityDao.findIntersecting(ESWay.class,
+				ShapeBuilder.newEnvelope().topLeft(1.5, 2.0).bottomRight(2.5, 0.0), SourceFilter.ALL);
+
+		// Assert
+		Assert.assertEquals(way1, iterator.next());
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void findIntersecting_withTiledWay() {
+		// Setup
+		index(INDEX_NAME, ESNode.Builder.create().id(1).location(0.5, 0.5).build(),
+				ESNode.Builder.create().id(2).location(0.5, 2.5).build(),
+				ESNode.Builder.create().id(3).location(2.5, 2.5).build());
+		refresh(INDEX_NAME);
+		entityDao.setShapeTiling(new ShapeTiler(1), 2);
+		entityDao.save(OsmDataBuilder.buildSampleWay(1, 1, 2, 3));
+		refresh(INDEX_NAME);
+
+		// Action
+		ScrollIterator<ESWay> iterator = entityDao.findIntersecting(ESWay.class,
+				ShapeBuilder.newEnvelope().topLeft(2.1, 2.9).bottomRight(2.9, 2.1), SourceFilter.ALL);
+		ScrollIterator<ESWay> outside = entityDao.findIntersecting(ESWay.class,
+				ShapeBuilder.newEnvelope().topLeft(1.1, 1.9).bottomRight(1.9, 1.1), SourceFilter.ALL);
+
+		// Assert
+		ESWay actual = iterator.next();
+		Assert.assertEquals(1, actual.getId());
+		Assert.assertEquals(5, actual.getTileCount());
+		Assert.assertEquals(3, actual.getCoordinates().length);
+		Assert.assertFalse(iterator.hasNext());
+		Assert.assertFalse(outside.hasNext());
+		Assert.assertEquals(5, client().prepareSearch(INDEX_NAME).setTypes(ESWayTile.TYPE).setSize(0)
+				.execute().actionGet().getHits().getTotalHits());
+	}
+
 	/* delete */
 
 	@Test
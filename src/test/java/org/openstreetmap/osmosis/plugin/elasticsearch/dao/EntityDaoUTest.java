@@ -3,6 +3,7 @@ package org.openstreetmap.osmosis.plugin.elasticsearch.dao;
 import java.util.*;
 
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
@@ -10,17 +11,21 @@ import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetAction;
 import org.elasticsearch.action.get.MultiGetItemResponse;
 import org.elasticsearch.action.get.MultiGetRequest.Item;
 import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.openstreetmap.osmosis.core.domain.v0_6.*;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESEntity;
@@ -29,6 +34,8 @@ import org.openstreetmap.osmosis.plugin.elasticsearch.model.entity.ESNode;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape.ESShapeBuilder;
 import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.FlatNodeLocationStore;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.NodeLocations;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -121,17 +128,17 @@ public class EntityDaoUTest {
 		// Setup
 		Node node = OsmDataBuilder.buildSampleNode();
 
-		Iterator<MultiGetItemResponse> iteratorMocked = mock(Iterator.class);
-		doReturn(iteratorMocked).when(entityDao).getNodeItems(any(List.class));
+		NodeLocations locationsMocked = mock(NodeLocations.class);
+		doReturn(locationsMocked).when(entityDao).getNodeItems(any(List.class));
 
 		ESShape builder = new ESShapeBuilder(1).addLocation(1.0, 2.0).build();
-		doReturn(builder).when(entityDao).getShape(iteratorMocked, 1);
+		doReturn(builder).when(entityDao).getShape(any(Way.class), eq(locationsMocked));
 
 		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
 		when(clientMocked.prepareBulk()).thenReturn(bulkRequestBuilderMocked);
 
 		IndexRequestBuilder indexRequestBuilderMocked = mock(IndexRequestBuilder.class);
-		when(indexRequestBuilderMocked.setSource(any(String.class))).thenReturn(indexRequestBuilderMocked);
+		when(indexRequestBuilderMocked.setSource(any(BytesReference.class))).thenReturn(indexRequestBuilderMocked);
 		when(clientMocked.prepareIndex(any(String.class), any(String.class), any(String.class)))
 				.thenReturn(indexRequestBuilderMocked);
 
@@ -141,9 +148,9 @@ public class EntityDaoUTest {
 		// Assert
 		String source = "{\"centroid\":[2.0,1.0],\"shape\":{\"type\":\"point\",\"coordinates\":[2.0,1.0]},\"tags\":{\"highway\":\"traffic_signals\"}}";
 		verify(clientMocked).prepareIndex(INDEX_NAME, ESEntityType.NODE.getIndiceName(), "1");
-		verify(indexRequestBuilderMocked).setSource(source);
+		verify(indexRequestBuilderMocked).setSource(new BytesArray(source));
 		verify(bulkRequestBuilderMocked).add(indexRequestBuilderMocked);
-		verify(entityDao).executeBulkRequest(bulkRequestBuilderMocked);
+		verify(entityDao).executeBulkRequest(bulkRequestBuilderMocked, null);
 	}
 
 	@Test
@@ -151,18 +158,18 @@ public class EntityDaoUTest {
 		// Setup
 		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2, 3, 4);
 
-		Iterator<MultiGetItemResponse> iteratorMocked = mock(Iterator.class);
-		doReturn(iteratorMocked).when(entityDao).getNodeItems(any(List.class));
+		NodeLocations locationsMocked = mock(NodeLocations.class);
+		doReturn(locationsMocked).when(entityDao).getNodeItems(any(List.class));
 
 		ESShape builder = new ESShapeBuilder(1).addLocation(1.0, 2.0).addLocation(2.0, 3.0)
 				.addLocation(3.0, 2.0).addLocation(1.0, 2.0).build();
-		doReturn(builder).when(entityDao).getShape(iteratorMocked, 4);
+		doReturn(builder).when(entityDao).getShape(way, locationsMocked);
 
 		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
 		when(clientMocked.prepareBulk()).thenReturn(bulkRequestBuilderMocked);
 
 		IndexRequestBuilder indexRequestBuilderMocked = mock(IndexRequestBuilder.class);
-		when(indexRequestBuilderMocked.setSource(any(String.class))).thenReturn(indexRequestBuilderMocked);
+		when(indexRequestBuilderMocked.setSource(any(BytesReference.class))).thenReturn(indexRequestBuilderMocked);
 		when(clientMocked.prepareIndex(any(String.class), any(String.class), any(String.class)))
 				.thenReturn(indexRequestBuilderMocked);
 
@@ -173,12 +180,96 @@ public class EntityDaoUTest {
 		// Assert
 		verify(entityDao).getNodeItems(ways);
 		String source = "{\"centroid\":[2.3333333333333335,2.0],\"lengthKm\":536.8973391277414," +
-				"\"areaKm2\":12364.345757132623,\"shape\":{\"type\":\"polygon\",\"coordinates\":" +
+				"\"areaKm2\":12364.345757132623," +
+				"\"bbox\":{\"minLon\":2.0,\"minLat\":1.0,\"maxLon\":3.0,\"maxLat\":3.0},\"shape\":{\"type\":\"polygon\",\"coordinates\":" +
 				"[[[2.0,1.0],[3.0,2.0],[2.0,3.0],[2.0,1.0]]]},\"tags\":{\"highway\":\"residential\"}}";
 		verify(clientMocked).prepareIndex(INDEX_NAME, ESEntityType.WAY.getIndiceName(), "1");
-		verify(indexRequestBuilderMocked).setSource(source);
+		verify(indexRequestBuilderMocked).setSource(new BytesArray(source));
 		verify(bulkRequestBuilderMocked).add(indexRequestBuilderMocked);
-		verify(entityDao).executeBulkRequest(bulkRequestBuilderMocked);
+		verify(entityDao).executeBulkRequest(bulkRequestBuilderMocked, null);
+	}
+
+	@Test
+	public void splitWays() {
+		// Setup
+		entityDao.setNodeChunking(4, 1);
+		Way way1 = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		Way way2 = OsmDataBuilder.buildSampleWay(2, 2, 3);
+		Way way3 = OsmDataBuilder.buildSampleWay(3, 1, 2, 3, 4, 5);
+		Way way4 = OsmDataBuilder.buildSampleWay(4, 5, 6);
+
+		// Action
+		List<List<Way>> actual = entityDao.splitWays(Arrays.asList(way1, way2, way3, way4));
+
+		// Assert
+		Assert.assertEquals(3, actual.size());
+		Assert.assertEquals(Arrays.asList(way1, way2), actual.get(0));
+		Assert.assertEquals(Arrays.asList(way3), actual.get(1));
+		Assert.assertEquals(Arrays.asList(way4), actual.get(2));
+	}
+
+	@Test
+	public void saveAllWays_withSeveralChunks() {
+		// Setup
+		entityDao.setNodeChunking(2, 1);
+		Way way1 = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		Way way2 = OsmDataBuilder.buildSampleWay(2, 3, 4);
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
+		ListenableActionFuture<MultiGetResponse> listenableActionFutureMocked = mock(ListenableActionFuture.class);
+		when(multiGetRequestBuilderMocked.execute()).thenReturn(listenableActionFutureMocked);
+		MultiGetResponse multiGetResponseMocked = mock(MultiGetResponse.class);
+		when(listenableActionFutureMocked.actionGet()).thenReturn(multiGetResponseMocked);
+		when(multiGetResponseMocked.iterator()).thenReturn(Collections.<MultiGetItemResponse> emptyList().iterator());
+
+		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
+		when(clientMocked.prepareBulk()).thenReturn(bulkRequestBuilderMocked);
+		IndexRequestBuilder indexRequestBuilderMocked = mock(IndexRequestBuilder.class);
+		when(indexRequestBuilderMocked.setSource(any(BytesReference.class))).thenReturn(indexRequestBuilderMocked);
+		when(clientMocked.prepareIndex(any(String.class), any(String.class), any(String.class)))
+				.thenReturn(indexRequestBuilderMocked);
+
+		// Action
+		entityDao.saveAllWays(Arrays.asList(way1, way2));
+
+		// Assert
+		verify(multiGetRequestBuilderMocked, times(2)).execute();
+		verify(entityDao, never()).getNodeItems(any(List.class));
+		verify(clientMocked, times(1)).prepareBulk();
+		verify(entityDao).executeBulkRequest(bulkRequestBuilderMocked, null);
+	}
+
+	@Test
+	public void saveAllWays_withSeveralChunksAndFailedChunk() {
+		// Setup
+		entityDao.setNodeChunking(2, 1);
+		Way way1 = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		Way way2 = OsmDataBuilder.buildSampleWay(2, 3, 4);
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
+		ListenableActionFuture<MultiGetResponse> listenableActionFutureMocked = mock(ListenableActionFuture.class);
+		when(multiGetRequestBuilderMocked.execute()).thenReturn(listenableActionFutureMocked);
+		MultiGetResponse multiGetResponseMocked = mock(MultiGetResponse.class);
+		when(listenableActionFutureMocked.actionGet()).thenThrow(new ElasticsearchException("Timeout"))
+				.thenReturn(multiGetResponseMocked);
+		when(multiGetResponseMocked.iterator()).thenReturn(Collections.<MultiGetItemResponse> emptyList().iterator());
+
+		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
+		when(clientMocked.prepareBulk()).thenReturn(bulkRequestBuilderMocked);
+		IndexRequestBuilder indexRequestBuilderMocked = mock(IndexRequestBuilder.class);
+		when(indexRequestBuilderMocked.setSource(any(BytesReference.class))).thenReturn(indexRequestBuilderMocked);
+		when(clientMocked.prepareIndex(any(String.class), any(String.class), any(String.class)))
+				.thenReturn(indexRequestBuilderMocked);
+
+		// Action
+		entityDao.saveAllWays(Arrays.asList(way1, way2));
+
+		// Assert
+		verify(listenableActionFutureMocked, times(2)).actionGet();
+		verify(entityDao).executeBulkRequest(bulkRequestBuilderMocked, null);
+		Assert.assertEquals(1, entityDao.getAndResetFailureCount());
 	}
 
 	@Test
@@ -193,42 +284,199 @@ public class EntityDaoUTest {
 		when(multiGetRequestBuilderMocked.execute()).thenReturn(listenableActionFutureMocked);
 		MultiGetResponse multiGetResponseMocked = mock(MultiGetResponse.class);
 		when(listenableActionFutureMocked.actionGet()).thenReturn(multiGetResponseMocked);
-		Iterator<MultiGetItemResponse> iteratorMocked = mock(Iterator.class);
-		when(multiGetResponseMocked.iterator()).thenReturn(iteratorMocked);
+		GetResponse responseMocked = mock(GetResponse.class);
+		when(responseMocked.isExists()).thenReturn(true);
+		when(responseMocked.getId()).thenReturn("1");
+		when(responseMocked.getSourceAsBytesRef()).thenReturn(new BytesArray("{\"shape\":{\"coordinates\":[2.0,1.0]}}"));
+		MultiGetItemResponse itemMocked = mock(MultiGetItemResponse.class);
+		when(itemMocked.getResponse()).thenReturn(responseMocked);
+		when(multiGetResponseMocked.iterator()).thenReturn(Arrays.asList(itemMocked).iterator());
 
 		// Action
-		Iterator<MultiGetItemResponse> actual = entityDao.getNodeItems(Arrays.asList(way));
+		NodeLocations actual = entityDao.getNodeItems(Arrays.asList(way));
 
 		// Assert
 		Item item = new Item(INDEX_NAME, ESEntityType.NODE.getIndiceName(), "1");
 		verify(multiGetRequestBuilderMocked).add(argThat(new ItemMatcher(item)));
 		verify(multiGetRequestBuilderMocked, times(1)).execute();
-		Assert.assertSame(iteratorMocked, actual);
+		verify(responseMocked, never()).getSource();
+		Assert.assertEquals(1, actual.size());
+		Assert.assertEquals(1.0, actual.getLatitude(actual.indexOf(1)), 0);
+		Assert.assertEquals(2.0, actual.getLongitude(actual.indexOf(1)), 0);
 	}
 
 	@Test
-	public void getLocationArrayBuilder() {
+	public void buildNodeItemsRequest_fetchesCoordinatesOnly() {
 		// Setup
-		GetResponse response1 = mock(GetResponse.class, Mockito.RETURNS_DEEP_STUBS);
-		when(response1.isExists()).thenReturn(true);
-		Map<String, Object> map1 = mock(Map.class);
-		when(response1.getSource().get("shape")).thenReturn(map1);
-		when(map1.get("coordinates")).thenReturn(Arrays.asList(2.0, 1.0));
+		Way way = OsmDataBuilder.buildSampleWay(1, 1);
 
-		GetResponse response2 = mock(GetResponse.class, Mockito.RETURNS_DEEP_STUBS);
-		when(response2.isExists()).thenReturn(true);
-		Map<String, Object> map2 = mock(Map.class);
-		when(response2.getSource().get("shape")).thenReturn(map2);
-		when(map2.get("coordinates")).thenReturn(Arrays.asList(4.0, 3.0));
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
 
-		MultiGetItemResponse multiGetItemResponseMocked = mock(MultiGetItemResponse.class);
-		when(multiGetItemResponseMocked.getResponse()).thenReturn(response1, response2);
+		// Action
+		entityDao.buildNodeItemsRequest(Arrays.asList(way), new NodeLocations());
+
+		// Assert
+		ArgumentCaptor<Item> captor = ArgumentCaptor.forClass(Item.class);
+		verify(multiGetRequestBuilderMocked).add(captor.capture());
+		Assert.assertArrayEquals(new String[] { "shape.coordinates" }, captor.getValue().fetchSourceContext().includes());
+	}
+
+	@Test
+	public void buildNodeItemsRequest_withCacheFetchesWholeDocuments() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1);
+		entityDao.setEntityCache(new EntityCache(10));
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
+
+		// Action
+		entityDao.buildNodeItemsRequest(Arrays.asList(way), new NodeLocations());
+
+		// Assert
+		ArgumentCaptor<Item> captor = ArgumentCaptor.forClass(Item.class);
+		verify(multiGetRequestBuilderMocked).add(captor.capture());
+		Assert.assertNull(captor.getValue().fetchSourceContext());
+	}
+
+	@Test
+	public void buildNodeItemsRequest_withSharedNodes() {
+		// Setup
+		Way way1 = OsmDataBuilder.buildSampleWay(1, 1, 2, 3, 1);
+		Way way2 = OsmDataBuilder.buildSampleWay(2, 3, 4);
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
+
+		// Action
+		entityDao.buildNodeItemsRequest(Arrays.asList(way1, way2), new NodeLocations());
+
+		// Assert
+		verify(multiGetRequestBuilderMocked, times(4)).add(any(Item.class));
+		for (String id : new String[] { "1", "2", "3", "4" }) {
+			Item item = new Item(INDEX_NAME, ESEntityType.NODE.getIndiceName(), id);
+			verify(multiGetRequestBuilderMocked).add(argThat(new ItemMatcher(item)));
+		}
+	}
+
+	@Test
+	public void getNodeItems_withCache() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		EntityCache entityCache = new EntityCache(10);
+		ESNode node1 = ESNode.Builder.create().id(1).location(1.0, 2.0).build();
+		entityCache.put(node1);
+		entityDao.setEntityCache(entityCache);
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
+
+		ListenableActionFuture<MultiGetResponse> listenableActionFutureMocked = mock(ListenableActionFuture.class);
+		when(multiGetRequestBuilderMocked.execute()).thenReturn(listenableActionFutureMocked);
+		MultiGetResponse multiGetResponseMocked = mock(MultiGetResponse.class);
+		when(listenableActionFutureMocked.actionGet()).thenReturn(multiGetResponseMocked);
+		ESNode node2 = ESNode.Builder.create().id(2).location(2.0, 3.0).build();
+		MultiGetItemResponse itemMocked = mockNodeItem(node2);
+		when(multiGetResponseMocked.iterator()).thenReturn(Arrays.asList(itemMocked).iterator());
+
+		// Action
+		NodeLocations actual = entityDao.getNodeItems(Arrays.asList(way));
 
-		Iterator<MultiGetItemResponse> iteratorMocked = mock(Iterator.class);
-		when(iteratorMocked.next()).thenReturn(multiGetItemResponseMocked);
+		// Assert
+		Item item = new Item(INDEX_NAME, ESEntityType.NODE.getIndiceName(), "2");
+		verify(multiGetRequestBuilderMocked, times(1)).add(any(Item.class));
+		verify(multiGetRequestBuilderMocked).add(argThat(new ItemMatcher(item)));
+		Assert.assertTrue(actual.contains(1));
+		Assert.assertTrue(actual.contains(2));
+		Assert.assertEquals(1, entityCache.getHitCount());
+		Assert.assertEquals(1, entityCache.getMissCount());
+		Assert.assertEquals(node2, entityCache.get(ESEntityType.NODE, 2));
+	}
+
+	@Test
+	public void getNodeItems_withAllNodesCached() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1);
+		EntityCache entityCache = new EntityCache(10);
+		entityCache.put(ESNode.Builder.create().id(1).location(1.0, 2.0).build());
+		entityDao.setEntityCache(entityCache);
 
 		// Action
-		ESShape actual = entityDao.getShape(iteratorMocked, 2);
+		NodeLocations actual = entityDao.getNodeItems(Arrays.asList(way));
+
+		// Assert
+		verify(clientMocked, never()).prepareMultiGet();
+		Assert.assertEquals(1, actual.size());
+	}
+
+	@Test
+	public void getNodeItems_withNodeLocationStore() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		FlatNodeLocationStore store = FlatNodeLocationStore.createTemporary();
+		entityDao.setNodeLocationStore(store);
+
+		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
+		when(clientMocked.prepareBulk()).thenReturn(bulkRequestBuilderMocked);
+		IndexRequestBuilder indexRequestBuilderMocked = mock(IndexRequestBuilder.class);
+		when(indexRequestBuilderMocked.setSource(any(BytesReference.class))).thenReturn(indexRequestBuilderMocked);
+		when(clientMocked.prepareIndex(any(String.class), any(String.class), any(String.class)))
+				.thenReturn(indexRequestBuilderMocked);
+		doNothing().when(entityDao).executeBulkRequest(bulkRequestBuilderMocked, null);
+
+		try {
+			// Action
+			entityDao.saveAllNodes(Arrays.asList(OsmDataBuilder.buildSampleNode(1), OsmDataBuilder.buildSampleNode(2)));
+			NodeLocations actual = entityDao.getNodeItems(Arrays.asList(way));
+
+			// Assert
+			verify(clientMocked, never()).prepareMultiGet();
+			Assert.assertTrue(entityDao.resolvesNodesLocally());
+			Assert.assertEquals(2, actual.size());
+			Assert.assertEquals(1.0, actual.getLatitude(actual.indexOf(2)), 0.0);
+			Assert.assertEquals(2.0, actual.getLongitude(actual.indexOf(2)), 0.0);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void buildNodeItemsRequest_withNodeMissingFromStore() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		FlatNodeLocationStore store = FlatNodeLocationStore.createTemporary();
+		store.put(1, 1.0, 2.0);
+		entityDao.setNodeLocationStore(store);
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		when(clientMocked.prepareMultiGet()).thenReturn(multiGetRequestBuilderMocked);
+		NodeLocations locations = new NodeLocations();
+
+		try {
+			// Action
+			entityDao.buildNodeItemsRequest(Arrays.asList(way), locations);
+
+			// Assert
+			Item item = new Item(INDEX_NAME, ESEntityType.NODE.getIndiceName(), "2");
+			verify(multiGetRequestBuilderMocked, times(1)).add(any(Item.class));
+			verify(multiGetRequestBuilderMocked).add(argThat(new ItemMatcher(item)));
+			Assert.assertTrue(locations.contains(1));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void getShape() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		NodeLocations locations = new NodeLocations();
+		locations.put(1, 1.0, 2.0);
+		locations.put(2, 3.0, 4.0);
+
+		// Action
+		ESShape actual = entityDao.getShape(way, locations);
 
 		// Assert
 		Assert.assertTrue(Arrays.deepEquals(new double[][] {
@@ -238,32 +486,71 @@ public class EntityDaoUTest {
 	}
 
 	@Test
-	public void getLocationArrayBuilder_withNotExistingResponse() {
+	public void getShape_withMissingNode() {
 		// Setup
-		GetResponse response1 = mock(GetResponse.class, Mockito.RETURNS_DEEP_STUBS);
-		when(response1.isExists()).thenReturn(true);
-		Map<String, Object> map1 = mock(Map.class);
-		when(response1.getSource().get("shape")).thenReturn(map1);
-		when(map1.get("coordinates")).thenReturn(Arrays.asList(2.0, 1.0));
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2);
+		NodeLocations locations = new NodeLocations();
+		locations.put(1, 1.0, 2.0);
 
-		GetResponse response2 = mock(GetResponse.class, Mockito.RETURNS_DEEP_STUBS);
-		when(response2.isExists()).thenReturn(false);
+		// Action
+		ESShape actual = entityDao.getShape(way, locations);
 
-		MultiGetItemResponse multiGetItemResponseMocked = mock(MultiGetItemResponse.class);
-		when(multiGetItemResponseMocked.getResponse()).thenReturn(response1, response2);
+		// Assert
+		Assert.assertTrue(Arrays.deepEquals(new double[][] {
+				new double[] { 2.0, 1.0 }
+		}, actual.getGeoJsonArray()));
+	}
 
-		Iterator<MultiGetItemResponse> iteratorMocked = mock(Iterator.class);
-		when(iteratorMocked.next()).thenReturn(multiGetItemResponseMocked);
+	@Test
+	public void getShape_withSimplification() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2, 3);
+		NodeLocations locations = new NodeLocations();
+		locations.put(1, 1.0, 2.0);
+		locations.put(2, 1.5, 2.5000001);
+		locations.put(3, 2.0, 3.0);
+		entityDao.setShapeSimplification(1, 3, false);
 
 		// Action
-		ESShape actual = entityDao.getShape(iteratorMocked, 2);
+		ESShape actual = entityDao.getShape(way, locations);
 
 		// Assert
+		Assert.assertTrue(actual.isSimplified());
 		Assert.assertTrue(Arrays.deepEquals(new double[][] {
-				new double[] { 2.0, 1.0 }
+				new double[] { 2.0, 1.0 },
+				new double[] { 3.0, 2.0 }
 		}, actual.getGeoJsonArray()));
 	}
 
+	@Test
+	public void getShape_withSimplificationAndSmallWay() {
+		// Setup
+		Way way = OsmDataBuilder.buildSampleWay(1, 1, 2, 3);
+		NodeLocations locations = new NodeLocations();
+		locations.put(1, 1.0, 2.0);
+		locations.put(2, 1.5, 2.5000001);
+		locations.put(3, 2.0, 3.0);
+		entityDao.setShapeSimplification(1, 4, false);
+
+		// Action
+		ESShape actual = entityDao.getShape(way, locations);
+
+		// Assert
+		Assert.assertFalse(actual.isSimplified());
+		Assert.assertEquals(3, actual.getGeoJsonArray().length);
+	}
+
+	private MultiGetItemResponse mockNodeItem(ESNode node) {
+		GetResponse response = mock(GetResponse.class);
+		when(response.isExists()).thenReturn(true);
+		when(response.getType()).thenReturn(ESEntityType.NODE.getIndiceName());
+		when(response.getId()).thenReturn(node.getIdString());
+		when(response.getSourceAsBytesRef()).thenReturn(node.toJsonBytes());
+		MultiGetItemResponse item = mock(MultiGetItemResponse.class);
+		when(item.getResponse()).thenReturn(response);
+		return item;
+	}
+
 	@Test
 	public void executeBulkRequest() {
 		// Setup
@@ -277,7 +564,7 @@ public class EntityDaoUTest {
 		when(bulkResponseMocked.hasFailures()).thenReturn(false);
 
 		// Action
-		entityDao.executeBulkRequest(bulkRequestBuilderMocked);
+		entityDao.executeBulkRequest(bulkRequestBuilderMocked, null);
 
 		// Assert
 		verify(bulkRequestBuilderMocked, times(1)).execute();
@@ -304,11 +591,46 @@ public class EntityDaoUTest {
 		when(iteratorMocked.next()).thenReturn(response1);
 
 		// Action
-		entityDao.executeBulkRequest(bulkRequestBuilderMocked);
+		entityDao.executeBulkRequest(bulkRequestBuilderMocked, null);
 
 		// Assert
 		verify(bulkRequestBuilderMocked, times(1)).execute();
 		verify(bulkResponseMocked, times(1)).iterator();
+		Assert.assertEquals(1, entityDao.getAndResetFailureCount());
+		Assert.assertEquals(0, entityDao.getAndResetFailureCount());
+	}
+
+	@Test
+	public void executeBulkRequest_withListener() {
+		// Setup
+		EntityListener entityListenerMocked = mock(EntityListener.class);
+		entityDao.addEntityListener(entityListenerMocked);
+		ESEntity indexed = mock(ESEntity.class);
+		ESEntity rejected = mock(ESEntity.class);
+
+		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
+		when(bulkRequestBuilderMocked.numberOfActions()).thenReturn(3);
+		ListenableActionFuture<BulkResponse> listenableActionFutureMocked = mock(ListenableActionFuture.class);
+		when(bulkRequestBuilderMocked.execute()).thenReturn(listenableActionFutureMocked);
+		BulkResponse bulkResponseMocked = mock(BulkResponse.class);
+		when(listenableActionFutureMocked.actionGet()).thenReturn(bulkResponseMocked);
+		when(bulkResponseMocked.hasFailures()).thenReturn(true);
+		BulkItemResponse response1 = mock(BulkItemResponse.class);
+		when(response1.getItemId()).thenReturn(0);
+		BulkItemResponse response2 = mock(BulkItemResponse.class);
+		when(response2.getItemId()).thenReturn(1);
+		BulkItemResponse response3 = mock(BulkItemResponse.class);
+		when(response3.getItemId()).thenReturn(2);
+		when(response3.isFailed()).thenReturn(true);
+		when(bulkResponseMocked.iterator()).thenReturn(Arrays.asList(response1, response2, response3).iterator());
+
+		// Action
+		entityDao.executeBulkRequest(bulkRequestBuilderMocked, Arrays.asList(indexed, null, rejected));
+
+		// Assert
+		verify(entityListenerMocked, times(1)).onEntity(indexed);
+		verify(entityListenerMocked, never()).onEntity(rejected);
+		Assert.assertEquals(1, entityDao.getAndResetFailureCount());
 	}
 
 	@Test
@@ -318,10 +640,40 @@ public class EntityDaoUTest {
 		when(bulkRequestBuilderMocked.numberOfActions()).thenReturn(0);
 
 		// Action
-		entityDao.executeBulkRequest(bulkRequestBuilderMocked);
+		entityDao.executeBulkRequest(bulkRequestBuilderMocked, null);
+
+		// Assert
+		verify(bulkRequestBuilderMocked, times(0)).execute();
+	}
+
+	@Test
+	public void executeBulkRequest_asynchronous() throws Exception {
+		// Setup
+		final EntityDao asyncEntityDao = new EntityDao(INDEX_NAME, clientMocked, 1);
+		BulkRequestBuilder bulkRequestBuilderMocked = mock(BulkRequestBuilder.class);
+		when(bulkRequestBuilderMocked.numberOfActions()).thenReturn(1);
+		BulkResponse bulkResponseMocked = mock(BulkResponse.class);
+		when(bulkResponseMocked.hasFailures()).thenReturn(false);
+
+		// Action
+		asyncEntityDao.executeBulkRequest(bulkRequestBuilderMocked, null);
+		Thread awaiting = new Thread() {
+			@Override
+			public void run() {
+				asyncEntityDao.awaitPendingRequests();
+			}
+		};
+		awaiting.start();
+		awaiting.join(100);
 
 		// Assert
+		Assert.assertTrue(awaiting.isAlive());
+		ArgumentCaptor<ActionListener> listener = ArgumentCaptor.forClass(ActionListener.class);
+		verify(bulkRequestBuilderMocked, times(1)).execute(listener.capture());
 		verify(bulkRequestBuilderMocked, times(0)).execute();
+		listener.getValue().onResponse(bulkResponseMocked);
+		awaiting.join(1000);
+		Assert.assertFalse(awaiting.isAlive());
 	}
 
 	/* FIND */
@@ -361,6 +713,47 @@ public class EntityDaoUTest {
 		Assert.assertEquals(Arrays.asList(node1, node2), nodes);
 	}
 
+	@Test
+	public void findAll_withCache() {
+		// Setup
+		EntityCache entityCache = new EntityCache(10);
+		ESNode node1 = ESNode.Builder.create().id(1).location(1.0, 2.0).build();
+		ESNode node2 = ESNode.Builder.create().id(2).location(2.0, 3.0).build();
+		entityCache.put(node2);
+		entityDao.setEntityCache(entityCache);
+
+		MultiGetRequestBuilder multiGetRequestBuilderMocked = mock(MultiGetRequestBuilder.class);
+		doReturn(multiGetRequestBuilderMocked).when(entityDao).buildMultiGetRequest(ESNode.class, 1);
+		doReturn(Arrays.asList(node1)).when(entityDao).executeMultiGetRequest(ESNode.class, multiGetRequestBuilderMocked);
+
+		// Action
+		List<ESNode> nodes = entityDao.findAll(ESNode.class, 2, 1);
+
+		// Assert
+		verify(entityDao).buildMultiGetRequest(ESNode.class, 1);
+		Assert.assertEquals(Arrays.asList(node2, node1), nodes);
+		Assert.assertSame(node1, entityCache.get(ESEntityType.NODE, 1));
+	}
+
+	@Test
+	public void findAll_withSourceFilterBypassesCache() {
+		// Setup
+		EntityCache entityCache = new EntityCache(10);
+		entityCache.put(ESNode.Builder.create().id(1).location(1.0, 2.0).build());
+		entityDao.setEntityCache(entityCache);
+
+		MultiGetRequestBuilder multiGetRequestBuilder = new MultiGetRequestBuilder(clientMocked, MultiGetAction.INSTANCE);
+		doReturn(multiGetRequestBuilder).when(entityDao).buildMultiGetRequest(ESNode.class, 1);
+		doReturn(Collections.emptyList()).when(entityDao).executeMultiGetRequest(ESNode.class, multiGetRequestBuilder);
+
+		// Action
+		entityDao.findAll(ESNode.class, SourceFilter.CENTROID_AND_TAGS, 1);
+
+		// Assert
+		verify(entityDao).executeMultiGetRequest(ESNode.class, multiGetRequestBuilder);
+		Assert.assertEquals(0, entityCache.getHitCount());
+	}
+
 	@Test
 	public void findAll_withEmptyArray() {
 		// Action
@@ -502,6 +895,25 @@ public class EntityDaoUTest {
 		assertTrue(actual);
 	}
 
+	@Test
+	public void delete_withCache() {
+		// Setup
+		EntityCache entityCache = new EntityCache(10);
+		entityCache.put(ESNode.Builder.create().id(1).location(1.0, 2.0).build());
+		entityDao.setEntityCache(entityCache);
+		DeleteRequestBuilder deleteRequestBuilder = mock(DeleteRequestBuilder.class);
+		when(clientMocked.prepareDelete(any(String.class), any(String.class), any(String.class))).thenReturn(deleteRequestBuilder);
+		ListenableActionFuture<DeleteResponse> listenableActionFutureMocked = mock(ListenableActionFuture.class);
+		when(deleteRequestBuilder.execute()).thenReturn(listenableActionFutureMocked);
+		when(listenableActionFutureMocked.actionGet()).thenReturn(mock(DeleteResponse.class));
+
+		// Action
+		entityDao.delete(ESNode.class, 1l);
+
+		// Assert
+		Assert.assertEquals(0, entityCache.size());
+	}
+
 	@Test
 	public void delete_withNotFoundDocument() {
 		// Setup
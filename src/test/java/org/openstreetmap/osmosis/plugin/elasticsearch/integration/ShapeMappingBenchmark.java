@@ -0,0 +1,150 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.integration;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.Osmosis;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.AbstractElasticSearchInMemoryTest;
+import org.openstreetmap.osmosis.xml.common.CompressionMethod;
+import org.openstreetmap.osmosis.xml.v0_6.XmlReader;
+
+/**
+ * Compare the indexing cost of the geo_shape mapping settings of the
+ * <code>shape</code> field on the test extract.
+ * <p>
+ * Not part of the test suites, run it with the benchmark profile:
+ * <code>mvn test -Pbenchmark [-Dbenchmark.runs=3]</code>. Each setting is
+ * given as plugin arguments, and the best indexing time and the index size
+ * per vertex are printed for each of them.
+ */
+public class ShapeMappingBenchmark extends AbstractElasticSearchInMemoryTest {
+
+	private static final String INDEX_NAME = "osm-benchmark";
+	private static final String FILENAME = "mondeville-20130123.osm";
+	private static final int RUNS = Integer.getInteger("benchmark.runs", 1);
+
+	private static final List<Setting> SETTINGS = Arrays.asList(
+			new Setting(false),
+			new Setting(false, "index.mapping.shape.tree=geohash", "index.mapping.shape.precision=50m"),
+			new Setting(false, "index.mapping.shape.tree=quadtree", "index.mapping.shape.precision=50m"),
+			new Setting(false, "index.mapping.shape.tree=quadtree", "index.mapping.shape.precision=10m"),
+			new Setting(false, "index.mapping.shape.tree=quadtree", "index.mapping.shape.precision=1m"),
+			new Setting(false, "index.mapping.shape.tree=quadtree", "index.mapping.shape.precision=10m",
+					"index.mapping.shape.distance_error_pct=0.1"),
+			// points_only needs an index without ways, so compare on nodes only
+			new Setting(true, "index.mapping.shape.tree=quadtree", "index.mapping.shape.precision=10m"),
+			new Setting(true, "index.mapping.shape.tree=quadtree", "index.mapping.shape.precision=10m",
+					"index.mapping.shape.points_only=true"));
+
+	@Test
+	public void benchmark() throws Exception {
+		// Setup
+		File file = getResourceFile(FILENAME);
+		long vertices = countVertices(file, false);
+		long nodes = countVertices(file, true);
+		System.out.println(String.format("%s: %d vertices, %d nodes, best of %d runs", FILENAME, vertices, nodes,
+				RUNS));
+		System.out.println(String.format("%-110s %10s %10s", "setting", "us/vertex", "B/vertex"));
+
+		for (Setting setting : SETTINGS) {
+			// Action
+			long bestTime = Long.MAX_VALUE;
+			long size = 0;
+			for (int run = 0; run < RUNS; run++) {
+				long start = System.nanoTime();
+				index(file, setting);
+				bestTime = Math.min(bestTime, System.nanoTime() - start);
+				size = getStoreSize();
+			}
+
+			// Report
+			long count = setting.nodesOnly ? nodes : vertices;
+			System.out.println(String.format("%-110s %10.2f %10.1f", setting, (double) bestTime / count / 1000,
+					(double) size / count));
+		}
+	}
+
+	private void index(File file, Setting setting) {
+		List<String> args = new ArrayList<String>(Arrays.asList("--read-xml", file.getPath()));
+		if (setting.nodesOnly) args.addAll(Arrays.asList("--tag-filter", "reject-ways", "--tag-filter",
+				"reject-relations"));
+		args.addAll(Arrays.asList(
+				"--write-elasticsearch",
+				"cluster.hosts=" + nodeAddress(),
+				"cluster.name=" + clusterName(),
+				"index.name=" + INDEX_NAME,
+				"index.create=true"));
+		args.addAll(Arrays.asList(setting.args));
+		Osmosis.run(args.toArray(new String[args.size()]));
+		refresh(INDEX_NAME);
+	}
+
+	private long getStoreSize() {
+		IndicesStatsResponse stats = client().admin().indices().prepareStats(INDEX_NAME).setStore(true)
+				.execute().actionGet();
+		return stats.getTotal().getStore().getSizeInBytes();
+	}
+
+	/**
+	 * @return The number of indexed vertices: one per node and, unless
+	 *         <code>nodesOnly</code>, one per way node reference
+	 */
+	private long countVertices(File file, final boolean nodesOnly) {
+		final long[] count = new long[1];
+		XmlReader reader = new XmlReader(file, false, CompressionMethod.None);
+		reader.setSink(new Sink() {
+			@Override
+			public void initialize(Map<String, Object> metaData) {}
+
+			@Override
+			public void process(EntityContainer entityContainer) {
+				Entity entity = entityContainer.getEntity();
+				if (entity.getType() == EntityType.Node) count[0]++;
+				else if (entity.getType() == EntityType.Way && !nodesOnly) count[0] += ((Way) entity).getWayNodes().size();
+			}
+
+			@Override
+			public void complete() {}
+
+			@Override
+			public void release() {}
+		});
+		reader.run();
+		return count[0];
+	}
+
+	private File getResourceFile(String filename) throws URISyntaxException {
+		URL url = getClass().getResource("/" + filename);
+		return new File(url.toURI());
+	}
+
+	private static class Setting {
+
+		private final boolean nodesOnly;
+		private final String[] args;
+
+		public Setting(boolean nodesOnly, String... args) {
+			this.nodesOnly = nodesOnly;
+			this.args = args;
+		}
+
+		@Override
+		public String toString() {
+			return (nodesOnly ? "nodes only " : "") + Arrays.toString(args);
+		}
+
+	}
+
+}
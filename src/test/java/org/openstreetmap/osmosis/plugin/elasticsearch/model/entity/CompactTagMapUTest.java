@@ -0,0 +1,89 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+public class CompactTagMapUTest {
+
+	@Test
+	public void copyOf() {
+		// Setup
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("highway", "primary");
+		expected.put("name", "Avenue des Champs-Élysées");
+
+		// Action
+		CompactTagMap actual = CompactTagMap.copyOf(Arrays.asList(
+				new Tag("highway", "primary"), new Tag("name", "Avenue des Champs-Élysées")));
+
+		// Assert
+		Assert.assertEquals(expected, actual);
+		Assert.assertEquals(expected.hashCode(), actual.hashCode());
+		Assert.assertEquals("primary", actual.get("highway"));
+		Assert.assertNull(actual.get("building"));
+	}
+
+	@Test
+	public void put_shouldKeepInsertionOrder() {
+		// Setup
+		CompactTagMap map = new CompactTagMap();
+
+		// Action
+		map.put("name", "Rue de Rivoli");
+		map.put("highway", "primary");
+		map.put("oneway", "yes");
+		String previous = map.put("name", "Rue de Rivoli (Paris)");
+
+		// Assert
+		Assert.assertEquals("Rue de Rivoli", previous);
+		Assert.assertEquals(3, map.size());
+		Iterator<String> keys = map.keySet().iterator();
+		Assert.assertEquals("name", keys.next());
+		Assert.assertEquals("highway", keys.next());
+		Assert.assertEquals("oneway", keys.next());
+		Assert.assertFalse(keys.hasNext());
+	}
+
+	@Test
+	public void remove() {
+		// Setup
+		CompactTagMap map = new CompactTagMap();
+		map.put("highway", "primary");
+		map.put("name", "Rue de Rivoli");
+		map.put("oneway", "yes");
+
+		// Action
+		String removed = map.remove("name");
+
+		// Assert
+		Assert.assertEquals("Rue de Rivoli", removed);
+		Assert.assertEquals(2, map.size());
+		Assert.assertFalse(map.containsKey("name"));
+		Assert.assertEquals("yes", map.get("oneway"));
+	}
+
+	@Test
+	public void put_shouldInternKeysAndCommonValues() {
+		// Setup
+		CompactTagMap map1 = new CompactTagMap();
+		CompactTagMap map2 = new CompactTagMap();
+
+		// Action
+		map1.put(new String("highway"), new String("residential"));
+		map2.put(new String("highway"), new String("residential"));
+
+		// Assert
+		Map.Entry<String, String> entry1 = map1.entrySet().iterator().next();
+		Map.Entry<String, String> entry2 = map2.entrySet().iterator().next();
+		Assert.assertSame(entry1.getKey(), entry2.getKey());
+		Assert.assertSame(entry1.getValue(), entry2.getValue());
+	}
+
+}
@@ -5,16 +5,16 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.GeoCells;
 
 public class ESNodeUTest {
 
@@ -42,20 +42,12 @@ public class ESNodeUTest {
 	@Test
 	public void buildFromGetReponse() {
 		// Setup
-		GetResponse response = mock(GetResponse.class, Mockito.RETURNS_DEEP_STUBS);
-		when(response.getType()).thenReturn(ESEntityType.NODE.getIndiceName());
-		when(response.getId()).thenReturn("1");
-		Map<String, String> tags = new HashMap<String, String>();
-		tags.put("highway", "primary");
-		when(response.getSource().get("tags")).thenReturn(tags);
-		List<Double> location = Arrays.asList(new Double[] { 2.0, 1.0 });
-		@SuppressWarnings("unchecked")
-		Map<String, Object> shape = mock(Map.class);
-		when(shape.get("coordinates")).thenReturn(location);
-		when(response.getSource().get("shape")).thenReturn(shape);
-
 		ESNode expected = ESNode.Builder.create().id(1l).location(1.0, 2.0)
 				.addTag("highway", "primary").build();
+		GetResponse response = mock(GetResponse.class);
+		when(response.getType()).thenReturn(ESEntityType.NODE.getIndiceName());
+		when(response.getId()).thenReturn("1");
+		when(response.getSourceAsBytesRef()).thenReturn(expected.toJsonBytes());
 
 		// Action
 		ESNode actual = ESNode.Builder.buildFromGetReponse(response);
@@ -102,4 +94,36 @@ public class ESNodeUTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	public void toJson_withGeoCells() {
+		// Setup
+		Node entity = mock(Node.class);
+		when(entity.getId()).thenReturn(1l);
+		when(entity.getLatitude()).thenReturn(57.64911);
+		when(entity.getLongitude()).thenReturn(10.40744);
+		when(entity.getTags()).thenReturn(new ArrayList<Tag>());
+		ESNode node = ESNode.Builder.buildFromEntity(entity, new GeoCells(3, 4));
+		String expected = "{\"centroid\":[10.40744,57.64911],\"shape\":{\"type\":\"point\"," +
+				"\"coordinates\":[10.40744,57.64911]},\"cells\":[\"u\",\"u4\",\"u4p\"],\"tags\":{}}";
+
+		// Action
+		String actual = node.toJson();
+
+		// Assert
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void toJsonBytes() {
+		// Setup
+		ESNode node = ESNode.Builder.create().id(1l).location(1.0, 2.0)
+				.addTag("highway", "traffic_signals").build();
+
+		// Action
+		BytesReference actual = node.toJsonBytes();
+
+		// Assert
+		assertEquals(new BytesArray(node.toJson()), actual);
+	}
+
 }
@@ -49,7 +49,8 @@ public class ESWayITest extends AbstractElasticSearchInMemoryTest {
 		GetResponse response = client().prepareGet(INDEX_NAME, ESEntityType.WAY.getIndiceName(), "40849832").execute().actionGet();
 		Assert.assertTrue(response.isExists());
 		String expected = "{\"centroid\":[2.37966091923039,48.67553114382843],\"lengthKm\":0.08489436252741311," +
-				"\"areaKm2\":0.0,\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
+				"\"areaKm2\":0.0," +
+				"\"bbox\":{\"minLon\":2.379358,\"minLat\":48.675288,\"maxLon\":2.379955,\"maxLat\":48.675763},\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
 				"[[2.379358,48.675763],[2.379606,48.675584],[2.379955,48.675288]]}," +
 				"\"tags\":{\"highway\":\"residential\",\"name\":\"Avenue Marc Sangnier\"}}";
 		String actual = response.getSourceAsString();
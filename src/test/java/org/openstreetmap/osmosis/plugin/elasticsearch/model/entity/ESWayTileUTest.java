@@ -0,0 +1,45 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape.ESShapeBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler.Tile;
+
+public class ESWayTileUTest {
+
+	@Test
+	public void toJson() {
+		// Setup
+		List<Tile> tiles = new ShapeTiler(1).clip(new ESShapeBuilder().addLocation(0.5, 0.5).addLocation(0.5, 1.5)
+				.build());
+		ESWayTile wayTile = new ESWayTile(42, tiles.get(1));
+
+		// Action
+		String actual = wayTile.toJson();
+
+		// Assert
+		Assert.assertEquals("42:1:0", wayTile.getIdString());
+		Assert.assertEquals("{\"way\":42,\"tile\":[1,0],\"shape\":{\"type\":\"linestring\",\"coordinates\":"
+				+ "[[1.0,0.5],[1.5,0.5]]}}", actual);
+	}
+
+	@Test
+	public void toJson_withMultiPolygon() {
+		// Setup: a U shape whose arms cross the same tile twice
+		List<Tile> tiles = new ShapeTiler(1).clip(new ESShapeBuilder().addLocation(0.5, 0.2).addLocation(1.5, 0.2)
+				.addLocation(1.5, 0.4).addLocation(0.8, 0.4).addLocation(0.8, 0.6).addLocation(1.5, 0.6)
+				.addLocation(1.5, 0.8).addLocation(0.5, 0.8).addLocation(0.5, 0.2).build());
+
+		// Action
+		String actual = new ESWayTile(1, tiles.get(1)).toJson();
+
+		// Assert
+		Assert.assertEquals(2, tiles.size());
+		Assert.assertTrue(actual.contains("\"shape\":{\"type\":\"multipolygon\",\"coordinates\":[[[["));
+	}
+
+}
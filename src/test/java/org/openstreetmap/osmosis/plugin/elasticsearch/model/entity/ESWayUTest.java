@@ -1,22 +1,24 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESLocation;
 import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape.ESShapeBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShapeType;
 
 public class ESWayUTest {
 
@@ -70,37 +72,58 @@ public class ESWayUTest {
 	@Test
 	public void buildFromGetReponse() {
 		// Setup
-		GetResponse response = mock(GetResponse.class, Mockito.RETURNS_DEEP_STUBS);
+		ESWay expected = ESWay.Builder.create().id(1l)
+				.addLocation(1.0, 2.0).addLocation(2.0, 3.0)
+				.addTag("highway", "primary").build();
+		GetResponse response = mock(GetResponse.class);
 		when(response.getType()).thenReturn(ESEntityType.WAY.getIndiceName());
 		when(response.getId()).thenReturn("1");
-		Map<String, String> tags = new HashMap<String, String>();
-		tags.put("highway", "primary");
-		when(response.getSource().get("tags")).thenReturn(tags);
-		List<List<List<Double>>> locations = new ArrayList<List<List<Double>>>();
-		ArrayList<List<Double>> subLocations = new ArrayList<List<Double>>();
-		subLocations.add(Arrays.asList(new Double[] { 2.0, 1.0 }));
-		subLocations.add(Arrays.asList(new Double[] { 3.0, 2.0 }));
-		locations.add(subLocations);
-		@SuppressWarnings("unchecked")
-		Map<String, Object> shape = mock(Map.class);
-		when(shape.get("type")).thenReturn("polygon");
-		when(shape.get("coordinates")).thenReturn(locations);
-		when(response.getSource().get("shape")).thenReturn(shape);
-		when(response.getSource().get("centroid")).thenReturn(Arrays.asList(new Double[] { 2.5, 1.5 }));
-		when(response.getSource().get("lengthKm")).thenReturn(157.25358982950198d);
-		when(response.getSource().get("areaKm2")).thenReturn(0d);
+		when(response.getSourceAsBytesRef()).thenReturn(expected.toJsonBytes());
+
+		// Action
+		ESWay actual = ESWay.Builder.buildFromGetReponse(response);
+
+		// Assert
+		assertEquals(expected, actual);
+	}
 
+	@Test
+	public void buildFromGetReponse_withPolygon() {
+		// Setup
 		ESWay expected = ESWay.Builder.create().id(1l)
-				.addLocation(1.0, 2.0).addLocation(2.0, 3.0)
-				.addTag("highway", "primary").build();
+				.addLocation(1.0, 2.0).addLocation(2.0, 3.0).addLocation(3.0, 2.0).addLocation(1.0, 2.0)
+				.addTag("building", "yes").build();
+		GetResponse response = mock(GetResponse.class);
+		when(response.getType()).thenReturn(ESEntityType.WAY.getIndiceName());
+		when(response.getId()).thenReturn("1");
+		when(response.getSourceAsBytesRef()).thenReturn(expected.toJsonBytes());
 
 		// Action
 		ESWay actual = ESWay.Builder.buildFromGetReponse(response);
 
 		// Assert
+		assertEquals(ESShapeType.POLYGON, actual.getShapeType());
+		assertEquals(expected.getCentroid(), actual.getCentroid());
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	public void buildFromGetReponse_withoutShape() {
+		// Setup
+		GetResponse response = mock(GetResponse.class);
+		when(response.getType()).thenReturn(ESEntityType.WAY.getIndiceName());
+		when(response.getId()).thenReturn("1");
+		when(response.getSourceAsBytesRef()).thenReturn(new BytesArray(
+				"{\"centroid\":[2.5,1.5],\"tags\":{\"highway\":\"primary\"}}"));
+
+		// Action
+		ESWay actual = ESWay.Builder.buildFromGetReponse(response);
+
+		// Assert
+		assertEquals(new ESLocation(1.5, 2.5), actual.getCentroid());
+		assertEquals("primary", actual.getTags().get("highway"));
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void buildFromGetReponse_withInvalidGetResponse() {
 		// Setup
@@ -132,7 +155,8 @@ public class ESWayUTest {
 				.addLocation(1.0, 2.0).addLocation(2.0, 3.0)
 				.addTag("highway", "primary").build();
 		String expected = "{\"centroid\":[2.5,1.5],\"lengthKm\":157.25358982950198," +
-				"\"areaKm2\":0.0,\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
+				"\"areaKm2\":0.0," +
+				"\"bbox\":{\"minLon\":2.0,\"minLat\":1.0,\"maxLon\":3.0,\"maxLat\":2.0},\"shape\":{\"type\":\"linestring\",\"coordinates\":" +
 				"[[2.0,1.0],[3.0,2.0]]},\"tags\":{\"highway\":\"primary\"}}";
 
 		// Action
@@ -150,7 +174,8 @@ public class ESWayUTest {
 				.addLocation(3.0, 2.0).addLocation(1.0, 2.0)
 				.addTag("highway", "primary").build();
 		String expected = "{\"centroid\":[2.3333333333333335,2.0],\"lengthKm\":536.8973391277414," +
-				"\"areaKm2\":12364.345757132623,\"shape\":{\"type\":\"polygon\",\"coordinates\":" +
+				"\"areaKm2\":12364.345757132623," +
+				"\"bbox\":{\"minLon\":2.0,\"minLat\":1.0,\"maxLon\":3.0,\"maxLat\":3.0},\"shape\":{\"type\":\"polygon\",\"coordinates\":" +
 				"[[[2.0,1.0],[3.0,2.0],[2.0,3.0],[2.0,1.0]]]},\"tags\":{\"highway\":\"primary\"}}";
 
 		// Action
@@ -160,4 +185,95 @@ public class ESWayUTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	public void toJson_withSimplifiedShape() {
+		// Setup
+		Way way = mock(Way.class);
+		when(way.getId()).thenReturn(1l);
+		when(way.getTags()).thenReturn(new ArrayList<Tag>());
+		List<WayNode> wayNodes = new ArrayList<WayNode>();
+		wayNodes.add(new WayNode(1l));
+		wayNodes.add(new WayNode(2l));
+		wayNodes.add(new WayNode(3l));
+		when(way.getWayNodes()).thenReturn(wayNodes);
+		ESShapeBuilder builder = new ESShapeBuilder();
+		builder.addLocation(1.0, 2.0).addLocation(1.5, 2.5000001).addLocation(2.0, 3.0);
+		builder.setSimplification(1, true);
+
+		// Action
+		String actual = ESWay.Builder.buildFromEntity(way, builder.build()).toJson();
+
+		// Assert
+		assertTrue(actual.contains("\"shape\":{\"type\":\"linestring\",\"coordinates\":[[2.0,1.0],[3.0,2.0]]}"));
+		assertTrue(actual.contains("\"originalShape\":{\"type\":\"linestring\",\"coordinates\":"
+				+ "[[2.0,1.0],[2.5000001,1.5],[3.0,2.0]]}"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void buildFromEntity_withSimplifiedShapeOfIncompleteWay() {
+		// Setup
+		Way way = mock(Way.class);
+		when(way.getId()).thenReturn(1L);
+		when(way.getTags()).thenReturn(new ArrayList<Tag>());
+		List<WayNode> wayNodes = new ArrayList<WayNode>();
+		for (long id = 1; id <= 4; id++) {
+			wayNodes.add(new WayNode(id));
+		}
+		when(way.getWayNodes()).thenReturn(wayNodes);
+		// Node 4 is missing and the original locations are not kept
+		ESShapeBuilder builder = new ESShapeBuilder();
+		builder.addLocation(1.0, 2.0).addLocation(1.5, 2.5000001).addLocation(2.0, 3.0);
+		builder.setSimplification(1, false);
+
+		// Action
+		ESWay.Builder.buildFromEntity(way, builder.build());
+	}
+
+	@Test
+	public void toJson_withTiles() {
+		// Setup
+		Way way = mock(Way.class);
+		when(way.getId()).thenReturn(1l);
+		when(way.getTags()).thenReturn(new ArrayList<Tag>());
+		List<WayNode> wayNodes = new ArrayList<WayNode>();
+		wayNodes.add(new WayNode(1l));
+		wayNodes.add(new WayNode(2l));
+		when(way.getWayNodes()).thenReturn(wayNodes);
+		ESShapeBuilder builder = new ESShapeBuilder();
+		builder.addLocation(1.0, 2.0).addLocation(2.0, 3.0);
+
+		// Action
+		String actual = ESWay.Builder.buildFromEntity(way, builder.build(), 2).toJson();
+
+		// Assert
+		assertFalse(actual.contains("\"shape\""));
+		assertTrue(actual.contains("\"tiles\":2,\"originalShape\":{\"type\":\"linestring\",\"coordinates\":"
+				+ "[[2.0,1.0],[3.0,2.0]]}"));
+	}
+
+	@Test
+	public void buildFromGetReponse_withTiles() {
+		// Setup
+		Way way = mock(Way.class);
+		when(way.getId()).thenReturn(1l);
+		when(way.getTags()).thenReturn(new ArrayList<Tag>());
+		List<WayNode> wayNodes = new ArrayList<WayNode>();
+		wayNodes.add(new WayNode(1l));
+		wayNodes.add(new WayNode(2l));
+		when(way.getWayNodes()).thenReturn(wayNodes);
+		ESWay expected = ESWay.Builder.buildFromEntity(way,
+				new ESShapeBuilder().addLocation(1.0, 2.0).addLocation(2.0, 3.0).build(), 2);
+		GetResponse response = mock(GetResponse.class);
+		when(response.getType()).thenReturn(ESEntityType.WAY.getIndiceName());
+		when(response.getId()).thenReturn("1");
+		when(response.getSourceAsBytesRef()).thenReturn(expected.toJsonBytes());
+
+		// Action
+		ESWay actual = ESWay.Builder.buildFromGetReponse(response);
+
+		// Assert
+		assertEquals(expected, actual);
+		assertEquals(2, actual.getTileCount());
+	}
+
 }
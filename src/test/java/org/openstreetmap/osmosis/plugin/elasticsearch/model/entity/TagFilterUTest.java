@@ -0,0 +1,89 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+public class TagFilterUTest {
+
+	@Test
+	public void accepts_withIncludeRules() {
+		// Setup
+		TagFilter tagFilter = new TagFilter("highway=primary|secondary, building", "", "");
+
+		// Assert
+		Assert.assertTrue(tagFilter.accepts(tags("highway", "primary")));
+		Assert.assertTrue(tagFilter.accepts(tags("name", "Mairie", "building", "yes")));
+		Assert.assertFalse(tagFilter.accepts(tags("highway", "residential")));
+		Assert.assertFalse(tagFilter.accepts(Collections.<Tag> emptyList()));
+	}
+
+	@Test
+	public void accepts_withExcludeRules() {
+		// Setup
+		TagFilter tagFilter = new TagFilter("", "highway=*,landuse=farmland", "");
+
+		// Assert
+		Assert.assertTrue(tagFilter.accepts(Collections.<Tag> emptyList()));
+		Assert.assertTrue(tagFilter.accepts(tags("landuse", "forest")));
+		Assert.assertFalse(tagFilter.accepts(tags("landuse", "farmland")));
+		Assert.assertFalse(tagFilter.accepts(tags("name", "Rue de Paris", "highway", "residential")));
+	}
+
+	@Test
+	public void accepts_withIncludeAndExcludeRules() {
+		// Setup
+		TagFilter tagFilter = new TagFilter("highway", "access=private", "");
+
+		// Assert
+		Assert.assertTrue(tagFilter.accepts(tags("highway", "service", "access", "yes")));
+		Assert.assertFalse(tagFilter.accepts(tags("highway", "service", "access", "private")));
+	}
+
+	@Test
+	public void project() {
+		// Setup
+		TagFilter tagFilter = new TagFilter("", "", "highway,name*");
+
+		// Action
+		CompactTagMap actual = tagFilter.project(tags("highway", "primary", "name", "Rue de Paris", "name:fr",
+				"Rue de Paris", "source", "survey"));
+
+		// Assert
+		Assert.assertEquals(3, actual.size());
+		Assert.assertEquals("primary", actual.get("highway"));
+		Assert.assertEquals("Rue de Paris", actual.get("name:fr"));
+		Assert.assertFalse(actual.containsKey("source"));
+	}
+
+	@Test
+	public void project_withoutKeys() {
+		// Setup
+		TagFilter tagFilter = new TagFilter("highway", "", "");
+
+		// Action
+		CompactTagMap actual = tagFilter.project(tags("highway", "primary", "source", "survey"));
+
+		// Assert
+		Assert.assertEquals(2, actual.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void buildWithInvalidRule() {
+		new TagFilter("=primary", "", "");
+	}
+
+	private static List<Tag> tags(String... keyValues) {
+		Tag[] tags = new Tag[keyValues.length / 2];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = new Tag(keyValues[2 * i], keyValues[2 * i + 1]);
+		}
+		return Arrays.asList(tags);
+	}
+
+}
@@ -67,4 +67,79 @@ public class ESShapeUTest {
 		Assert.assertEquals(new ESLocation(48.67588161300993, 2.379247584621654), shape.getCentroid());
 	}
 
+	@Test
+	public void buildLineString_withSimplification() {
+		// Setup
+		shapeBuilder.addLocation(48.675763, 2.379358).addLocation(48.675584, 2.379606).addLocation(48.675087, 2.380314)
+				.addLocation(48.674958, 2.380947).addLocation(48.675093, 2.381405).addLocation(48.675406, 2.382000)
+				.addLocation(48.675957, 2.383090).addLocation(48.676137, 2.383404).addLocation(48.676230, 2.384246)
+				.addLocation(48.675890, 2.384684).addLocation(48.675580, 2.385125);
+		shapeBuilder.setSimplification(0.05, true);
+
+		// Action
+		ESShape shape = shapeBuilder.build();
+
+		// Assert
+		Assert.assertTrue(shape.isSimplified());
+		Assert.assertTrue(shape.getGeoJsonArray().length < 11);
+		Assert.assertEquals(11, shape.getOriginalGeoJsonArray().length);
+		Assert.assertEquals(2.379358, shape.getGeoJsonArray()[0][0], 1E-9);
+		Assert.assertEquals(48.675580, shape.getGeoJsonArray()[shape.getGeoJsonArray().length - 1][1], 1E-9);
+		Assert.assertEquals(721E-3, shape.getLengthKm(), 1E-3);
+	}
+
+	@Test
+	public void buildLineString_withSimplificationDroppingOriginal() {
+		// Setup
+		shapeBuilder.addLocation(48.675763, 2.379358).addLocation(48.675584, 2.379606).addLocation(48.675087, 2.380314);
+		shapeBuilder.setSimplification(0.05, false);
+
+		// Action
+		ESShape shape = shapeBuilder.build();
+
+		// Assert
+		Assert.assertTrue(shape.isSimplified());
+		Assert.assertEquals(2, shape.getGeoJsonArray().length);
+		Assert.assertNull(shape.getOriginalGeoJsonArray());
+	}
+
+	@Test
+	public void buildPolygon_withSimplificationCollapsingShape() {
+		// Setup
+		shapeBuilder.addLocation(48.6759473, 2.3792501).addLocation(48.6758837, 2.379149).addLocation(48.675816, 2.3792444)
+				.addLocation(48.6758794, 2.3793465).addLocation(48.6759473, 2.3792501);
+		shapeBuilder.setSimplification(1, true);
+
+		// Action
+		ESShape shape = shapeBuilder.build();
+
+		// Assert
+		Assert.assertFalse(shape.isSimplified());
+		Assert.assertEquals(5, shape.getGeoJsonArray().length);
+		Assert.assertNull(shape.getOriginalGeoJsonArray());
+		Assert.assertEquals(ESShapeType.POLYGON, shape.getShapeType());
+	}
+
+	@Test
+	public void buildLineString_withGeoCells() {
+		// Setup
+		shapeBuilder.addLocation(48.675763, 2.379358).addLocation(48.675584, 2.379606).addLocation(48.675087, 2.380314)
+				.addLocation(48.674958, 2.380947).addLocation(48.675093, 2.381405).addLocation(48.675406, 2.382000);
+		shapeBuilder.setSimplification(0.05, false).setGeoCells(new GeoCells(6, 4));
+
+		// Action
+		ESShape shape = shapeBuilder.build();
+
+		// Assert
+		// The bounding box is the one of the original locations
+		Assert.assertTrue(shape.isSimplified());
+		double[] box = shape.getBoundingBox();
+		Assert.assertEquals(2.379358, box[0], 1E-9);
+		Assert.assertEquals(48.674958, box[1], 1E-9);
+		Assert.assertEquals(2.382000, box[2], 1E-9);
+		Assert.assertEquals(48.675763, box[3], 1E-9);
+		Assert.assertEquals("u", shape.getCells().get(0));
+		Assert.assertEquals("u09", shape.getCells().get(2));
+	}
+
 }
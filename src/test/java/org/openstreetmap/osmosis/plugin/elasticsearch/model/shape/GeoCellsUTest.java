@@ -0,0 +1,68 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class GeoCellsUTest {
+
+	@Test
+	public void cover_withLocation() {
+		// Setup
+		GeoCells geoCells = new GeoCells(11, 4);
+
+		// Action
+		List<String> cells = geoCells.cover(57.64911, 10.40744);
+
+		// Assert
+		Assert.assertEquals(11, cells.size());
+		for (int i = 0; i < 11; i++) {
+			Assert.assertEquals("u4pruydqqvj".substring(0, i + 1), cells.get(i));
+		}
+	}
+
+	@Test
+	public void cover_withLocationOnBounds() {
+		// Setup
+		GeoCells geoCells = new GeoCells(3, 4);
+
+		// Action
+		List<String> cells = geoCells.cover(90, 180);
+
+		// Assert
+		Assert.assertEquals(Arrays.asList("z", "zz", "zzz"), cells);
+	}
+
+	@Test
+	public void cover_withBoundingBox() {
+		// Setup
+		GeoCells geoCells = new GeoCells(6, 4);
+
+		// Action
+		List<String> cells = geoCells.cover(new double[] { -1, 0.5, 1, 1 });
+
+		// Assert
+		// The box spans two cells down to level 3, and six at level 4
+		Assert.assertEquals(6, cells.size());
+		Assert.assertEquals(Arrays.asList("e", "s"), cells.subList(0, 2));
+		Assert.assertTrue(cells.get(2).startsWith("e"));
+		Assert.assertTrue(cells.get(3).startsWith("s"));
+		Assert.assertEquals(3, cells.get(5).length());
+	}
+
+	@Test
+	public void cover_withTooManyCells() {
+		// Setup
+		GeoCells geoCells = new GeoCells(6, 1);
+
+		// Action
+		List<String> cells = geoCells.cover(new double[] { -1, 0.5, 1, 1 });
+
+		// Assert
+		Assert.assertEquals(Arrays.asList("e", "s"), cells);
+	}
+
+}
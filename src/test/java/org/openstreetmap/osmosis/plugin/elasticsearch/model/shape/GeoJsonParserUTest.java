@@ -0,0 +1,75 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.junit.Test;
+
+public class GeoJsonParserUTest {
+
+	@Test
+	public void parseShapeCoordinates_withPoint() {
+		// Setup
+		BytesArray source = new BytesArray("{\"shape\":{\"type\":\"point\",\"coordinates\":[2.0,1.0]}}");
+
+		// Action
+		double[][] actual = GeoJsonParser.parseShapeCoordinates(source);
+
+		// Assert
+		Assert.assertEquals(1, actual.length);
+		Assert.assertEquals(2.0, actual[0][0]);
+		Assert.assertEquals(1.0, actual[0][1]);
+	}
+
+	@Test
+	public void parseShapeCoordinates_withLinestring() {
+		// Setup
+		BytesArray source = new BytesArray("{\"centroid\":[2.5,1.5],\"shape\":{\"type\":\"linestring\","
+				+ "\"coordinates\":[[2.0,1.0],[3.0,2.0]]},\"tags\":{}}");
+
+		// Action
+		double[][] actual = GeoJsonParser.parseShapeCoordinates(source);
+
+		// Assert
+		Assert.assertEquals(2, actual.length);
+		Assert.assertEquals(3.0, actual[1][0]);
+		Assert.assertEquals(2.0, actual[1][1]);
+	}
+
+	@Test
+	public void parseShapeCoordinates_withPolygon() {
+		// Setup
+		BytesArray source = new BytesArray("{\"shape\":{\"type\":\"polygon\",\"coordinates\":"
+				+ "[[[2.0,1.0],[3.0,2.0],[2.0,3.0],[2.0,1.0]],[[2.1,1.1],[2.2,1.2],[2.1,1.3],[2.1,1.1]]]}}");
+
+		// Action
+		double[][] actual = GeoJsonParser.parseShapeCoordinates(source);
+
+		// Assert
+		Assert.assertEquals(4, actual.length);
+		Assert.assertEquals(2.0, actual[3][0]);
+		Assert.assertEquals(1.0, actual[3][1]);
+	}
+
+	@Test
+	public void parseShapeCoordinates_withoutShape() {
+		// Setup
+		BytesArray source = new BytesArray("{\"centroid\":[2.5,1.5],\"tags\":{\"highway\":\"primary\"}}");
+
+		// Action
+		double[][] actual = GeoJsonParser.parseShapeCoordinates(source);
+
+		// Assert
+		Assert.assertNull(actual);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseShapeCoordinates_withInvalidLocation() {
+		// Setup
+		BytesArray source = new BytesArray("{\"shape\":{\"type\":\"linestring\",\"coordinates\":[[2.0,1.0,0.0]]}}");
+
+		// Action
+		GeoJsonParser.parseShapeCoordinates(source);
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.model.shape;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ESShape.ESShapeBuilder;
+import org.openstreetmap.osmosis.plugin.elasticsearch.model.shape.ShapeTiler.Tile;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class ShapeTilerUTest {
+
+	private ShapeTiler shapeTiler;
+
+	@Before
+	public void setUp() {
+		shapeTiler = new ShapeTiler(1);
+	}
+
+	@Test
+	public void clip_withLineString() {
+		// Setup
+		ESShape shape = new ESShapeBuilder().addLocation(0.5, 0.5).addLocation(0.5, 2.5).build();
+
+		// Action
+		List<Tile> tiles = shapeTiler.clip(shape);
+
+		// Assert
+		Assert.assertEquals(3, tiles.size());
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(i, tiles.get(i).getX());
+			Assert.assertEquals(0, tiles.get(i).getY());
+			Assert.assertTrue(tiles.get(i).getGeometry() instanceof LineString);
+		}
+		Assert.assertEquals(0.5, tiles.get(0).getGeometry().getLength(), 1E-9);
+		Assert.assertEquals(1.0, tiles.get(1).getGeometry().getLength(), 1E-9);
+	}
+
+	@Test
+	public void clip_withPolygon() {
+		// Setup
+		ESShape shape = new ESShapeBuilder().addLocation(-0.5, -0.5).addLocation(-0.5, 0.5).addLocation(0.5, 0.5)
+				.addLocation(0.5, -0.5).addLocation(-0.5, -0.5).build();
+
+		// Action
+		List<Tile> tiles = shapeTiler.clip(shape);
+
+		// Assert
+		Assert.assertEquals(4, tiles.size());
+		double area = 0;
+		for (Tile tile : tiles) {
+			Assert.assertTrue(tile.getGeometry() instanceof Polygon);
+			area += tile.getGeometry().getArea();
+		}
+		Assert.assertEquals(1.0, area, 1E-9);
+	}
+
+	@Test
+	public void clip_withShapeInSingleTile() {
+		// Setup
+		ESShape shape = new ESShapeBuilder().addLocation(0.1, 0.1).addLocation(0.9, 0.9).build();
+
+		// Action
+		List<Tile> tiles = shapeTiler.clip(shape);
+
+		// Assert
+		Assert.assertTrue(tiles.isEmpty());
+	}
+
+	@Test
+	public void clip_withPoint() {
+		// Setup
+		ESShape shape = new ESShapeBuilder().addLocation(0.5, 0.5).build();
+
+		// Action
+		List<Tile> tiles = shapeTiler.clip(shape);
+
+		// Assert
+		Assert.assertTrue(tiles.isEmpty());
+	}
+
+}
@@ -1,11 +1,15 @@
 package org.openstreetmap.osmosis.plugin.elasticsearch.service;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
 import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexTemplateMetaData;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.junit.Assume;
 import org.junit.Before;
@@ -67,4 +71,114 @@ public class IndexAdminServiceITest extends AbstractElasticSearchInMemoryTest {
 				state.getMetaData().index(INDEX_NAME).mapping("myindex").source().string());
 	}
 
+	@Test
+	public void createIndices() {
+		// Setup
+		client().admin().indices().prepareCreate(INDEX_NAME).execute().actionGet();
+		List<IndexConfiguration> configurations = new ArrayList<IndexConfiguration>();
+		configurations.add(new IndexConfiguration(INDEX_NAME, 1, 0, null));
+		configurations.add(new IndexConfiguration(INDEX_NAME + "-other", 2, 0, null));
+
+		// Action
+		Map<String, Exception> failures = indexAdminService.createIndices(configurations);
+
+		// Assert
+		Assert.assertTrue(failures.isEmpty());
+		Assert.assertTrue(exists(INDEX_NAME));
+		Assert.assertTrue(exists(INDEX_NAME + "-other"));
+		ClusterState state = client().admin().cluster().prepareState().execute().actionGet().getState();
+		Assert.assertEquals(2, state.getMetaData().index(INDEX_NAME + "-other").getNumberOfShards());
+	}
+
+	@Test
+	public void createIndices_withInvalidMapping() {
+		// Setup
+		HashMap<String, String> mappings = new HashMap<String, String>();
+		mappings.put("way", "{\"properties\":{\"line\":{\"type\":\"unknown_type\"}}}");
+		List<IndexConfiguration> configurations = new ArrayList<IndexConfiguration>();
+		configurations.add(new IndexConfiguration(INDEX_NAME, 1, 0, null));
+		configurations.add(new IndexConfiguration(INDEX_NAME + "-invalid", 1, 0, mappings));
+
+		// Action
+		Map<String, Exception> failures = indexAdminService.createIndices(configurations);
+
+		// Assert
+		Assert.assertEquals(1, failures.size());
+		Assert.assertTrue(failures.containsKey(INDEX_NAME + "-invalid"));
+		Assert.assertTrue(exists(INDEX_NAME));
+	}
+
+	@Test
+	public void installTemplate() {
+		// Setup
+		String name = INDEX_NAME + "-template";
+		HashMap<String, String> mappings = new HashMap<String, String>();
+		mappings.put("myindex", "{\"properties\":{\"my_field\":{\"type\":\"string\"}}}");
+		HashMap<String, String> settings = new HashMap<String, String>();
+		settings.put("index.codec", "best_compression");
+
+		// Action
+		boolean installed = indexAdminService.installTemplate(new IndexConfiguration(name, 1, 0, mappings, settings), 1);
+		indexAdminService.createIndex(name, 1, 0, null);
+
+		// Assert
+		Assert.assertTrue(installed);
+		ClusterState state = client().admin().cluster().prepareState().execute().actionGet().getState();
+		Assert.assertEquals("best_compression", state.getMetaData().index(name).getSettings().get("index.codec"));
+		Assert.assertNotNull(state.getMetaData().index(name).mapping("myindex"));
+	}
+
+	@Test
+	public void installTemplate_withSameVersion_shouldReuse() {
+		// Setup
+		IndexConfiguration configuration = new IndexConfiguration(INDEX_NAME + "-reused", 1, 0, null);
+		indexAdminService.installTemplate(configuration, 1);
+
+		// Action
+		boolean installed = indexAdminService.installTemplate(configuration, 1);
+
+		// Assert
+		Assert.assertFalse(installed);
+	}
+
+	@Test
+	public void installTemplate_withNewVersion_shouldReplace() {
+		// Setup
+		IndexConfiguration configuration = new IndexConfiguration(INDEX_NAME + "-replaced", 1, 0, null);
+		String prefix = IndexAdminService.getTemplatePrefix(configuration.getName());
+		indexAdminService.installTemplate(configuration, 1);
+
+		// Action
+		boolean installed = indexAdminService.installTemplate(configuration, 2);
+
+		// Assert
+		Assert.assertTrue(installed);
+		List<IndexTemplateMetaData> templates = client().admin().indices().prepareGetTemplates(prefix + "*")
+				.execute().actionGet().getIndexTemplates();
+		Assert.assertEquals(1, templates.size());
+		Assert.assertTrue(templates.get(0).getName().startsWith(prefix + "2-"));
+	}
+
+	@Test
+	public void installTemplate_withNewContent_shouldReplace() {
+		// Setup
+		String name = INDEX_NAME + "-changed";
+		String prefix = IndexAdminService.getTemplatePrefix(name);
+		HashMap<String, String> settings = new HashMap<String, String>();
+		settings.put("index.codec", "best_compression");
+		indexAdminService.installTemplate(new IndexConfiguration(name, 1, 0, null), 1);
+
+		// Action
+		boolean installed = indexAdminService.installTemplate(new IndexConfiguration(name, 1, 0, null, settings), 1);
+		indexAdminService.createIndex(name, 1, 0, null);
+
+		// Assert
+		Assert.assertTrue(installed);
+		List<IndexTemplateMetaData> templates = client().admin().indices().prepareGetTemplates(prefix + "*")
+				.execute().actionGet().getIndexTemplates();
+		Assert.assertEquals(1, templates.size());
+		ClusterState state = client().admin().cluster().prepareState().execute().actionGet().getState();
+		Assert.assertEquals("best_compression", state.getMetaData().index(name).getSettings().get("index.codec"));
+	}
+
 }
@@ -0,0 +1,96 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+
+public class CheckpointUTest {
+
+	private File file;
+
+	@Before
+	public void setUp() {
+		file = new File("target/checkpoint-" + System.nanoTime() + ".properties");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void load_withMissingFile() {
+		// Action
+		Checkpoint checkpoint = Checkpoint.load(file);
+
+		// Assert
+		Assert.assertTrue(checkpoint.isEmpty());
+		Assert.assertNull(checkpoint.getLastId(EntityType.Node));
+		Assert.assertFalse(checkpoint.isIndexed(OsmDataBuilder.buildSampleNode(1)));
+	}
+
+	@Test
+	public void saveAndLoad() {
+		// Setup
+		Checkpoint checkpoint = new Checkpoint(file);
+		checkpoint.setLastId(EntityType.Node, 42);
+		checkpoint.setLastId(EntityType.Way, 7);
+
+		// Action
+		checkpoint.save();
+		Checkpoint actual = Checkpoint.load(file);
+
+		// Assert
+		Assert.assertEquals(Long.valueOf(42), actual.getLastId(EntityType.Node));
+		Assert.assertEquals(Long.valueOf(7), actual.getLastId(EntityType.Way));
+		Assert.assertNull(actual.getLastId(EntityType.Relation));
+		Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void save_shouldReplacePreviousCheckpoint() {
+		// Setup
+		Checkpoint checkpoint = new Checkpoint(file);
+		checkpoint.setLastId(EntityType.Node, 1);
+		checkpoint.save();
+		checkpoint.setLastId(EntityType.Node, 2);
+
+		// Action
+		checkpoint.save();
+
+		// Assert
+		Assert.assertEquals(Long.valueOf(2), Checkpoint.load(file).getLastId(EntityType.Node));
+	}
+
+	@Test
+	public void isIndexed() {
+		// Setup
+		Checkpoint checkpoint = new Checkpoint(file);
+		checkpoint.setLastId(EntityType.Node, 10);
+
+		// Assert
+		Assert.assertTrue(checkpoint.isIndexed(OsmDataBuilder.buildSampleNode(9)));
+		Assert.assertTrue(checkpoint.isIndexed(OsmDataBuilder.buildSampleNode(10)));
+		Assert.assertFalse(checkpoint.isIndexed(OsmDataBuilder.buildSampleNode(11)));
+		Assert.assertFalse(checkpoint.isIndexed(OsmDataBuilder.buildWay(1)));
+	}
+
+	@Test
+	public void isIndexed_withFollowingType() {
+		// Setup
+		Checkpoint checkpoint = new Checkpoint(file);
+		checkpoint.setLastId(EntityType.Way, 10);
+
+		// Assert
+		Assert.assertTrue(checkpoint.isIndexed(OsmDataBuilder.buildSampleNode(1000)));
+		Assert.assertTrue(checkpoint.isIndexed(OsmDataBuilder.buildWay(10)));
+		Assert.assertFalse(checkpoint.isIndexed(OsmDataBuilder.buildWay(11)));
+	}
+
+}
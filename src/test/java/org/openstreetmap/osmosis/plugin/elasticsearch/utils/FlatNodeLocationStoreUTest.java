@@ -0,0 +1,128 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlatNodeLocationStoreUTest {
+
+	private File file;
+
+	@Before
+	public void setUp() {
+		file = new File("target/nodes-" + System.nanoTime() + ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void putAndCopyTo() {
+		// Setup
+		FlatNodeLocationStore store = new FlatNodeLocationStore(file, true);
+		NodeLocations locations = new NodeLocations();
+
+		// Action
+		store.put(1, 48.8583701, 2.2944813);
+		store.put(200000000, -90.0, -180.0);
+		store.put(3, 0.0, 0.0);
+
+		// Assert
+		Assert.assertTrue(store.copyTo(1, locations));
+		Assert.assertTrue(store.copyTo(200000000, locations));
+		Assert.assertTrue(store.copyTo(3, locations));
+		Assert.assertEquals(48.8583701, locations.getLatitude(locations.indexOf(1)));
+		Assert.assertEquals(2.2944813, locations.getLongitude(locations.indexOf(1)));
+		Assert.assertEquals(-90.0, locations.getLatitude(locations.indexOf(200000000)));
+		Assert.assertEquals(-180.0, locations.getLongitude(locations.indexOf(200000000)));
+		Assert.assertEquals(0.0, locations.getLatitude(locations.indexOf(3)));
+		Assert.assertEquals(3, store.getStoredCount());
+		store.close();
+	}
+
+	@Test
+	public void copyTo_withUnknownNode() {
+		// Setup
+		FlatNodeLocationStore store = new FlatNodeLocationStore(file, true);
+		store.put(1, 1.0, 2.0);
+		NodeLocations locations = new NodeLocations();
+
+		// Assert
+		Assert.assertFalse(store.copyTo(2, locations));
+		Assert.assertFalse(store.copyTo(500000000, locations));
+		Assert.assertEquals(0, locations.size());
+		store.close();
+	}
+
+	@Test
+	public void put_withNegativeId() {
+		// Setup
+		FlatNodeLocationStore store = new FlatNodeLocationStore(file, true);
+
+		try {
+			// Action
+			store.put(-1, 1.0, 2.0);
+			Assert.fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// Assert
+			Assert.assertEquals(0, store.getStoredCount());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void copyTo_withNegativeId() {
+		// Setup
+		FlatNodeLocationStore store = new FlatNodeLocationStore(file, true);
+
+		try {
+			// Action
+			store.copyTo(-1, new NodeLocations());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void close_shouldReleaseSegments() {
+		// Setup
+		FlatNodeLocationStore store = new FlatNodeLocationStore(file, true);
+		store.put(42, 1.5, 2.5);
+
+		// Action
+		store.close();
+
+		// Assert
+		Assert.assertFalse(file.exists());
+		try {
+			store.copyTo(42, new NodeLocations());
+			Assert.fail("IllegalStateException expected");
+		} catch (IllegalStateException e) {}
+	}
+
+	@Test
+	public void reopen_shouldKeepLocations() {
+		// Setup
+		FlatNodeLocationStore store = new FlatNodeLocationStore(file, false);
+		store.put(42, 1.5, 2.5);
+		store.close();
+
+		// Action
+		FlatNodeLocationStore actual = new FlatNodeLocationStore(file, true);
+		NodeLocations locations = new NodeLocations();
+
+		// Assert
+		Assert.assertTrue(actual.copyTo(42, locations));
+		Assert.assertEquals(1.5, locations.getLatitude(locations.indexOf(42)));
+		actual.close();
+		Assert.assertFalse(file.exists());
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongHashSetUTest {
+
+	@Test
+	public void add() {
+		// Setup
+		LongHashSet set = new LongHashSet();
+
+		// Action
+		boolean first = set.add(42);
+		boolean second = set.add(42);
+
+		// Assert
+		Assert.assertTrue(first);
+		Assert.assertFalse(second);
+		Assert.assertEquals(1, set.size());
+		Assert.assertTrue(set.contains(42));
+		Assert.assertFalse(set.contains(43));
+	}
+
+	@Test
+	public void add_withManyValues() {
+		// Setup
+		LongHashSet set = new LongHashSet(2);
+
+		// Action
+		for (long i = -1000; i < 1000; i++) {
+			set.add(i * 1024);
+		}
+
+		// Assert
+		Assert.assertEquals(2000, set.size());
+		for (long i = -1000; i < 1000; i++) {
+			Assert.assertTrue(set.contains(i * 1024));
+		}
+		Assert.assertFalse(set.contains(1));
+	}
+
+	@Test
+	public void add_withMinValue() {
+		// Setup
+		LongHashSet set = new LongHashSet();
+
+		// Action
+		set.add(Long.MIN_VALUE);
+
+		// Assert
+		Assert.assertTrue(set.contains(Long.MIN_VALUE));
+		Assert.assertEquals(1, set.size());
+	}
+
+	@Test
+	public void toArray() {
+		// Setup
+		LongHashSet set = new LongHashSet();
+		set.add(3);
+		set.add(1);
+		set.add(2);
+		set.add(1);
+
+		// Action
+		long[] actual = set.toArray();
+
+		// Assert
+		Arrays.sort(actual);
+		Assert.assertArrayEquals(new long[] { 1, 2, 3 }, actual);
+	}
+
+}
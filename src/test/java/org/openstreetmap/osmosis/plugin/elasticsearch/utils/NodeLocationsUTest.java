@@ -0,0 +1,57 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NodeLocationsUTest {
+
+	@Test
+	public void put() {
+		// Setup
+		NodeLocations locations = new NodeLocations();
+
+		// Action
+		locations.put(1, 1.0, 2.0);
+		locations.put(1, 3.0, 4.0);
+
+		// Assert
+		Assert.assertEquals(1, locations.size());
+		int index = locations.indexOf(1);
+		Assert.assertEquals(3.0, locations.getLatitude(index), 0);
+		Assert.assertEquals(4.0, locations.getLongitude(index), 0);
+	}
+
+	@Test
+	public void put_withManyLocations() {
+		// Setup
+		NodeLocations locations = new NodeLocations(1);
+
+		// Action
+		for (int i = 0; i < 1000; i++) {
+			locations.put(i, i / 10.0, -i / 10.0);
+		}
+
+		// Assert
+		Assert.assertEquals(1000, locations.size());
+		for (int i = 0; i < 1000; i++) {
+			int index = locations.indexOf(i);
+			Assert.assertEquals(i / 10.0, locations.getLatitude(index), 0);
+			Assert.assertEquals(-i / 10.0, locations.getLongitude(index), 0);
+		}
+	}
+
+	@Test
+	public void indexOf_withUnknownId() {
+		// Setup
+		NodeLocations locations = new NodeLocations();
+		locations.put(1, 1.0, 2.0);
+
+		// Action
+		int actual = locations.indexOf(2);
+
+		// Assert
+		Assert.assertEquals(-1, actual);
+		Assert.assertFalse(locations.contains(2));
+	}
+
+}
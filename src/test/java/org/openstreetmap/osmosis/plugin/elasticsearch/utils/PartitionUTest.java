@@ -0,0 +1,147 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.utils;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+
+public class PartitionUTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = new File("target/partition-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void accepts() {
+		// Setup
+		Partition partition0 = new Partition(0, 3, directory);
+		Partition partition1 = new Partition(1, 3, directory);
+
+		// Assert
+		Assert.assertTrue(partition0.accepts(OsmDataBuilder.buildSampleNode(3)));
+		Assert.assertFalse(partition0.accepts(OsmDataBuilder.buildSampleNode(4)));
+		Assert.assertTrue(partition1.accepts(OsmDataBuilder.buildSampleNode(4)));
+		Assert.assertTrue(partition1.accepts(OsmDataBuilder.buildWay(1)));
+		Assert.assertTrue(partition0.isCoordinator());
+		Assert.assertFalse(partition1.isCoordinator());
+	}
+
+	@Test
+	public void partitionOf_withNegativeId() {
+		// Setup
+		Partition partition = new Partition(0, 3, directory);
+
+		// Assert
+		Assert.assertEquals(2, partition.partitionOf(-1));
+		Assert.assertEquals(0, partition.partitionOf(-3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_withInvalidIndex() {
+		new Partition(2, 2, directory);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructor_withCompletedRun() {
+		// Setup
+		new Partition(1, 2, directory).markDone(Partition.STEP_COMPLETE);
+
+		// Action
+		new Partition(0, 2, directory);
+	}
+
+	@Test
+	public void markDone() {
+		// Setup
+		Partition partition = new Partition(1, 2, directory);
+
+		// Action
+		partition.markDone("node");
+		partition.markDone("node");
+
+		// Assert
+		Assert.assertTrue(partition.isDone("node", 1));
+		Assert.assertFalse(partition.isDone("node", 0));
+		Assert.assertFalse(partition.isDone("way", 1));
+	}
+
+	@Test
+	public void awaitAll() throws InterruptedException {
+		// Setup
+		final Partition partition0 = new Partition(0, 2, directory, 1);
+		final Partition partition1 = new Partition(1, 2, directory, 1);
+		final CountDownLatch latch = new CountDownLatch(1);
+		partition0.markDone("node");
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				partition0.awaitAll("node");
+				latch.countDown();
+			}
+		};
+		thread.start();
+
+		// Action
+		Assert.assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+		partition1.markDone("node");
+
+		// Assert
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void fromParameters() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_PARTITION_COUNT, "4")
+				.addParameter(Parameters.CONFIG_PARTITION_INDEX, "2")
+				.addParameter(Parameters.CONFIG_PARTITION_DIRECTORY, directory.getPath())
+				.addParameter(Parameters.CONFIG_PARTITION_RUN, "run-1").build();
+
+		// Action
+		Partition partition = Partition.fromParameters(params);
+		partition.markDone("node");
+
+		// Assert
+		Assert.assertEquals(2, partition.getIndex());
+		Assert.assertEquals(4, partition.getCount());
+		Assert.assertTrue(new File(new File(directory, "run-1"), "node-2.done").exists());
+		Assert.assertNull(Partition.fromParameters(new Parameters.Builder().loadResource("plugin.properties").build()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fromParameters_withoutRun() {
+		// Setup
+		Parameters params = new Parameters.Builder().loadResource("plugin.properties")
+				.addParameter(Parameters.CONFIG_PARTITION_COUNT, "4")
+				.addParameter(Parameters.CONFIG_PARTITION_DIRECTORY, directory.getPath()).build();
+
+		// Action
+		Partition.fromParameters(params);
+	}
+
+}
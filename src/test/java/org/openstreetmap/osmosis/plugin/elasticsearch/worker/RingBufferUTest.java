@@ -0,0 +1,149 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class RingBufferUTest {
+
+	@Test
+	public void capacity_shouldBeRoundedToPowerOfTwo() {
+		Assert.assertEquals(2, new RingBuffer<Integer>(1, WaitStrategy.PARK).capacity());
+		Assert.assertEquals(2, new RingBuffer<Integer>(2, WaitStrategy.PARK).capacity());
+		Assert.assertEquals(4, new RingBuffer<Integer>(3, WaitStrategy.PARK).capacity());
+		Assert.assertEquals(128, new RingBuffer<Integer>(100, WaitStrategy.PARK).capacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacity_withTooLargeCapacity() {
+		new RingBuffer<Integer>((1 << 30) + 1, WaitStrategy.PARK);
+	}
+
+	@Test
+	public void offerAndPoll_withCapacityOfOne() {
+		// Setup
+		RingBuffer<Integer> ringBuffer = new RingBuffer<Integer>(1, WaitStrategy.PARK);
+
+		// Action
+		Assert.assertTrue(ringBuffer.offer(1));
+		Assert.assertTrue(ringBuffer.offer(2));
+		Assert.assertFalse(ringBuffer.offer(3));
+
+		// Assert
+		Assert.assertEquals(Integer.valueOf(1), ringBuffer.poll());
+		Assert.assertEquals(Integer.valueOf(2), ringBuffer.poll());
+		Assert.assertNull(ringBuffer.poll());
+	}
+
+	@Test
+	public void offerAndPoll() {
+		// Setup
+		RingBuffer<Integer> ringBuffer = new RingBuffer<Integer>(2, WaitStrategy.PARK);
+
+		// Action
+		Assert.assertTrue(ringBuffer.offer(1));
+		Assert.assertTrue(ringBuffer.offer(2));
+		Assert.assertFalse(ringBuffer.offer(3));
+
+		// Assert
+		Assert.assertEquals(2, ringBuffer.size());
+		Assert.assertEquals(Integer.valueOf(1), ringBuffer.peek());
+		Assert.assertEquals(Integer.valueOf(1), ringBuffer.poll());
+		Assert.assertEquals(Integer.valueOf(2), ringBuffer.poll());
+		Assert.assertNull(ringBuffer.poll());
+		Assert.assertTrue(ringBuffer.isEmpty());
+	}
+
+	@Test
+	public void poll_withTimeout() throws InterruptedException {
+		// Setup
+		RingBuffer<Integer> ringBuffer = new RingBuffer<Integer>(2, WaitStrategy.YIELD);
+
+		// Action
+		Integer actual = ringBuffer.poll(10, TimeUnit.MILLISECONDS);
+
+		// Assert
+		Assert.assertNull(actual);
+	}
+
+	@Test
+	public void drainTo() {
+		// Setup
+		RingBuffer<Integer> ringBuffer = new RingBuffer<Integer>(4, WaitStrategy.PARK);
+		for (int i = 0; i < 4; i++) {
+			ringBuffer.offer(i);
+		}
+		List<Integer> drained = new ArrayList<Integer>();
+
+		// Action
+		int count = ringBuffer.drainTo(drained, 3);
+
+		// Assert
+		Assert.assertEquals(3, count);
+		Assert.assertEquals(3, drained.size());
+		Assert.assertEquals(Integer.valueOf(0), drained.get(0));
+		Assert.assertEquals(Integer.valueOf(2), drained.get(2));
+		Assert.assertEquals(1, ringBuffer.size());
+		Assert.assertTrue(ringBuffer.offer(4));
+		Assert.assertEquals(Integer.valueOf(3), ringBuffer.poll());
+		Assert.assertEquals(Integer.valueOf(4), ringBuffer.poll());
+	}
+
+	@Test
+	public void concurrentProducersAndConsumers() throws InterruptedException {
+		// Setup
+		final RingBuffer<Long> ringBuffer = new RingBuffer<Long>(16, WaitStrategy.YIELD);
+		final int threads = 4;
+		final int count = 50000;
+		final AtomicLong sum = new AtomicLong();
+		final CountDownLatch consumed = new CountDownLatch(threads * count);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long i = 1; i <= count; i++) {
+							ringBuffer.put(i);
+						}
+					} catch (InterruptedException e) {}
+				}
+			});
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (consumed.getCount() > 0) {
+							Long value = ringBuffer.poll(1, TimeUnit.MILLISECONDS);
+							if (value == null) continue;
+							sum.addAndGet(value);
+							consumed.countDown();
+						}
+					} catch (InterruptedException e) {}
+				}
+			});
+		}
+
+		// Action
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		boolean completed = consumed.await(30, TimeUnit.SECONDS);
+		for (Thread worker : workers) {
+			worker.interrupt();
+			worker.join();
+		}
+
+		// Assert
+		Assert.assertTrue(completed);
+		Assert.assertEquals(threads * ((long) count * (count + 1) / 2), sum.get());
+		Assert.assertTrue(ringBuffer.isEmpty());
+	}
+
+}
@@ -0,0 +1,232 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.store.StoreClassRegister;
+import org.openstreetmap.osmosis.core.store.StoreWriter;
+import org.openstreetmap.osmosis.plugin.elasticsearch.testutils.OsmDataBuilder;
+
+public class SpillQueueUTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = new File("target/spill-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void offer_shouldSpillWhenMemoryQueueIsFull() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1 << 20, 0);
+
+		// Action
+		Assert.assertTrue(queue.offer(chunk(1)));
+		Assert.assertTrue(queue.offer(chunk(2)));
+		Assert.assertTrue(queue.offer(chunk(3)));
+
+		// Assert
+		Assert.assertEquals(3, queue.size());
+		Assert.assertEquals(2, queue.getSpilledChunks());
+		Assert.assertEquals(2, queue.getTotalSpilledChunks());
+		Assert.assertFalse(queue.isEmpty());
+		queue.close();
+	}
+
+	@Test
+	public void poll_shouldKeepOfferOrder() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1 << 20, 0);
+		for (long i = 1; i <= 4; i++) {
+			queue.offer(chunk(i));
+		}
+
+		// Action
+		List<Long> ids = new ArrayList<Long>();
+		List<Entity> chunk;
+		while ((chunk = queue.poll()) != null) {
+			Assert.assertEquals(2, chunk.size());
+			Assert.assertTrue(chunk.get(0) instanceof Node);
+			Assert.assertTrue(chunk.get(1) instanceof Way);
+			ids.add(chunk.get(0).getId());
+		}
+
+		// Assert
+		Assert.assertEquals(Arrays.asList(1l, 2l, 3l, 4l), ids);
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertEquals(0, queue.size());
+		Assert.assertEquals(0, directory.listFiles().length);
+		queue.close();
+	}
+
+	@Test
+	public void poll_shouldRestoreEntities() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1 << 20, 0);
+		queue.offer(chunk(1));
+		queue.offer(chunk(2));
+		queue.poll();
+
+		// Action
+		List<Entity> chunk = queue.poll();
+
+		// Assert
+		Node node = (Node) chunk.get(0);
+		Assert.assertEquals(2, node.getId());
+		Assert.assertEquals(1.0d, node.getLatitude());
+		Assert.assertEquals(2.0d, node.getLongitude());
+		Way way = (Way) chunk.get(1);
+		Assert.assertEquals(2, way.getId());
+		Assert.assertEquals(3, way.getWayNodes().size());
+		Assert.assertEquals(2, way.getWayNodes().get(1).getNodeId());
+		Assert.assertEquals("residential", way.getTags().iterator().next().getValue());
+		queue.close();
+	}
+
+	@Test
+	public void offer_withSmallSegments() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1, 0);
+
+		// Action
+		for (long i = 1; i <= 4; i++) {
+			queue.offer(chunk(i));
+		}
+
+		// Assert
+		Assert.assertEquals(3, directory.listFiles().length);
+		for (long i = 1; i <= 4; i++) {
+			Assert.assertEquals(i, queue.poll().get(0).getId());
+		}
+		Assert.assertEquals(0, directory.listFiles().length);
+		queue.close();
+	}
+
+	@Test
+	public void offer_withMaxSpillBytesReached() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1 << 20, 1);
+		queue.offer(chunk(1));
+		queue.offer(chunk(2));
+
+		// Action
+		boolean actual = queue.offer(chunk(3));
+
+		// Assert
+		Assert.assertFalse(actual);
+		Assert.assertEquals(2, queue.size());
+		queue.close();
+	}
+
+	@Test
+	public void close_shouldDeleteSegments() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1, 0);
+		for (long i = 1; i <= 3; i++) {
+			queue.offer(chunk(i));
+		}
+
+		// Action
+		queue.close();
+
+		// Assert
+		Assert.assertFalse(directory.exists());
+		Assert.assertEquals(0, queue.getSpilledChunks());
+	}
+
+	@Test
+	public void close_withPartiallyFilledSegment_shouldDeleteDirectory() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1 << 20, 0);
+		for (long i = 1; i <= 3; i++) {
+			queue.offer(chunk(i));
+		}
+
+		// Action
+		queue.close();
+
+		// Assert
+		Assert.assertFalse(directory.exists());
+		Assert.assertEquals(0, queue.getSpilledChunks());
+	}
+
+	@Test
+	public void close_withExistingDirectory_shouldKeepIt() {
+		// Setup
+		directory.mkdirs();
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1, 0);
+		for (long i = 1; i <= 3; i++) {
+			queue.offer(chunk(i));
+		}
+
+		// Action
+		queue.close();
+
+		// Assert
+		Assert.assertTrue(directory.isDirectory());
+		Assert.assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void offer_withWriteFailure_shouldKeepPreviousChunks() {
+		// Setup
+		SpillQueue queue = new SpillQueue(new ArrayBlockingQueue<List<Entity>>(1), directory, 1 << 20, 0);
+		Node invalidNode = mock(Node.class);
+		doThrow(new RuntimeException("Disk full")).when(invalidNode).store(any(StoreWriter.class),
+				any(StoreClassRegister.class));
+		List<Entity> invalidChunk = new ArrayList<Entity>(chunk(3));
+		invalidChunk.add(invalidNode);
+		queue.offer(chunk(1));
+		queue.offer(chunk(2));
+
+		// Action
+		try {
+			queue.offer(invalidChunk);
+			Assert.fail("IllegalStateException expected");
+		} catch (IllegalStateException e) {}
+		queue.offer(chunk(4));
+
+		// Assert
+		Assert.assertEquals(3, queue.size());
+		Assert.assertEquals(1, queue.poll().get(0).getId());
+		Assert.assertEquals(2, queue.poll().get(0).getId());
+		Assert.assertEquals(4, queue.poll().get(0).getId());
+		Assert.assertNull(queue.poll());
+		queue.close();
+	}
+
+	private static List<Entity> chunk(long id) {
+		List<Entity> chunk = new ArrayList<Entity>();
+		chunk.add(OsmDataBuilder.buildSampleNode(id));
+		chunk.add(OsmDataBuilder.buildSampleWay(id, 1, 2, 3));
+		return chunk;
+	}
+
+}
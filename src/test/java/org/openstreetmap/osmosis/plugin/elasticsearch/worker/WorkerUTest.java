@@ -0,0 +1,94 @@
+package org.openstreetmap.osmosis.plugin.elasticsearch.worker;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.EntityBuffer;
+import org.openstreetmap.osmosis.plugin.elasticsearch.utils.EntityBuffer.EntityBufferFactory;
+
+public class WorkerUTest {
+
+	@Test
+	public void run_shouldClaimChunksInBatches() throws Exception {
+		// Setup
+		GatedQueue queue = new GatedQueue(4);
+		EntityBuffer entityBuffer = mock(EntityBuffer.class);
+		EntityBufferFactory factory = mock(EntityBufferFactory.class);
+		when(factory.buildForType(EntityType.Node)).thenReturn(entityBuffer);
+		Entity entity1 = mock(Entity.class);
+		Entity entity2 = mock(Entity.class);
+		Entity entity3 = mock(Entity.class);
+		ChunkCounter chunkCounter = new ChunkCounter();
+		Worker worker = new Worker("Worker", queue, factory, 2, chunkCounter);
+		worker.start();
+		worker.notifyNewType(EntityType.Node);
+
+		// Action
+		for (Entity entity : Arrays.asList(entity1, entity2, entity3)) {
+			chunkCounter.submitted();
+			queue.add(Arrays.asList(entity));
+		}
+		queue.open = true;
+		chunkCounter.awaitDrained();
+		worker.shutdown();
+
+		// Assert
+		Assert.assertEquals(2, queue.polls.get());
+		Assert.assertEquals(1, queue.drained.get());
+		InOrder inOrder = inOrder(entityBuffer);
+		inOrder.verify(entityBuffer).add(entity1);
+		inOrder.verify(entityBuffer).add(entity2);
+		inOrder.verify(entityBuffer).add(entity3);
+		inOrder.verify(entityBuffer).flush();
+	}
+
+	/**
+	 * Hands out no chunk until opened, so that all of them are waiting when
+	 * the worker starts claiming
+	 */
+	@SuppressWarnings("serial")
+	private static class GatedQueue extends ArrayBlockingQueue<List<Entity>> {
+
+		private volatile boolean open = false;
+		private final AtomicInteger polls = new AtomicInteger();
+		private final AtomicInteger drained = new AtomicInteger();
+
+		public GatedQueue(int capacity) {
+			super(capacity);
+		}
+
+		@Override
+		public List<Entity> poll(long timeout, TimeUnit unit) throws InterruptedException {
+			if (!open) {
+				Thread.sleep(unit.toMillis(timeout));
+				return null;
+			}
+			List<Entity> chunk = super.poll(timeout, unit);
+			if (chunk != null) polls.incrementAndGet();
+			return chunk;
+		}
+
+		@Override
+		public int drainTo(Collection<? super List<Entity>> c, int maxElements) {
+			int count = super.drainTo(c, maxElements);
+			drained.addAndGet(count);
+			return count;
+		}
+
+	}
+
+}